@@ -0,0 +1,92 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * Checks that AStarParser returns the trees of CKYParser on the test
+ * sentences, then compares the two by sentence length: items popped by A*
+ * against the items CKYParser fills (finite scores) and against all the items
+ * of the chart, and the time per sentence.
+ *
+ * Flags: -path or -seed/-trainTrees/-testTrees (see BenchmarkData),
+ * -splitLabels, -maxTestLength, -buckets 10,20,30,40 (upper lengths).
+ */
+public class AStarBenchmark {
+
+    public static void main(String[] args) {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        int[] buckets = BenchmarkData.parseInts(CommandLineUtils.getValueOrUseDefault(argMap, "-buckets", "10,20,30,40"));
+        CKYParser parser = new CKYParser(BenchmarkData.trainTrees(argMap));
+        List<Tree<String>> testTrees = BenchmarkData.testTrees(argMap);
+        AStarParser astar = new AStarParser(parser, buckets[buckets.length - 1]);
+
+        int differ = 0;
+        for (Tree<String> tree : testTrees) {
+            List<String> sentence = tree.getYield();
+            if (!astar.getBestParse(sentence).toString().equals(parser.getBestParse(sentence).toString())) differ++;
+        }
+        System.out.println(differ == 0 ? "All " + testTrees.size() + " trees identical to CKYParser" :
+                "FAILED: " + differ + "/" + testTrees.size() + " trees differ from CKYParser");
+        astar.printStats();
+
+        System.out.format("%9s %6s  %10s %10s %8s  %9s %9s %9s\n", "length", "sents", "cky ms", "a* ms", "speed-up",
+                "popped", "% filled", "% chart");
+        int low = 1;
+        for (int high : buckets) {
+            List<List<String>> sentences = new ArrayList<List<String>>();
+            for (Tree<String> tree : testTrees) {
+                int length = tree.getYield().size();
+                if (length >= low && length <= high) sentences.add(tree.getYield());
+            }
+            if (!sentences.isEmpty()) {
+                long[] ckyNanos = new long[sentences.size()];
+                long[] astarNanos = new long[sentences.size()];
+                CellParallelBenchmark.parseTimed(parser, sentences);    // warm-up
+                CellParallelBenchmark.parseTimed(parser, sentences, ckyNanos);
+                parseTimed(astar, sentences, astarNanos);
+                long popped = 0, filled = 0, chartItems = 0;
+                for (List<String> sentence : sentences) {
+                    astar.getBestParse(sentence);
+                    popped += astar.lastItemsPopped();
+                    filled += filledItems(parser, sentence);
+                    chartItems += 2L * CKYChart.numCells(sentence.size()) * parser.m_NumTags;
+                }
+                double ckyMean = BenchmarkData.mean(ckyNanos);
+                System.out.format("%9s %6d  %10.3f %10.3f %7.2fx  %9d %8.2f%% %8.2f%%\n", low + "-" + high, sentences.size(),
+                        ckyMean / 1e6, BenchmarkData.mean(astarNanos) / 1e6, ckyMean / BenchmarkData.mean(astarNanos),
+                        popped / sentences.size(), 100.0 * popped / filled, 100.0 * popped / chartItems);
+            }
+            low = high + 1;
+        }
+        System.out.println("(popped: mean items per sentence; % filled: of the items CKYParser fills; % chart: of all items)");
+    }
+
+    static void parseTimed(AStarParser astar, List<List<String>> sentences, long[] nanos) {
+        for (List<String> sentence : sentences) {
+            astar.getBestParse(sentence);       // warm-up
+        }
+        for (int idx = 0; idx < sentences.size(); idx++) {
+            long start = System.nanoTime();
+            astar.getBestParse(sentences.get(idx));
+            nanos[idx] = System.nanoTime() - start;
+        }
+    }
+
+    // Binary and unary items with a finite score in the chart of CKYParser
+    static long filledItems(CKYParser parser, List<String> sentence) {
+        CKYChart chart = parser.initChart(sentence);
+        parser.parse(sentence, null, null, null);
+        long filled = 0;
+        int used = CKYChart.numCells(sentence.size()) * parser.m_NumTags;
+        for (int entry = 0; entry < used; entry++) {
+            if (chart.m_BinaryScores[entry] != Double.NEGATIVE_INFINITY) filled++;
+            if (chart.m_UnaryScores[entry] != Double.NEGATIVE_INFINITY) filled++;
+        }
+        return filled;
+    }
+}
@@ -0,0 +1,70 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * Throughput and F1 of CKYParser with per-cell beams (setBeam) against the
+ * exhaustive parse, for every combination of -maxLabels and -margins.
+ *
+ * Flags: -path or -seed/-trainTrees/-testTrees (see BenchmarkData),
+ * -maxTestLength, -maxLabels 5,10,20,40 (0 = no limit), -margins Infinity,10,
+ * -fallback true.
+ */
+public class BeamBenchmark {
+
+    public static void main(String[] args) {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        int[] maxLabels = BenchmarkData.parseInts(CommandLineUtils.getValueOrUseDefault(argMap, "-maxLabels", "5,10,20,40"));
+        double[] margins = BenchmarkData.parseDoubles(CommandLineUtils.getValueOrUseDefault(argMap, "-margins", "Infinity,10"));
+        boolean fallback = Boolean.parseBoolean(CommandLineUtils.getValueOrUseDefault(argMap, "-fallback", "true"));
+
+        CKYParser parser = new CKYParser(BenchmarkData.trainTrees(argMap));
+        List<Tree<String>> testTrees = BenchmarkData.testTrees(argMap);
+        List<List<String>> sentences = new ArrayList<List<String>>();
+        for (Tree<String> tree : testTrees) {
+            sentences.add(tree.getYield());
+        }
+        System.out.println("Test sentences: " + sentences.size());
+
+        parser.clearBeam();
+        for (int pass = 0; pass < 3; pass++) {
+            parseAll(parser, sentences);                            // warm-up
+        }
+        long exhaustiveNanos = System.nanoTime();
+        double exhaustiveF1 = CoarseToFineParserFactory.evaluate(parser, testTrees);
+        exhaustiveNanos = System.nanoTime() - exhaustiveNanos;
+
+        System.out.format("%9s %9s  %10s %10s %8s %8s  %8s %9s\n",
+                "maxLabels", "margin", "millis", "sent/sec", "speed-up", "F1", "F1 delta", "fallbacks");
+        print("-", "-", exhaustiveNanos, sentences.size(), exhaustiveNanos, exhaustiveF1, exhaustiveF1, 0);
+        for (int k : maxLabels) {
+            for (double margin : margins) {
+                CellBeam beam = parser.setBeam(k, margin, fallback);
+                parseAll(parser, sentences);
+                beam = parser.setBeam(k, margin, fallback);         // fresh stats after the warm-up
+                long nanos = System.nanoTime();
+                double f1 = CoarseToFineParserFactory.evaluate(parser, testTrees);
+                nanos = System.nanoTime() - nanos;
+                print(k > 0 ? "" + k : "-", "" + margin, nanos, sentences.size(), exhaustiveNanos, f1, exhaustiveF1, beam.getFallbacks());
+                beam.printStats();
+            }
+        }
+        parser.clearBeam();
+    }
+
+    static void parseAll(CKYParser parser, List<List<String>> sentences) {
+        for (List<String> sentence : sentences) {
+            parser.getBestParse(sentence);
+        }
+    }
+
+    static void print(String k, String margin, long nanos, int numSentences, long exhaustiveNanos, double f1, double exhaustiveF1, long fallbacks) {
+        System.out.format("%9s %9s  %10d %10.1f %7.2fx %8.2f  %+8.2f %9d\n", k, margin, nanos / 1000000,
+                numSentences / (nanos / 1e9), (double) exhaustiveNanos / nanos, 100 * f1, 100 * (f1 - exhaustiveF1), fallbacks);
+    }
+}
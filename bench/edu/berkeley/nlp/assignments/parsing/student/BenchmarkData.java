@@ -0,0 +1,86 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * Training data and timing helpers shared by the benchmarks. With -path the
+ * trees come from the treebank (sections 2-21, at most -maxTrainLength words),
+ * otherwise from the SyntheticTreebank with -seed. -splitLabels N splits the
+ * phrasal labels of the training trees N ways (SyntheticTreebank.splitLabels)
+ * for a grammar closer to the size of a treebank one.
+ */
+public class BenchmarkData {
+
+    public static List<Tree<String>> trainTrees(Map<String, String> argMap) {
+        int maxTrainLength = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-maxTrainLength", "1000"));
+        int splits = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-splitLabels", "1"));
+        long seed = Long.parseLong(CommandLineUtils.getValueOrUseDefault(argMap, "-seed", "1"));
+        List<Tree<String>> trees;
+        if (argMap.containsKey("-path")) {
+            trees = CoarseToFineParserFactory.readTrees(argMap.get("-path"), 200, 2199, maxTrainLength);
+        } else {
+            int count = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-trainTrees", "2000"));
+            trees = new SyntheticTreebank(seed).trees(count, Math.min(maxTrainLength, 40));
+        }
+        return splits > 1 ? SyntheticTreebank.splitLabels(trees, splits, seed) : trees;
+    }
+
+    /** Held-out trees to score against: section 22 with -path, otherwise a different seed */
+    public static List<Tree<String>> testTrees(Map<String, String> argMap) {
+        int maxTestLength = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-maxTestLength", "40"));
+        if (argMap.containsKey("-path")) {
+            return CoarseToFineParserFactory.readTrees(argMap.get("-path"), 2200, 2299, maxTestLength);
+        }
+        long seed = Long.parseLong(CommandLineUtils.getValueOrUseDefault(argMap, "-seed", "1"));
+        int count = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-testTrees", "300"));
+        return new SyntheticTreebank(seed + 1000).trees(count, maxTestLength);
+    }
+
+    public static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int idx = 0; idx < parts.length; idx++) {
+            values[idx] = Integer.parseInt(parts[idx].trim());
+        }
+        return values;
+    }
+
+    /** Sentences of exactly the given length, from the synthetic generator */
+    public static List<List<String>> sentences(int count, int length, long seed) {
+        SyntheticTreebank bank = new SyntheticTreebank(seed * 1000 + length);
+        List<List<String>> sentences = new ArrayList<List<String>>();
+        for (int idx = 0; idx < count; idx++) {
+            sentences.add(bank.sentence(length));
+        }
+        return sentences;
+    }
+
+    /** The p-th percentile (0-100) of the values, nearest rank */
+    public static long percentile(long[] values, double p) {
+        long[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    public static double[] parseDoubles(String list) {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for (int idx = 0; idx < parts.length; idx++) {
+            values[idx] = Double.parseDouble(parts[idx].trim());
+        }
+        return values;
+    }
+
+    public static double mean(long[] values) {
+        double sum = 0;
+        for (long value : values) sum += value;
+        return values.length == 0 ? 0 : sum / values.length;
+    }
+}
@@ -0,0 +1,131 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import edu.berkeley.nlp.assignments.parsing.Parser;
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * Sentence and span caches on repetitive input.
+ *
+ * Sentences: -requests sentences drawn from the test yields with Zipf
+ * (exponent -zipf) frequencies, parsed by CKYParser and by a CachingParser of
+ * -cacheMB megabytes in front of it.
+ * Spans: -requests sentences "A and B" joining two fragments drawn uniformly
+ * from the -fragments shortest test yields, parsed with and without a span
+ * cache of -cacheMB megabytes for spans of at least -minLength words, best
+ * time of -repeats passes, each with an empty cache.
+ * Both check that the cached trees are the ones of the plain parser.
+ *
+ * Flags: -path or -seed/-trainTrees/-testTrees (see BenchmarkData),
+ * -splitLabels, -maxTestLength.
+ */
+public class CacheBenchmark {
+
+    public static void main(String[] args) {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        int requests = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-requests", "2000"));
+        double zipf = Double.parseDouble(CommandLineUtils.getValueOrUseDefault(argMap, "-zipf", "1.0"));
+        int numFragments = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-fragments", "50"));
+        long cacheBytes = Long.parseLong(CommandLineUtils.getValueOrUseDefault(argMap, "-cacheMB", "64")) << 20;
+        int minLength = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-minLength", "3"));
+        long seed = Long.parseLong(CommandLineUtils.getValueOrUseDefault(argMap, "-seed", "1"));
+        int repeats = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-repeats", "10"));
+        CKYParser parser = new CKYParser(BenchmarkData.trainTrees(argMap));
+        List<List<String>> yields = new ArrayList<List<String>>();
+        for (Tree<String> tree : BenchmarkData.testTrees(argMap)) {
+            yields.add(tree.getYield());
+        }
+
+        // --- Repeated sentences
+        Random random = new Random(seed);
+        double[] cumulative = new double[yields.size()];
+        double total = 0;
+        for (int rank = 0; rank < yields.size(); rank++) {
+            total += Math.pow(rank + 1, -zipf);
+            cumulative[rank] = total;
+        }
+        List<List<String>> sentences = new ArrayList<List<String>>();
+        for (int idx = 0; idx < requests; idx++) {
+            double draw = random.nextDouble() * total;
+            int rank = 0;
+            while (cumulative[rank] < draw) rank++;
+            sentences.add(yields.get(rank));
+        }
+        CachingParser caching = new CachingParser(parser, cacheBytes);
+        System.out.format("Sentences: %d requests, %d distinct sentences, zipf %.2f\n", requests, yields.size(), zipf);
+        compare(parser, caching, sentences);
+        caching.printStats();
+
+        // --- Repeated fragments
+        List<List<String>> fragments = new ArrayList<List<String>>(yields);
+        Collections.sort(fragments, new Comparator<List<String>>() {
+            public int compare(List<String> a, List<String> b) {
+                return a.size() - b.size();
+            }
+        });
+        fragments = fragments.subList(0, Math.min(numFragments, fragments.size()));
+        List<List<String>> joined = new ArrayList<List<String>>();
+        for (int idx = 0; idx < requests; idx++) {
+            List<String> sentence = new ArrayList<String>(fragments.get(random.nextInt(fragments.size())));
+            sentence.add("and");
+            sentence.addAll(fragments.get(random.nextInt(fragments.size())));
+            joined.add(sentence);
+        }
+        System.out.format("Spans: %d requests joining %d fragments of at most %d words, best of %d passes\n", requests,
+                fragments.size(), fragments.get(fragments.size() - 1).size(), repeats);
+        List<Tree<String>> plain = null, cached = null;
+        long plainNanos = Long.MAX_VALUE, cachedNanos = Long.MAX_VALUE;
+        SpanCache spanCache = null;
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            parser.clearSpanCache();
+            long nanos = System.nanoTime();
+            plain = parseTimed(parser, joined, null);
+            plainNanos = Math.min(plainNanos, System.nanoTime() - nanos);
+            spanCache = parser.setSpanCache(cacheBytes, minLength);
+            nanos = System.nanoTime();
+            cached = parseTimed(parser, joined, null);
+            cachedNanos = Math.min(cachedNanos, System.nanoTime() - nanos);
+        }
+        parser.clearSpanCache();
+        System.out.format("  %-12s %10.1f ms %10.3f ms/sent\n", "plain", plainNanos / 1e6, plainNanos / 1e6 / requests);
+        System.out.format("  %-12s %10.1f ms %10.3f ms/sent\n", "span cache", cachedNanos / 1e6, cachedNanos / 1e6 / requests);
+        report(plain, cached);
+        spanCache.printStats();
+    }
+
+    static void compare(Parser parser, Parser cached, List<List<String>> sentences) {
+        parseTimed(parser, sentences.subList(0, Math.min(200, sentences.size())), null);     // warm-up
+        List<Tree<String>> plain = parseTimed(parser, sentences, "plain");
+        List<Tree<String>> trees = parseTimed(cached, sentences, "cached");
+        report(plain, trees);
+    }
+
+    static void report(List<Tree<String>> plain, List<Tree<String>> cached) {
+        int differ = 0;
+        for (int idx = 0; idx < plain.size(); idx++) {
+            if (!plain.get(idx).toString().equals(cached.get(idx).toString())) differ++;
+        }
+        System.out.println(differ == 0 ? "  all " + plain.size() + " trees identical to the plain parser" :
+                "  FAILED: " + differ + "/" + plain.size() + " trees differ from the plain parser");
+    }
+
+    static List<Tree<String>> parseTimed(Parser parser, List<List<String>> sentences, String name) {
+        List<Tree<String>> trees = new ArrayList<Tree<String>>();
+        long start = System.nanoTime();
+        for (List<String> sentence : sentences) {
+            trees.add(parser.getBestParse(sentence));
+        }
+        long nanos = System.nanoTime() - start;
+        if (name != null) {
+            System.out.format("  %-12s %10.1f ms %10.3f ms/sent\n", name, nanos / 1e6, nanos / 1e6 / sentences.size());
+        }
+        return trees;
+    }
+}
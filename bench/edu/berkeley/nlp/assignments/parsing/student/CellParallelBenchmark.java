@@ -0,0 +1,67 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * Per-sentence latency of CKYParser against sentence length, sequential and
+ * with the diagonals filled in parallel (setCellParallelism). Also checks that
+ * both modes return the same trees.
+ *
+ * Flags: -path or -seed/-trainTrees (see BenchmarkData), -lengths 10,20,40,60,80,120,
+ * -sentences (per length), -threads, -minLength.
+ */
+public class CellParallelBenchmark {
+
+    public static void main(String[] args) {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        int[] lengths = BenchmarkData.parseInts(CommandLineUtils.getValueOrUseDefault(argMap, "-lengths", "10,20,40,60,80,120"));
+        int numSentences = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-sentences", "20"));
+        int threads = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-threads", "" + Runtime.getRuntime().availableProcessors()));
+        int minLength = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-minLength", "20"));
+
+        CKYParser parser = new CKYParser(BenchmarkData.trainTrees(argMap));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        System.out.format("%6s  %10s %10s %10s  %10s %10s %10s  %s\n",
+                "length", "seq mean", "seq p50", "seq p99", "par mean", "par p50", "par p99", "same trees");
+        for (int length : lengths) {
+            List<List<String>> sentences = BenchmarkData.sentences(numSentences, length, 7);
+            parser.setCellParallelism(null, 0);
+            parseTimed(parser, sentences);                          // warm-up
+            long[] seq = new long[sentences.size()];
+            List<Tree<String>> seqTrees = parseTimed(parser, sentences, seq);
+
+            parser.setCellParallelism(pool, minLength);
+            parseTimed(parser, sentences);
+            long[] par = new long[sentences.size()];
+            List<Tree<String>> parTrees = parseTimed(parser, sentences, par);
+
+            System.out.format("%6d  %10.2f %10.2f %10.2f  %10.2f %10.2f %10.2f  %s\n", length,
+                    BenchmarkData.mean(seq) / 1e6, BenchmarkData.percentile(seq, 50) / 1e6, BenchmarkData.percentile(seq, 99) / 1e6,
+                    BenchmarkData.mean(par) / 1e6, BenchmarkData.percentile(par, 50) / 1e6, BenchmarkData.percentile(par, 99) / 1e6,
+                    seqTrees.toString().equals(parTrees.toString()));
+        }
+        System.out.println("(latencies in millis, " + threads + " threads)");
+        pool.shutdown();
+    }
+
+    static List<Tree<String>> parseTimed(CKYParser parser, List<List<String>> sentences) {
+        return parseTimed(parser, sentences, new long[sentences.size()]);
+    }
+
+    static List<Tree<String>> parseTimed(CKYParser parser, List<List<String>> sentences, long[] nanos) {
+        List<Tree<String>> trees = new ArrayList<Tree<String>>();
+        for (int idx = 0; idx < sentences.size(); idx++) {
+            long start = System.nanoTime();
+            trees.add(parser.getBestParse(sentences.get(idx)));
+            nanos[idx] = System.nanoTime() - start;
+        }
+        return trees;
+    }
+}
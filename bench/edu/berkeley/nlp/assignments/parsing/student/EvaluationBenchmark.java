@@ -0,0 +1,39 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * EvaluationHarness over the BenchmarkData trees, for runs without the
+ * treebank: the tables of every factory and their JSON on stdout. Checks that
+ * the harness F1 matches LabeledConstituentEval fed in test order. Timed
+ * after a warm-up pass.
+ *
+ * Flags: -path or -seed/-trainTrees/-testTrees (see BenchmarkData),
+ * -splitLabels, -maxTestLength, -threads 2, -buckets 10,20,30,40,
+ * -factories (see EvaluationHarness).
+ */
+public class EvaluationBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        int threads = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-threads", "2"));
+        int[] buckets = BenchmarkData.parseInts(CommandLineUtils.getValueOrUseDefault(argMap, "-buckets", "10,20,30,40"));
+        String factories = CommandLineUtils.getValueOrUseDefault(argMap, "-factories", EvaluationHarness.DEFAULT_FACTORIES);
+        List<Tree<String>> trainTrees = BenchmarkData.trainTrees(argMap);
+        List<Tree<String>> testTrees = BenchmarkData.testTrees(argMap);
+
+        List<EvaluationHarness.Result> results = EvaluationHarness.evaluateAll(factories, trainTrees, testTrees, threads, buckets, true);
+        for (EvaluationHarness.Result result : results) {
+            if (Math.abs(result.m_EvalF1 - result.getTotal().getF1()) > 1e-12) {
+                System.out.println("FAILED: " + result.m_Name + " F1 " + result.getTotal().getF1()
+                        + " against LabeledConstituentEval " + result.m_EvalF1);
+            }
+        }
+        EvaluationHarness.writeJson(results, System.out);
+    }
+}
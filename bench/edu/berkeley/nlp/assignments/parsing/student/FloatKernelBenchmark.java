@@ -0,0 +1,133 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.nlp.assignments.parsing.TreeAnnotations;
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * Checks the float kernels (FloatKernel, VectorFloatKernel) against the double
+ * chart of CKYParser, then times the three by sentence length.
+ *
+ * The check parses every test sentence with each kernel and counts the trees
+ * that differ from the double path. A different tree must still be a best
+ * parse up to rounding: its derivation, rescored in double precision, must be
+ * within -tolerance of the double Viterbi score. F1 is reported for each.
+ *
+ * Flags: -path or -seed/-trainTrees/-testTrees (see BenchmarkData),
+ * -maxTestLength, -lengths 10,20,40,60,80, -sentences (per length),
+ * -tolerance 1e-3. Run with --add-modules jdk.incubator.vector (ant bench
+ * does) or only the scalar kernel is measured.
+ */
+public class FloatKernelBenchmark {
+
+    public static void main(String[] args) {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        int[] lengths = BenchmarkData.parseInts(CommandLineUtils.getValueOrUseDefault(argMap, "-lengths", "10,20,40,60,80"));
+        int numSentences = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-sentences", "20"));
+        double tolerance = Double.parseDouble(CommandLineUtils.getValueOrUseDefault(argMap, "-tolerance", "1e-3"));
+
+        CKYParser parser = new CKYParser(BenchmarkData.trainTrees(argMap));
+        List<Tree<String>> testTrees = BenchmarkData.testTrees(argMap);
+        FloatKernel scalar = FloatKernel.create(parser.m_Compiled, parser.m_Lexical, false);
+        FloatKernel vector = FloatKernel.create(parser.m_Compiled, parser.m_Lexical, true);
+        System.out.println("Vector kernel: " + (vector.isVectorized() ?
+                vector.getLanes() + " float lanes" : "not available"));
+
+        boolean passed = check(parser, null, testTrees, tolerance) &
+                check(parser, scalar, testTrees, tolerance);
+        if (vector.isVectorized()) {
+            passed &= check(parser, vector, testTrees, tolerance);
+        }
+        System.out.println(passed ? "All trees within tolerance" : "FAILED: trees outside the tolerance");
+
+        System.out.format("%6s  %10s  %10s %8s  %10s %8s  %12s %12s\n",
+                "length", "double", "scalar", "speed-up", "vector", "speed-up", "double bytes", "float bytes");
+        for (int length : lengths) {
+            List<List<String>> sentences = BenchmarkData.sentences(numSentences, length, 7);
+            long[] doubleNanos = time(parser, null, sentences);
+            long[] scalarNanos = time(parser, scalar, sentences);
+            long[] vectorNanos = vector.isVectorized() ? time(parser, vector, sentences) : null;
+            double doubleMean = BenchmarkData.mean(doubleNanos);
+            System.out.format("%6d  %10.2f  %10.2f %7.2fx  %10s %8s  %12d %12d\n", length, doubleMean / 1e6,
+                    BenchmarkData.mean(scalarNanos) / 1e6, doubleMean / BenchmarkData.mean(scalarNanos),
+                    vectorNanos == null ? "-" : String.format("%.2f", BenchmarkData.mean(vectorNanos) / 1e6),
+                    vectorNanos == null ? "-" : String.format("%.2fx", doubleMean / BenchmarkData.mean(vectorNanos)),
+                    parser.initChart(sentences.get(0)).sizeInBytes(), scalar.fill(sentences.get(0), null).sizeInBytes());
+        }
+        System.out.println("(mean millis per sentence; chart bytes as allocated for the length)");
+        parser.clearFloatKernel();
+    }
+
+    // Parses the test set with the kernel (the double path when null)
+    static boolean check(CKYParser parser, FloatKernel kernel, List<Tree<String>> testTrees, double tolerance) {
+        int differ = 0, outside = 0;
+        double maxLoss = 0.0;
+        parser.clearFloatKernel();
+        if (kernel == null) {
+            System.out.format("%-7s F1 %.2f\n", "double", 100 * CoarseToFineParserFactory.evaluate(parser, testTrees));
+            return true;
+        }
+        for (Tree<String> tree : testTrees) {
+            List<String> sentence = tree.getYield();
+            Tree<String> doubleTree = parser.getBestParse(sentence);
+            CKYChart doubleChart = parser.initChart(sentence);
+            parser.parse(sentence, null, null, null);
+            double best = doubleChart.m_UnaryScores[doubleChart.offset(0, sentence.size())];
+
+            CKYChart floatChart = kernel.fill(sentence, null);
+            if (floatChart.m_UnaryFloats[floatChart.offset(0, sentence.size())] == Float.NEGATIVE_INFINITY) {
+                if (best != Double.NEGATIVE_INFINITY) outside++;
+                continue;
+            }
+            double loss = best - unaryScore(parser, floatChart, 0, 0, sentence.size());
+            maxLoss = Math.max(maxLoss, loss);
+            if (loss > tolerance) outside++;
+
+            Tree<String> floatTree = TreeAnnotations.unAnnotateTree(
+                    parser.m_Decoder.get().decode(floatChart, 0, 0, sentence.size()));
+            if (!floatTree.toString().equals(doubleTree.toString())) differ++;
+        }
+        parser.m_FloatKernel = kernel;
+        double f1 = CoarseToFineParserFactory.evaluate(parser, testTrees);
+        parser.clearFloatKernel();
+        System.out.format("%-7s F1 %.2f, %d/%d trees differ from double, max score loss %.2e, %d above the tolerance\n",
+                kernel.isVectorized() ? "vector" : "scalar", 100 * f1, differ, testTrees.size(), maxLoss, outside);
+        return outside == 0;
+    }
+
+    // Double precision score of the derivation stored in the backpointers of the chart
+    static double unaryScore(CKYParser parser, CKYChart chart, int tagIdx, int start, int end) {
+        CompiledGrammar compiled = parser.m_Compiled;
+        int u = chart.m_UnaryBack[chart.offset(start, end) + tagIdx];
+        int childIdx = u == -1 ? tagIdx : compiled.m_UnaryChild[u];
+        double score = u == -1 ? 0.0 : compiled.m_UnaryScore[u];
+        if (end - start == 1) {
+            CompiledLexicon lexical = parser.m_Lexical;
+            int wordId = lexical.wordId(chart.m_Sentence.get(start));
+            for (int i = lexical.m_Offsets[wordId]; i < lexical.m_Offsets[wordId + 1]; i++) {
+                if (lexical.m_Tags[i] == childIdx)
+                    return score + lexical.m_Scores[i];
+            }
+            return Double.NEGATIVE_INFINITY;
+        }
+        int packed = chart.m_BinaryBack[chart.offset(start, end) + childIdx];
+        int rule = CKYChart.binaryRule(packed), split = CKYChart.binarySplit(packed);
+        return score + compiled.m_BinaryScore[rule] +
+                unaryScore(parser, chart, compiled.m_BinaryLeft[rule], start, split) +
+                unaryScore(parser, chart, compiled.m_BinaryRight[rule], split, end);
+    }
+
+    static long[] time(CKYParser parser, FloatKernel kernel, List<List<String>> sentences) {
+        parser.m_FloatKernel = kernel;
+        long[] nanos = new long[sentences.size()];
+        for (int pass = 0; pass < 3; pass++) {
+            CellParallelBenchmark.parseTimed(parser, sentences);    // warm-up
+        }
+        CellParallelBenchmark.parseTimed(parser, sentences, nanos);
+        parser.clearFloatKernel();
+        return nanos;
+    }
+}
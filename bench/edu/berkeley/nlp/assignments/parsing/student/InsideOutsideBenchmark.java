@@ -0,0 +1,69 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * Per-sentence cost of the scaled inside-outside pass (InsideOutside.compute)
+ * and of max-rule decoding against the Viterbi parse of CKYParser, by
+ * sentence length. Then the F1 of both decoders on the test trees.
+ *
+ * Flags: -path or -seed/-trainTrees/-testTrees (see BenchmarkData),
+ * -maxTestLength, -lengths 10,20,40,60,80, -sentences (per length).
+ */
+public class InsideOutsideBenchmark {
+
+    public static void main(String[] args) {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        int[] lengths = BenchmarkData.parseInts(CommandLineUtils.getValueOrUseDefault(argMap, "-lengths", "10,20,40,60,80"));
+        int numSentences = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-sentences", "20"));
+
+        CKYParser parser = new CKYParser(BenchmarkData.trainTrees(argMap));
+        InsideOutside insideOutside = new InsideOutside(parser.m_Compiled, parser.m_Lexical);
+
+        System.out.format("%6s  %10s  %10s %7s  %10s %7s\n",
+                "length", "viterbi", "in-out", "ratio", "max-rule", "ratio");
+        for (int length : lengths) {
+            List<List<String>> sentences = BenchmarkData.sentences(numSentences, length, 7);
+            parser.setMaxRuleDecoding(false);
+            long[] viterbi = new long[sentences.size()];
+            CellParallelBenchmark.parseTimed(parser, sentences);    // warm-up
+            CellParallelBenchmark.parseTimed(parser, sentences, viterbi);
+
+            long[] inOut = new long[sentences.size()];
+            computeTimed(insideOutside, sentences, inOut);
+            computeTimed(insideOutside, sentences, inOut);
+
+            parser.setMaxRuleDecoding(true);
+            long[] maxRule = new long[sentences.size()];
+            CellParallelBenchmark.parseTimed(parser, sentences);
+            CellParallelBenchmark.parseTimed(parser, sentences, maxRule);
+
+            double viterbiMean = BenchmarkData.mean(viterbi);
+            System.out.format("%6d  %10.2f  %10.2f %6.2fx  %10.2f %6.2fx\n", length, viterbiMean / 1e6,
+                    BenchmarkData.mean(inOut) / 1e6, BenchmarkData.mean(inOut) / viterbiMean,
+                    BenchmarkData.mean(maxRule) / 1e6, BenchmarkData.mean(maxRule) / viterbiMean);
+        }
+        System.out.println("(mean millis per sentence; max-rule includes the inside-outside pass)");
+
+        List<Tree<String>> testTrees = BenchmarkData.testTrees(argMap);
+        parser.setMaxRuleDecoding(false);
+        double viterbiF1 = CoarseToFineParserFactory.evaluate(parser, testTrees);
+        parser.setMaxRuleDecoding(true);
+        double maxRuleF1 = CoarseToFineParserFactory.evaluate(parser, testTrees);
+        parser.setMaxRuleDecoding(false);
+        System.out.format("F1 on %d test trees: viterbi %.2f, max-rule %.2f\n", testTrees.size(), 100 * viterbiF1, 100 * maxRuleF1);
+    }
+
+    static void computeTimed(InsideOutside insideOutside, List<List<String>> sentences, long[] nanos) {
+        InsideOutside.Workspace ws = insideOutside.workspace();
+        for (int idx = 0; idx < sentences.size(); idx++) {
+            long start = System.nanoTime();
+            insideOutside.compute(ws, sentences.get(idx));
+            nanos[idx] = System.nanoTime() - start;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.nlp.assignments.parsing.Parser;
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * Equivalence checks of the ChartKernel configurations on the test sentences:
+ *
+ *   - GenerativeParserDrive gives the trees of CKYParser (both VITERBI kernels)
+ *   - the INSIDE kernel gives the log likelihood of InsideOutside
+ *   - the COUNTING kernel gives the number of derivations counted by a plain
+ *     recursion over the compiled rules, for sentences of at most -countLength
+ *     words
+ *
+ * then the time per sentence of each semiring.
+ *
+ * Flags: -path or -seed/-trainTrees/-testTrees (see BenchmarkData),
+ * -splitLabels, -maxTestLength, -countLength 12.
+ */
+public class KernelBenchmark {
+
+    public static void main(String[] args) {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        int countLength = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-countLength", "12"));
+        List<Tree<String>> trainTrees = BenchmarkData.trainTrees(argMap);
+        CKYParser parser = new CKYParser(trainTrees);
+        Parser drive = new GenerativeParserFactoryDrive().getParser(trainTrees);
+        List<List<String>> sentences = new ArrayList<List<String>>();
+        for (Tree<String> tree : BenchmarkData.testTrees(argMap)) {
+            sentences.add(tree.getYield());
+        }
+
+        int differ = 0;
+        for (List<String> sentence : sentences) {
+            if (!drive.getBestParse(sentence).toString().equals(parser.getBestParse(sentence).toString())) differ++;
+        }
+        System.out.println(differ == 0 ? "GenerativeParserDrive: all " + sentences.size() + " trees identical to CKYParser" :
+                "FAILED: " + differ + "/" + sentences.size() + " GenerativeParserDrive trees differ from CKYParser");
+
+        ChartKernel viterbi = parser.m_Kernel;
+        ChartKernel inside = new ChartKernel(parser.m_Compiled, parser.m_Lexical, Semiring.INSIDE);
+        ChartKernel counting = new ChartKernel(parser.m_Compiled, parser.m_Lexical, Semiring.COUNTING);
+        InsideOutside insideOutside = new InsideOutside(parser.m_Compiled, parser.m_Lexical);
+        CKYChart chart = new CKYChart(parser.m_NumTags);
+
+        double maxError = 0;
+        int worse = 0;
+        for (List<String> sentence : sentences) {
+            InsideOutside.Workspace ws = insideOutside.workspace();
+            insideOutside.compute(ws, sentence);
+            double expected = insideOutside.logLikelihood(ws);
+            double actual = fill(inside, chart, sentence);
+            double best = fill(viterbi, chart, sentence);
+            if (best > actual) worse++;
+            if (expected != actual) maxError = Math.max(maxError, Math.abs(expected - actual) / Math.abs(expected));
+        }
+        System.out.format("INSIDE against InsideOutside: largest relative difference of the log likelihood %.2e%s\n",
+                maxError, maxError < 1e-9 && worse == 0 ? "" : "  FAILED" + (worse > 0 ? ", Viterbi above inside " + worse + " times" : ""));
+
+        maxError = 0;
+        int counted = 0;
+        double maxCount = 0;
+        for (List<String> sentence : sentences) {
+            if (sentence.size() > countLength) continue;
+            double expected = countDerivations(parser, sentence);
+            double actual = Math.exp(fill(counting, chart, sentence));
+            maxError = Math.max(maxError, Math.abs(expected - actual) / Math.max(1, expected));
+            maxCount = Math.max(maxCount, expected);
+            counted++;
+        }
+        System.out.format("COUNTING against the recursion: %d sentences, up to %.3g derivations, largest relative difference %.2e%s\n",
+                counted, maxCount, maxError, maxError < 1e-9 ? "" : "  FAILED");
+
+        System.out.format("%-10s %10s\n", "semiring", "ms/sent");
+        for (ChartKernel kernel : new ChartKernel[] { viterbi, inside, counting }) {
+            for (List<String> sentence : sentences) {
+                fill(kernel, chart, sentence);      // warm-up
+            }
+            long nanos = System.nanoTime();
+            for (List<String> sentence : sentences) {
+                fill(kernel, chart, sentence);
+            }
+            System.out.format("%-10s %10.3f\n", kernel.getSemiring(), (System.nanoTime() - nanos) / 1e6 / sentences.size());
+        }
+        long nanos = System.nanoTime();
+        for (List<String> sentence : sentences) {
+            drive.getBestParse(sentence);
+        }
+        System.out.format("%-10s %10.3f  (GenerativeParserDrive, with decoding)\n", "viterbi",
+                (System.nanoTime() - nanos) / 1e6 / sentences.size());
+    }
+
+    static double fill(ChartKernel kernel, CKYChart chart, List<String> sentence) {
+        chart.reset(sentence);
+        return kernel.fill(chart, sentence, null, null);
+    }
+
+    // Derivations of ROOT over the sentence, by parent, rule and split as GenerativeParserDrive used to
+    static double countDerivations(CKYParser parser, List<String> sentence) {
+        CompiledGrammar compiled = parser.m_Compiled;
+        int numTags = parser.m_NumTags, sentLen = sentence.size();
+        double[][] binary = new double[CKYChart.numCells(sentLen)][numTags];
+        double[][] unary = new double[CKYChart.numCells(sentLen)][numTags];
+        double[] scores = new double[numTags];
+        for (int start = 0; start < sentLen; start++) {
+            Arrays.fill(scores, Double.NEGATIVE_INFINITY);
+            parser.m_Lexical.fill(sentence.get(start), scores, 0);
+            for (int tagIdx = 0; tagIdx < numTags; tagIdx++) {
+                binary[CKYChart.cellIndex(start, start + 1)][tagIdx] = scores[tagIdx] == Double.NEGATIVE_INFINITY ? 0 : 1;
+            }
+        }
+        for (int length = 1; length <= sentLen; length++) {
+            for (int start = 0; start + length <= sentLen; start++) {
+                int end = start + length;
+                int cell = CKYChart.cellIndex(start, end);
+                for (int parent = 0; length > 1 && parent < numTags; parent++) {
+                    for (int r = compiled.m_ParentOffsets[parent]; r < compiled.m_ParentOffsets[parent + 1]; r++) {
+                        for (int split = start + 1; split < end; split++) {
+                            binary[cell][parent] += unary[CKYChart.cellIndex(start, split)][compiled.m_BinaryLeft[r]]
+                                    * unary[CKYChart.cellIndex(split, end)][compiled.m_BinaryRight[r]];
+                        }
+                    }
+                }
+                for (int u = 0; u < compiled.m_UnaryScore.length; u++) {
+                    unary[cell][compiled.m_UnaryParent[u]] += binary[cell][compiled.m_UnaryChild[u]];
+                }
+            }
+        }
+        return sentLen == 0 ? 0 : unary[CKYChart.cellIndex(0, sentLen)][0];
+    }
+}
@@ -0,0 +1,84 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.nlp.assignments.parsing.TreeAnnotations;
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.parser.EnglishPennTreebankParseEvaluator;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * Sweeps the Markovization orders (MarkovAnnotator) and the rule count
+ * threshold (GrammarTrainer.setMinRuleCount): for each setting the size of the
+ * grammar, the training time, and the F1 and parse speed on the test trees.
+ * First checks that h=inf,v=1 gives the trees of the lossless binarization.
+ *
+ * Flags: -path or -seed/-trainTrees/-testTrees (see BenchmarkData),
+ * -maxTestLength, -h inf,2,1,0, -v 1,2,3, -minCounts 1,2,5, -threads 1.
+ */
+public class MarkovBenchmark {
+
+    public static void main(String[] args) {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        String[] horizontals = CommandLineUtils.getValueOrUseDefault(argMap, "-h", "inf,2,1,0").split(",");
+        int[] verticals = BenchmarkData.parseInts(CommandLineUtils.getValueOrUseDefault(argMap, "-v", "1,2,3"));
+        int[] minCounts = BenchmarkData.parseInts(CommandLineUtils.getValueOrUseDefault(argMap, "-minCounts", "1,2,5"));
+        int threads = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-threads", "1"));
+        List<Tree<String>> trainTrees = BenchmarkData.trainTrees(argMap);
+        List<Tree<String>> testTrees = BenchmarkData.testTrees(argMap);
+        List<List<String>> sentences = new ArrayList<List<String>>();
+        for (Tree<String> tree : testTrees) {
+            sentences.add(tree.getYield());
+        }
+
+        MarkovAnnotator lossless = new MarkovAnnotator(MarkovAnnotator.INFINITE, 1);
+        int differ = 0;
+        for (Tree<String> tree : trainTrees) {
+            if (!lossless.transformTree(tree).toString().equals(
+                    TreeAnnotations.annotateTreeLosslessBinarization(tree).toString())) differ++;
+        }
+        System.out.println("h=inf,v=1 against the lossless binarization: " +
+                (differ == 0 ? "identical trees" : "FAILED, " + differ + " trees differ"));
+
+        System.out.format("%-10s %5s  %7s %8s %8s  %9s  %6s %9s %8s\n", "setting", "min", "labels",
+                "binary", "unary", "train ms", "F1", "ms/sent", "sent/s");
+        for (String h : horizontals) {
+            for (int v : verticals) {
+                MarkovAnnotator annotator = MarkovAnnotator.parse(h + "," + v);
+                for (int minCount : minCounts) {
+                    GrammarTrainer trainer = new GrammarTrainer(threads, annotator);
+                    trainer.setMinRuleCount(minCount);
+                    long trainNanos = System.nanoTime();
+                    CKYParser parser = trainer.train(trainTrees);
+                    trainNanos = System.nanoTime() - trainNanos;
+
+                    long[] nanos = new long[sentences.size()];
+                    for (int pass = 0; pass < 2; pass++) {
+                        CellParallelBenchmark.parseTimed(parser, sentences);    // warm-up
+                    }
+                    List<Tree<String>> trees = CellParallelBenchmark.parseTimed(parser, sentences, nanos);
+                    double mean = BenchmarkData.mean(nanos);
+                    System.out.format("%-10s %5d  %7d %8d %8d  %9.1f  %6.2f %9.3f %8.1f\n", annotator, minCount,
+                            parser.m_NumTags, parser.m_Compiled.getNumBinaryRules(), parser.m_Compiled.getNumUnaryRules(),
+                            trainNanos / 1e6, 100 * f1(trees, testTrees), mean / 1e6, 1e9 / mean);
+                }
+            }
+        }
+        System.out.println("(unary counts the closed unary rules; " + testTrees.size() + " test trees, "
+                + trainTrees.size() + " training trees)");
+    }
+
+    static double f1(List<Tree<String>> guesses, List<Tree<String>> testTrees) {
+        EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval = new EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>(
+                Collections.singleton("ROOT"), new HashSet<String>(Arrays.asList(new String[] { "''", "``", ".", ":", "," })));
+        for (int idx = 0; idx < testTrees.size(); idx++) {
+            eval.evaluateF1(guesses.get(idx), testTrees.get(idx));
+        }
+        return eval.getF1();
+    }
+}
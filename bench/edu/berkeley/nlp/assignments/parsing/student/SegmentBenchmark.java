@@ -0,0 +1,80 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * The test sentences by length bucket, parsed whole by CKYParser and by a
+ * SegmentingParser with a chart budget of -maxChartKB kilobytes: time per
+ * sentence, the largest chart each one needs, and F1 against the gold trees.
+ *
+ * Flags: -path or -seed/-trainTrees/-testTrees (see BenchmarkData),
+ * -splitLabels, -maxTestLength 150, -buckets 20,40,60,150 (upper lengths).
+ */
+public class SegmentBenchmark {
+
+    public static void main(String[] args) {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        if (!argMap.containsKey("-maxTestLength")) argMap.put("-maxTestLength", "150");
+        int[] buckets = BenchmarkData.parseInts(CommandLineUtils.getValueOrUseDefault(argMap, "-buckets", "20,40,60,150"));
+        long maxChartBytes = Long.parseLong(CommandLineUtils.getValueOrUseDefault(argMap, "-maxChartKB", "512")) << 10;
+        CKYParser parser = new CKYParser(BenchmarkData.trainTrees(argMap));
+        List<Tree<String>> testTrees = BenchmarkData.testTrees(argMap);
+        SegmentingParser segmenting = new SegmentingParser(parser, maxChartBytes);
+        System.out.format("Chart budget %d KB: segments of at most %d words (%d labels)\n",
+                maxChartBytes / 1024, segmenting.getMaxLength(), parser.m_NumTags);
+
+        System.out.format("%9s %6s  %10s %9s %7s  %10s %9s %7s %9s\n", "length", "sents", "whole ms", "chart KB",
+                "F1", "segm. ms", "chart KB", "F1", "segments");
+        int low = 1;
+        for (int high : buckets) {
+            List<Tree<String>> gold = new ArrayList<Tree<String>>();
+            List<List<String>> sentences = new ArrayList<List<String>>();
+            for (Tree<String> tree : testTrees) {
+                int length = tree.getYield().size();
+                if (length >= low && length <= high) {
+                    gold.add(tree);
+                    sentences.add(tree.getYield());
+                }
+            }
+            if (!sentences.isEmpty()) {
+                CellParallelBenchmark.parseTimed(parser, sentences);    // warm-up
+                long nanos = System.nanoTime();
+                List<Tree<String>> whole = CellParallelBenchmark.parseTimed(parser, sentences);
+                double wholeMs = (System.nanoTime() - nanos) / 1e6 / sentences.size();
+
+                long wholeBytes = 0, segmentBytes = 0, segments = 0;
+                List<Tree<String>> segmented = new ArrayList<Tree<String>>();
+                for (List<String> sentence : sentences) {
+                    segmenting.getBestParse(sentence);                  // warm-up
+                }
+                nanos = System.nanoTime();
+                for (List<String> sentence : sentences) {
+                    SegmentingParser.Result result = segmenting.parse(sentence);
+                    segmented.add(result.getTree());
+                    segments += result.getSegmentEnds().length;
+                }
+                double segmentedMs = (System.nanoTime() - nanos) / 1e6 / sentences.size();
+                for (List<String> sentence : sentences) {
+                    int start = 0;
+                    for (int end : SegmentingParser.segment(sentence, segmenting.getMaxLength())) {
+                        segmentBytes = Math.max(segmentBytes, CKYChart.sizeInBytes(parser.m_NumTags, end - start, false));
+                        start = end;
+                    }
+                    wholeBytes = Math.max(wholeBytes, CKYChart.sizeInBytes(parser.m_NumTags, sentence.size(), false));
+                }
+                System.out.format("%9s %6d  %10.2f %9d %6.2f  %10.2f %9d %6.2f %9.2f\n", low + "-" + high,
+                        sentences.size(), wholeMs, wholeBytes / 1024, 100 * MarkovBenchmark.f1(whole, gold),
+                        segmentedMs, segmentBytes / 1024, 100 * MarkovBenchmark.f1(segmented, gold),
+                        (double) segments / sentences.size());
+            }
+            low = high + 1;
+        }
+        segmenting.printStats();
+        System.out.println("(ms and segments: mean per sentence; chart KB: largest chart of the bucket)");
+    }
+}
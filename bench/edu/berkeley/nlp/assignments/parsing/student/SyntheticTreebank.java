@@ -0,0 +1,122 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import edu.berkeley.nlp.ling.Tree;
+
+/**
+ * Small seeded PCFG producing Penn-style trees (ROOT, S, NP, VP, PP, SBAR,
+ * ADJP over the usual tags), so the parsers can be trained and timed offline
+ * without the treebank. The same seed always gives the same trees.
+ */
+public class SyntheticTreebank {
+    static final String[][] RULES = {
+        {"ROOT", "S"},
+        {"S", "NP VP .", "NP VP .", "NP VP", "VP .", "S CC S .", "PP , NP VP ."},
+        {"NP", "DT NN", "DT NN", "DT JJ NN", "NNP", "NNP NNP", "NP PP", "PRP", "NP CC NP", "DT NN NN", "NNS", "JJ NNS", "CD NNS", "NP , NP ,"},
+        {"VP", "VBD NP", "VBD NP PP", "VBZ ADJP", "MD VP", "VB NP", "VBD", "VBZ NP", "VBD SBAR", "VP CC VP", "VBD PP"},
+        {"SBAR", "IN S"},
+        {"PP", "IN NP", "IN NP", "TO NP"},
+        {"ADJP", "JJ", "RB JJ", "JJ PP"},
+    };
+    static final String[][] WORDS = {
+        {"DT", "the", "a", "an", "this", "that", "some", "every"},
+        {"NN", "market", "company", "stock", "share", "year", "price", "deal", "bank", "report", "plan", "rate", "that", "fund", "board", "trade"},
+        {"NNS", "shares", "prices", "investors", "companies", "rates", "sales", "funds", "years"},
+        {"NNP", "FRANKFURT", "Mr.", "Smith", "Corp.", "Monday", "Tokyo", "IBM", "Japan", "Friday"},
+        {"JJ", "new", "big", "strong", "last", "federal", "weak", "high", "low", "Japanese"},
+        {"PRP", "it", "he", "they", "we"},
+        {"VBD", "said", "rose", "fell", "bought", "sold", "reported", "rate", "closed"},
+        {"VBZ", "is", "has", "says", "remains", "trade"},
+        {"VB", "buy", "sell", "be", "trade", "report"},
+        {"MD", "will", "would", "could"},
+        {"IN", "in", "of", "for", "on", "that", "after", "with", "from"},
+        {"TO", "to"},
+        {"CC", "and", "but", "or"},
+        {"RB", "very", "not", "also"},
+        {"CD", "two", "three", "10", "1990"},
+        {".", "."},
+        {",", ","},
+    };
+
+    final Random m_Rand;
+    final Map<String, String[]> m_Rules = new HashMap<String, String[]>();
+    final Map<String, String[]> m_Words = new HashMap<String, String[]>();
+
+    public SyntheticTreebank(long seed) {
+        m_Rand = new Random(seed);
+        for (String[] r : RULES) m_Rules.put(r[0], Arrays.copyOfRange(r, 1, r.length));
+        for (String[] w : WORDS) m_Words.put(w[0], Arrays.copyOfRange(w, 1, w.length));
+    }
+
+    // Expands the label, the recursive expansions are cut after a few levels
+    Tree<String> gen(String label, int depth) {
+        String[] words = m_Words.get(label);
+        if (words != null) {
+            String w = words[(int) (words.length * Math.pow(m_Rand.nextDouble(), 1.7))];
+            if (m_Rand.nextDouble() < 0.02) w = w + "s" + m_Rand.nextInt(50);      // Rare and unknown words
+            return new Tree<String>(label, Collections.singletonList(new Tree<String>(w)));
+        }
+        String[] exp = m_Rules.get(label);
+        int pick = m_Rand.nextInt(exp.length);
+        if (depth > 6) pick = Math.min(pick, 1);
+        List<Tree<String>> kids = new ArrayList<Tree<String>>();
+        for (String c : exp[pick].split(" ")) kids.add(gen(c, depth + 1));
+        return new Tree<String>(label, kids);
+    }
+
+    /** Trees of at most maxLen words */
+    public List<Tree<String>> trees(int count, int maxLen) {
+        List<Tree<String>> res = new ArrayList<Tree<String>>();
+        while (res.size() < count) {
+            Tree<String> t = gen("ROOT", 0);
+            if (t.getYield().size() <= maxLen) res.add(t);
+        }
+        return res;
+    }
+
+    /**
+     * Copies of the trees where every phrasal label below ROOT gets one of
+     * splits random subcategories (NP=0, NP=1, ...), like the latent
+     * annotations of a split grammar: far more labels and rules, so the binary
+     * layer dominates the parse. Un-annotation strips the suffix again.
+     */
+    public static List<Tree<String>> splitLabels(List<Tree<String>> trees, int splits, long seed) {
+        Random rand = new Random(seed);
+        List<Tree<String>> res = new ArrayList<Tree<String>>();
+        for (Tree<String> tree : trees) {
+            res.add(splitLabels(tree, splits, rand));
+        }
+        return res;
+    }
+
+    static Tree<String> splitLabels(Tree<String> tree, int splits, Random rand) {
+        if (tree.isLeaf() || tree.isPreTerminal()) return tree;
+        List<Tree<String>> kids = new ArrayList<Tree<String>>();
+        for (Tree<String> kid : tree.getChildren()) kids.add(splitLabels(kid, splits, rand));
+        String label = tree.getLabel().equals("ROOT") ? "ROOT" : tree.getLabel() + "=" + rand.nextInt(splits);
+        return new Tree<String>(label, kids);
+    }
+
+    /**
+     * Sentence of exactly the given length, made of generated clauses joined by
+     * "and" and cut to the length. Meant for timing, not for accuracy.
+     */
+    public List<String> sentence(int length) {
+        List<String> words = new ArrayList<String>();
+        while (words.size() < length) {
+            if (!words.isEmpty()) words.add("and");
+            List<String> clause = gen("S", 1).getYield();
+            words.addAll(clause.subList(0, clause.size() - 1));
+        }
+        words = new ArrayList<String>(words.subList(0, length - 1));
+        words.add(".");
+        return words;
+    }
+}
@@ -0,0 +1,84 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * Checks that GrammarTrainer builds the same tables as CKYParser(trainTrees)
+ * for every thread count, then times the training of both.
+ *
+ * The check compares the labels, the binary and closed unary rules in order
+ * with their scores, and the lexicon vectors of every word, all exactly.
+ *
+ * Flags: -path or -seed/-trainTrees (see BenchmarkData), -splitLabels,
+ * -threads 1,2,4, -repeats 3 (best time of).
+ */
+public class TrainerBenchmark {
+
+    public static void main(String[] args) {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        int[] threadCounts = BenchmarkData.parseInts(CommandLineUtils.getValueOrUseDefault(argMap, "-threads", "1,2,4"));
+        int repeats = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-repeats", "3"));
+        List<Tree<String>> trainTrees = BenchmarkData.trainTrees(argMap);
+
+        CKYParser reference = new CKYParser(trainTrees);
+        System.out.format("%d trees, %d labels, %d binary rules, %d closed unary rules, %d words\n", trainTrees.size(),
+                reference.m_NumTags, reference.m_Compiled.getNumBinaryRules(),
+                reference.m_Compiled.getNumUnaryRules(), reference.m_Lexical.getNumWords());
+        boolean passed = true;
+        for (int threads : threadCounts) {
+            String diff = compare(reference, new GrammarTrainer(threads).train(trainTrees));
+            System.out.println(threads + " threads: " + (diff == null ? "identical tables" : "DIFFERENT " + diff));
+            passed &= diff == null;
+        }
+        System.out.println(passed ? "All tables identical" : "FAILED: tables differ");
+
+        long sequential = Long.MAX_VALUE;
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            long start = System.nanoTime();
+            new CKYParser(trainTrees);
+            sequential = Math.min(sequential, System.nanoTime() - start);
+        }
+        System.out.format("%-12s %10s %8s\n", "trainer", "millis", "speed-up");
+        System.out.format("%-12s %10.1f %8s\n", "CKYParser", sequential / 1e6, "1.00x");
+        for (int threads : threadCounts) {
+            long best = Long.MAX_VALUE;
+            for (int repeat = 0; repeat < repeats; repeat++) {
+                long start = System.nanoTime();
+                new GrammarTrainer(threads).train(trainTrees);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.format("%-12s %10.1f %7.2fx\n", threads + " threads", best / 1e6, (double) sequential / best);
+        }
+        System.out.println("(best of " + repeats + ", including the annotation of the trees; "
+                + Runtime.getRuntime().availableProcessors() + " processors)");
+    }
+
+    // What differs between the tables of the two parsers, null when nothing
+    static String compare(CKYParser expected, CKYParser actual) {
+        if (!expected.m_Indexer.equals(actual.m_Indexer))
+            return "labels";
+        CompiledGrammar g = expected.m_Compiled, h = actual.m_Compiled;
+        if (!Arrays.equals(g.m_ParentOffsets, h.m_ParentOffsets) || !Arrays.equals(g.m_BinaryLeft, h.m_BinaryLeft) ||
+                !Arrays.equals(g.m_BinaryRight, h.m_BinaryRight))
+            return "binary rules";
+        if (!Arrays.equals(g.m_BinaryScore, h.m_BinaryScore))
+            return "binary scores";
+        if (!Arrays.equals(g.m_UnaryOffsets, h.m_UnaryOffsets) || !Arrays.equals(g.m_UnaryChild, h.m_UnaryChild) ||
+                !Arrays.deepEquals(g.m_UnaryPaths, h.m_UnaryPaths))
+            return "unary rules";
+        if (!Arrays.equals(g.m_UnaryScore, h.m_UnaryScore))
+            return "unary scores";
+        CompiledLexicon l = expected.m_Lexical, m = actual.m_Lexical;
+        if (!Arrays.equals(l.words(), m.words()) || !Arrays.equals(l.m_Offsets, m.m_Offsets) ||
+                !Arrays.equals(l.m_Tags, m.m_Tags))
+            return "lexicon taggings";
+        if (!Arrays.equals(l.m_Scores, m.m_Scores))
+            return "lexicon scores";
+        return null;
+    }
+}
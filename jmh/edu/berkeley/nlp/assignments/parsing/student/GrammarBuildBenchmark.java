@@ -0,0 +1,83 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.nlp.assignments.parsing.Grammar;
+import edu.berkeley.nlp.assignments.parsing.SimpleLexicon;
+import edu.berkeley.nlp.assignments.parsing.UnaryClosure;
+import edu.berkeley.nlp.ling.Tree;
+
+/**
+ * Model construction costs, one stage at a time: binarization of the
+ * training trees, grammar tallying, unary closure, rule table compilation and
+ * lexicon building. Each stage starts from the output of the previous ones,
+ * built once in setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class GrammarBuildBenchmark {
+
+    @Param({ "" })
+    public String path;
+
+    @Param({ "2000" })
+    public int trainTrees;
+
+    List<Tree<String>>  m_TrainTrees;
+    List<Tree<String>>  m_AnnotatedTrees;
+    Grammar             m_Grammar;
+    UnaryClosure        m_UClosure;
+    SimpleLexicon       m_Lexicon;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        m_TrainTrees        = BenchmarkData.trainTrees(ParserBenchmark.benchmarkArgs(path, trainTrees));
+        m_AnnotatedTrees    = CKYParser.annotateTrees(m_TrainTrees);
+        m_Grammar           = Grammar.generativeGrammarFromTrees(m_AnnotatedTrees);
+        m_UClosure          = new UnaryClosure(m_Grammar.getLabelIndexer(), m_Grammar.getUnaryRules());
+        m_Lexicon           = new SimpleLexicon(m_AnnotatedTrees);
+    }
+
+    @Benchmark
+    public List<Tree<String>> annotate() {
+        return CKYParser.annotateTrees(m_TrainTrees);
+    }
+
+    @Benchmark
+    public Grammar grammar() {
+        return Grammar.generativeGrammarFromTrees(m_AnnotatedTrees);
+    }
+
+    @Benchmark
+    public UnaryClosure unaryClosure() {
+        return new UnaryClosure(m_Grammar.getLabelIndexer(), m_Grammar.getUnaryRules());
+    }
+
+    @Benchmark
+    public CompiledGrammar compiledGrammar() {
+        return new CompiledGrammar(m_Grammar, m_UClosure);
+    }
+
+    @Benchmark
+    public CompiledLexicon lexicon() {
+        return new CompiledLexicon(new SimpleLexicon(m_AnnotatedTrees), m_AnnotatedTrees, m_Grammar.getLabelIndexer());
+    }
+}
@@ -0,0 +1,90 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.nlp.assignments.parsing.Parser;
+import edu.berkeley.nlp.ling.Tree;
+
+/**
+ * Parsing throughput (sentences per millisecond) and per-sentence latency
+ * distribution (SampleTime percentiles) of the CKY parsers, by sentence length.
+ * Each benchmark invocation parses the next sentence of a fixed set of
+ * synthetic sentences of exactly that length. Run with -prof gc for the
+ * allocation rate.
+ *
+ * The parsers are trained on the SyntheticTreebank, or on the treebank at
+ * -p path=... (sections 2-21).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class ParserBenchmark {
+
+    @Param({ "CKYParser", "GenerativeParserDrive" })
+    public String parser;
+
+    @Param({ "10", "20", "40", "80" })
+    public int length;
+
+    @Param({ "" })
+    public String path;
+
+    @Param({ "2000" })
+    public int trainTrees;
+
+    @Param({ "50" })
+    public int sentences;
+
+    Parser              m_Parser;
+    List<List<String>>  m_Sentences;
+    int                 m_Next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<Tree<String>> train = BenchmarkData.trainTrees(benchmarkArgs(path, trainTrees));
+        if (parser.equals("CKYParser")) {
+            m_Parser = new CKYParser(train);
+        } else if (parser.equals("GenerativeParserDrive")) {
+            m_Parser = new GenerativeParserDrive(train);
+        } else {
+            throw new IllegalArgumentException("Unknown parser: " + parser);
+        }
+        m_Sentences = BenchmarkData.sentences(sentences, length, 7);
+        m_Next = 0;
+    }
+
+    static Map<String, String> benchmarkArgs(String path, int trainTrees) {
+        Map<String, String> argMap = new HashMap<String, String>();
+        if (path.length() > 0) {
+            argMap.put("-path", path);
+        }
+        argMap.put("-trainTrees", "" + trainTrees);
+        return argMap;
+    }
+
+    @Benchmark
+    public Tree<String> parse() {
+        List<String> sentence = m_Sentences.get(m_Next);
+        m_Next = (m_Next + 1) % m_Sentences.size();
+        return m_Parser.getBestParse(sentence);
+    }
+}
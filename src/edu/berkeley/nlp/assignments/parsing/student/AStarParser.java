@@ -0,0 +1,428 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.berkeley.nlp.assignments.parsing.Parser;
+import edu.berkeley.nlp.assignments.parsing.TreeAnnotations;
+import edu.berkeley.nlp.ling.Tree;
+
+/**
+ * Exact A* parser over the tables of a CKYParser. Chart items are popped
+ * best-first from an agenda ordered by inside score plus the SX outside
+ * estimate of OutsideEstimate, and combined with the items already popped,
+ * until no item left on the agenda can score as well as ROOT over the whole
+ * sentence. Only those items are ever built, instead of every label of every
+ * span as in CKYParser.
+ *
+ * The tree is the Viterbi tree of CKYParser, ties included: the search goes on
+ * past ROOT through the items that tie with it, and the backpointers of the
+ * tree are then chosen over the popped items in the order CKYParser uses. The
+ * items live in a CKYChart, the tree is read by ViterbiDecoder.
+ *
+ * Like CKYParser, the per-sentence state is kept per thread.
+ */
+public class AStarParser implements Parser {
+
+    public static final int DEFAULT_MAX_LENGTH = 40;
+
+    // Items of the agenda, entry of the chart times two plus the layer
+    static final int    BINARY      = 0;
+    static final int    UNARY       = 1;
+
+    // Items within this relative distance of the best score still get popped,
+    // the estimates do not add up in the same order as the inside scores
+    static final double TIE_SLACK   = 1e-9;
+
+    final CKYParser         m_Parser;
+    final CompiledGrammar   m_Compiled;
+    final CompiledLexicon   m_Lexical;
+    final int               m_NumTags;
+    volatile OutsideEstimate m_Estimate;
+    volatile long           m_EstimateNanos;    // Time to compute m_Estimate
+
+    // Search statistics
+    final AtomicLong        m_Sentences     = new AtomicLong();
+    final AtomicLong        m_ItemsPushed   = new AtomicLong();
+    final AtomicLong        m_ItemsPopped   = new AtomicLong();
+    final AtomicLong        m_ChartItems    = new AtomicLong();     // Items of the charts CKYParser would fill
+
+    final ThreadLocal<Workspace> m_Workspace = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    public AStarParser(CKYParser parser) {
+        this(parser, DEFAULT_MAX_LENGTH);
+    }
+
+    /** The estimates are computed up front for sentences of up to maxLength words */
+    public AStarParser(CKYParser parser, int maxLength) {
+        m_Parser    = parser;
+        m_Compiled  = parser.m_Compiled;
+        m_Lexical   = parser.m_Lexical;
+        m_NumTags   = parser.m_NumTags;
+        long start = System.nanoTime();
+        m_Estimate  = new OutsideEstimate(m_Compiled, m_Lexical, maxLength);
+        m_EstimateNanos = System.nanoTime() - start;
+    }
+
+    /** Time spent computing the current outside estimates (see printStats) */
+    public long getEstimateNanos() {
+        return m_EstimateNanos;
+    }
+
+    // Estimates covering the sentence length, recomputed for longer sentences
+    OutsideEstimate estimate(int sentLen) {
+        OutsideEstimate estimate = m_Estimate;
+        if (sentLen <= estimate.getMaxLength())
+            return estimate;
+        synchronized (this) {
+            estimate = m_Estimate;
+            if (sentLen > estimate.getMaxLength()) {
+                long start = System.nanoTime();
+                estimate = new OutsideEstimate(m_Compiled, m_Lexical, Math.max(sentLen, 3 * estimate.getMaxLength() / 2));
+                m_EstimateNanos = System.nanoTime() - start;
+                m_Estimate = estimate;
+            }
+            return estimate;
+        }
+    }
+
+    public Tree<String> getBestParse(List<String> sentence) {
+        Tree<String> ret = sentence.isEmpty() ? null : parse(sentence, m_Workspace.get());
+        if (ret == null) {
+            ret = m_Parser.buildJunkTree();
+        }
+        return TreeAnnotations.unAnnotateTree(ret);
+    }
+
+    // Searches the chart and decodes the annotated tree, null when there is no parse
+    Tree<String> parse(List<String> sentence, Workspace ws) {
+        int sentLen = sentence.size();
+        OutsideEstimate estimate = estimate(sentLen);
+        CKYChart chart = ws.reset(sentence);
+        double[] binaryScores   = chart.m_BinaryScores;
+        double[] unaryScores    = chart.m_UnaryScores;
+        double[] expanded       = ws.m_Expanded;
+        int[] cellExpanded      = ws.m_CellExpanded;
+        Agenda agenda           = ws.m_Agenda;
+        long pushed = 0, popped = 0;
+
+        for (int start = 0; start < sentLen; start++) {
+            int cell = chart.offset(start, start + 1);
+            m_Lexical.fill(sentence.get(start), binaryScores, cell);
+            int wordId = m_Lexical.wordId(sentence.get(start));
+            for (int i = m_Lexical.m_Offsets[wordId]; i < m_Lexical.m_Offsets[wordId + 1]; i++) {
+                int tagIdx = m_Lexical.m_Tags[i];
+                ws.written(cell + tagIdx);
+                agenda.push(2 * (cell + tagIdx) + BINARY,
+                        m_Lexical.m_Scores[i] + estimate.outsideBinary(tagIdx, start, sentLen - start - 1));
+                pushed++;
+            }
+        }
+
+        int goal = 2 * chart.offset(0, sentLen) + UNARY;
+        double stop = Double.NEGATIVE_INFINITY;
+        while (!agenda.isEmpty() && agenda.topPriority() >= stop) {
+            int item = agenda.pop();
+            int entry = item >> 1;
+            double score = (item & 1) == BINARY ? binaryScores[entry] : unaryScores[entry];
+            if (score <= expanded[item])
+                continue;       // Already expanded with this score
+            expanded[item] = score;
+            popped++;
+            int cellIdx = entry / m_NumTags;
+            int tagIdx = entry - cellIdx * m_NumTags;
+            int start = ws.m_CellStarts[cellIdx], end = ws.m_CellEnds[cellIdx];
+            if (item == goal) {
+                stop = score - TIE_SLACK * (1.0 + Math.abs(score));
+                continue;
+            }
+
+            if ((item & 1) == BINARY) {
+                // Unary items above, through the closed rules of the child
+                int cell = cellIdx * m_NumTags;
+                for (int c = m_Compiled.m_UnaryChildOffsets[tagIdx]; c < m_Compiled.m_UnaryChildOffsets[tagIdx + 1]; c++) {
+                    int u = m_Compiled.m_UnaryByChild[c];
+                    int parent = cell + m_Compiled.m_UnaryParent[u];
+                    double ruleScore = m_Compiled.m_UnaryScore[u];
+                    ruleScore += score;
+                    if (ruleScore > unaryScores[parent]) {
+                        if (unaryScores[parent] == Double.NEGATIVE_INFINITY && binaryScores[parent] == Double.NEGATIVE_INFINITY)
+                            ws.written(parent);
+                        unaryScores[parent] = ruleScore;
+                        agenda.push(2 * parent + UNARY, ruleScore + estimate.outsideUnary(
+                                m_Compiled.m_UnaryParent[u], start, sentLen - end));
+                        pushed++;
+                    }
+                }
+                continue;
+            }
+
+            cellExpanded[cellIdx]++;
+            // Left child, with the expanded unary items starting at the end of the span
+            for (int rightEnd = end + 1; rightEnd <= sentLen; rightEnd++) {
+                int rightCellIdx = CKYChart.cellIndex(end, rightEnd);
+                if (cellExpanded[rightCellIdx] == 0)
+                    continue;
+                int rightCell = rightCellIdx * m_NumTags;
+                int parentCell = chart.offset(start, rightEnd);
+                for (int r = m_Compiled.m_LeftOffsets[tagIdx]; r < m_Compiled.m_LeftOffsets[tagIdx + 1]; r++) {
+                    int right = rightCell + m_Compiled.m_LeftRight[r];
+                    if (expanded[2 * right + UNARY] == Double.NEGATIVE_INFINITY)
+                        continue;
+                    double ruleScore = m_Compiled.m_LeftScore[r];
+                    ruleScore += score;
+                    ruleScore += unaryScores[right];
+                    int parent = parentCell + m_Compiled.m_LeftParent[r];
+                    if (ruleScore > binaryScores[parent]) {
+                        if (binaryScores[parent] == Double.NEGATIVE_INFINITY && unaryScores[parent] == Double.NEGATIVE_INFINITY)
+                            ws.written(parent);
+                        binaryScores[parent] = ruleScore;
+                        agenda.push(2 * parent + BINARY, ruleScore + estimate.outsideBinary(
+                                m_Compiled.m_LeftParent[r], start, sentLen - rightEnd));
+                        pushed++;
+                    }
+                }
+            }
+            // Right child, with the expanded unary items ending at the start of the span
+            for (int leftStart = start - 1; leftStart >= 0; leftStart--) {
+                int leftCellIdx = CKYChart.cellIndex(leftStart, start);
+                if (cellExpanded[leftCellIdx] == 0)
+                    continue;
+                int leftCell = leftCellIdx * m_NumTags;
+                int parentCell = chart.offset(leftStart, end);
+                for (int r = m_Compiled.m_RightOffsets[tagIdx]; r < m_Compiled.m_RightOffsets[tagIdx + 1]; r++) {
+                    int left = leftCell + m_Compiled.m_RightLeft[r];
+                    if (expanded[2 * left + UNARY] == Double.NEGATIVE_INFINITY)
+                        continue;
+                    double ruleScore = m_Compiled.m_RightScore[r];
+                    ruleScore += unaryScores[left];
+                    ruleScore += score;
+                    int parent = parentCell + m_Compiled.m_RightParent[r];
+                    if (ruleScore > binaryScores[parent]) {
+                        if (binaryScores[parent] == Double.NEGATIVE_INFINITY && unaryScores[parent] == Double.NEGATIVE_INFINITY)
+                            ws.written(parent);
+                        binaryScores[parent] = ruleScore;
+                        agenda.push(2 * parent + BINARY, ruleScore + estimate.outsideBinary(
+                                m_Compiled.m_RightParent[r], leftStart, sentLen - end));
+                        pushed++;
+                    }
+                }
+            }
+        }
+
+        m_Sentences.incrementAndGet();
+        m_ItemsPushed.addAndGet(pushed);
+        m_ItemsPopped.addAndGet(popped);
+        m_ChartItems.addAndGet(2L * CKYChart.numCells(sentLen) * m_NumTags);
+        ws.m_LastPopped = popped;
+        if (expanded[goal] == Double.NEGATIVE_INFINITY)
+            return null;
+        chooseBackpointers(chart, ws);
+        return m_Parser.m_Decoder.get().decode(chart, 0, 0, sentLen);
+    }
+
+    /**
+     * Sets the backpointers of the items of the best tree, top-down from ROOT,
+     * the way CKYParser fills them: the best score, then the lowest closed
+     * unary rule or the lowest (rule, split). Every item of a derivation as
+     * good as the best was expanded, so the scores compared are those of the
+     * full chart and the choice is the same.
+     */
+    void chooseBackpointers(CKYChart chart, Workspace ws) {
+        double[] binaryScores   = chart.m_BinaryScores;
+        double[] unaryScores    = chart.m_UnaryScores;
+        int[] stack = ws.m_Stack;
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = 0;
+        stack[top++] = chart.getSentenceLength();
+        while (top > 0) {
+            int end = stack[--top], start = stack[--top], tagIdx = stack[--top];
+            int cell = chart.offset(start, end);
+
+            double best = Double.NEGATIVE_INFINITY;
+            int bestRule = -1;
+            for (int u = m_Compiled.m_UnaryOffsets[tagIdx]; u < m_Compiled.m_UnaryOffsets[tagIdx + 1]; u++) {
+                double childScore = binaryScores[cell + m_Compiled.m_UnaryChild[u]];
+                if (childScore == Double.NEGATIVE_INFINITY)
+                    continue;
+                double ruleScore = m_Compiled.m_UnaryScore[u];
+                ruleScore += childScore;
+                if (ruleScore > best) {
+                    best = ruleScore;
+                    bestRule = u;
+                }
+            }
+            chart.m_UnaryBack[cell + tagIdx] = bestRule;
+            int childIdx = m_Compiled.m_UnaryChild[bestRule];
+            if (end - start == 1)
+                continue;
+
+            best = Double.NEGATIVE_INFINITY;
+            int bestPacked = -1;
+            for (int r = m_Compiled.m_ParentOffsets[childIdx]; r < m_Compiled.m_ParentOffsets[childIdx + 1]; r++) {
+                for (int split = start + 1; split < end; split++) {
+                    double leftScore = unaryScores[chart.offset(start, split) + m_Compiled.m_BinaryLeft[r]];
+                    double rightScore = unaryScores[chart.offset(split, end) + m_Compiled.m_BinaryRight[r]];
+                    if (leftScore == Double.NEGATIVE_INFINITY || rightScore == Double.NEGATIVE_INFINITY)
+                        continue;
+                    double ruleScore = m_Compiled.m_BinaryScore[r];
+                    ruleScore += leftScore;
+                    ruleScore += rightScore;
+                    if (ruleScore > best) {
+                        best = ruleScore;
+                        bestPacked = CKYChart.packBinary(r, split);
+                    }
+                }
+            }
+            chart.m_BinaryBack[cell + childIdx] = bestPacked;
+            int rule = CKYChart.binaryRule(bestPacked), split = CKYChart.binarySplit(bestPacked);
+            if (top + 6 > stack.length) {
+                stack = ws.m_Stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            stack[top++] = m_Compiled.m_BinaryRight[rule];
+            stack[top++] = split;
+            stack[top++] = end;
+            stack[top++] = m_Compiled.m_BinaryLeft[rule];
+            stack[top++] = start;
+            stack[top++] = split;
+        }
+    }
+
+    /** Items popped by the last sentence parsed on the calling thread */
+    public long lastItemsPopped() {
+        return m_Workspace.get().m_LastPopped;
+    }
+
+    public void printStats() {
+        OutsideEstimate estimate = m_Estimate;
+        System.out.format("Outside estimates up to %d words: %d millis, %d KB\n", estimate.getMaxLength(),
+                m_EstimateNanos / 1000000, estimate.sizeInBytes() / 1024);
+        long chartItems = Math.max(1, m_ChartItems.get());
+        System.out.format("A* items popped: %d / %d chart items (%.2f%%), pushed: %d, over %d sentences\n",
+                m_ItemsPopped.get(), m_ChartItems.get(), 100.0 * m_ItemsPopped.get() / chartItems,
+                m_ItemsPushed.get(), m_Sentences.get());
+    }
+
+    /**
+     * Chart, agenda and expanded scores of one thread. The entries written
+     * for a sentence are listed, so the next sentence only clears those.
+     */
+    class Workspace {
+        final CKYChart  m_Chart     = new CKYChart(m_NumTags);
+        final Agenda    m_Agenda    = new Agenda();
+        double[]        m_Expanded  = new double[0];    // Score each item was expanded with, by item
+        int[]           m_CellExpanded = new int[0];    // Unary items expanded, by cell
+        int[]           m_CellStarts = new int[0];
+        int[]           m_CellEnds  = new int[0];
+        int[]           m_Written   = new int[1024];    // Chart entries with a finite score
+        int             m_NumWritten;
+        int[]           m_Stack     = new int[64];
+        long            m_LastPopped;
+
+        CKYChart reset(List<String> sentence) {
+            int sentLen = sentence.size();
+            int numCells = CKYChart.numCells(sentLen);
+            m_Chart.reset(sentence, m_Written, m_NumWritten);
+            if (2L * numCells * m_NumTags > m_Expanded.length) {
+                m_Expanded      = new double[2 * numCells * m_NumTags];
+                m_CellExpanded  = new int[numCells];
+                m_CellStarts    = new int[numCells];
+                m_CellEnds      = new int[numCells];
+                Arrays.fill(m_Expanded, Double.NEGATIVE_INFINITY);
+                for (int end = 1; end <= sentLen; end++) {
+                    for (int start = 0; start < end; start++) {
+                        m_CellStarts[CKYChart.cellIndex(start, end)] = start;
+                        m_CellEnds[CKYChart.cellIndex(start, end)] = end;
+                    }
+                }
+            } else {
+                for (int idx = 0; idx < m_NumWritten; idx++) {
+                    int entry = m_Written[idx];
+                    m_Expanded[2 * entry + BINARY] = Double.NEGATIVE_INFINITY;
+                    m_Expanded[2 * entry + UNARY] = Double.NEGATIVE_INFINITY;
+                    m_CellExpanded[entry / m_NumTags] = 0;
+                }
+            }
+            m_NumWritten = 0;
+            m_Agenda.clear();
+            return m_Chart;
+        }
+
+        // Called before the first finite score of the entry
+        void written(int entry) {
+            if (m_NumWritten == m_Written.length) {
+                m_Written = Arrays.copyOf(m_Written, 2 * m_NumWritten);
+            }
+            m_Written[m_NumWritten++] = entry;
+        }
+    }
+
+    /** Binary max-heap of items by priority */
+    static class Agenda {
+        double[]    m_Priorities    = new double[1024];
+        int[]       m_Items         = new int[1024];
+        int         m_Size;
+
+        void clear() {
+            m_Size = 0;
+        }
+
+        boolean isEmpty() {
+            return m_Size == 0;
+        }
+
+        double topPriority() {
+            return m_Priorities[0];
+        }
+
+        // Items without any parse around them (estimate -Infinity) are dropped
+        void push(int item, double priority) {
+            if (priority == Double.NEGATIVE_INFINITY)
+                return;
+            if (m_Size == m_Items.length) {
+                m_Items = Arrays.copyOf(m_Items, 2 * m_Size);
+                m_Priorities = Arrays.copyOf(m_Priorities, 2 * m_Size);
+            }
+            int pos = m_Size++;
+            while (pos > 0) {
+                int up = (pos - 1) >> 1;
+                if (m_Priorities[up] >= priority)
+                    break;
+                m_Items[pos] = m_Items[up];
+                m_Priorities[pos] = m_Priorities[up];
+                pos = up;
+            }
+            m_Items[pos] = item;
+            m_Priorities[pos] = priority;
+        }
+
+        int pop() {
+            int top = m_Items[0];
+            int item = m_Items[--m_Size];
+            double priority = m_Priorities[m_Size];
+            int pos = 0;
+            while (true) {
+                int down = 2 * pos + 1;
+                if (down >= m_Size)
+                    break;
+                if (down + 1 < m_Size && m_Priorities[down + 1] > m_Priorities[down])
+                    down++;
+                if (m_Priorities[down] <= priority)
+                    break;
+                m_Items[pos] = m_Items[down];
+                m_Priorities[pos] = m_Priorities[down];
+                pos = down;
+            }
+            m_Items[pos] = item;
+            m_Priorities[pos] = priority;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import edu.berkeley.nlp.assignments.parsing.Parser;
+import edu.berkeley.nlp.ling.Tree;
+
+/**
+ * Parses a batch of sentences on a pool of threads sharing one thread-safe
+ * Parser (CKYParser, CoarseToFineParser). The pool belongs to the caller and
+ * should live across batches: the parsers keep their charts and workspaces
+ * per thread, so fresh threads would allocate and grow them again.
+ */
+public class BatchParser {
+
+    /**
+     * Sentences are submitted longest first, so a long sentence starts early
+     * instead of running alone at the end of the batch. The trees come back in
+     * the order of the sentences, identical to parsing them one by one. With a
+     * null pool they are parsed on the calling thread.
+     */
+    public static List<Tree<String>> parseAll(final Parser parser, final List<List<String>> sentences,
+                                              ExecutorService pool) {
+        if (pool == null || sentences.size() <= 1) {
+            List<Tree<String>> trees = new ArrayList<Tree<String>>(sentences.size());
+            for (List<String> sentence : sentences) {
+                trees.add(parser.getBestParse(sentence));
+            }
+            return trees;
+        }
+
+        Integer[] order = longestFirst(sentences);
+        List<Future<Tree<String>>> futures = new ArrayList<Future<Tree<String>>>(
+                Collections.<Future<Tree<String>>>nCopies(sentences.size(), null));
+        try {
+            for (final Integer idx : order) {
+                futures.set(idx, pool.submit(new Callable<Tree<String>>() {
+                    public Tree<String> call() {
+                        return parser.getBestParse(sentences.get(idx));
+                    }
+                }));
+            }
+            List<Tree<String>> trees = new ArrayList<Tree<String>>(sentences.size());
+            for (Future<Tree<String>> future : futures) {
+                trees.add(future.get());
+            }
+            return trees;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Parsing failed", e.getCause());
+        } finally {
+            // The pool outlives the batch, drop what is left of this one after a failure
+            for (Future<Tree<String>> future : futures) {
+                if (future != null) future.cancel(true);
+            }
+        }
+    }
+
+    // Sentence indices by decreasing length, stable for equal lengths
+    static Integer[] longestFirst(final List<List<String>> sentences) {
+        Integer[] order = new Integer[sentences.size()];
+        for (int idx = 0; idx < order.length; idx++) {
+            order[idx] = idx;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return sentences.get(b).size() - sentences.get(a).size();
+            }
+        });
+        return order;
+    }
+}
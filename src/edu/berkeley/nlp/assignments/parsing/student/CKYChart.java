@@ -0,0 +1,186 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Flat, reusable storage for the CKY chart.
+ *
+ * Every span (start, end) of the sentence owns one cell, and every cell holds
+ * one entry per label (label innermost), so the entries of a cell are
+ * contiguous: entry = cellIndex(start, end) * numTags + label.
+ * Cells are laid out by end position, cellIndex(start, end) = end*(end-1)/2 + start,
+ * which does not depend on the sentence length, so the arrays are allocated once
+ * and only grow when a longer sentence arrives.
+ *
+ * A chart built with floatScores keeps its scores in m_BinaryFloats and
+ * m_UnaryFloats (see FloatKernel) and leaves the double arrays null.
+ */
+public class CKYChart {
+
+    // Binary backpointers are packed as (ruleIdx << SPLIT_BITS) | split
+    static final int    SPLIT_BITS  = 10;
+    static final int    SPLIT_MASK  = (1 << SPLIT_BITS) - 1;
+    public static final int MAX_SENTENCE_LENGTH = SPLIT_MASK;
+
+    // Counters of a cell in m_CellStats, written by every fill of the cell
+    static final int    BINARY_ATTEMPTS = 0;    // Binary rules scored (both children finite)
+    static final int    BINARY_IMPROVED = 1;    // ... that improved the best score of their parent
+    static final int    UNARY_ATTEMPTS  = 2;
+    static final int    UNARY_IMPROVED  = 3;
+    static final int    BINARY_NANOS    = 4;    // Only when m_Timed
+    static final int    UNARY_NANOS     = 5;
+    static final int    CELL_STATS      = 6;
+
+    final int           m_NumTags;
+    final boolean       m_FloatScores;      // Scores as floats instead of doubles
+    int                 m_Capacity;         // Longest sentence the arrays can hold
+    int                 m_SentLen;
+    List<String>        m_Sentence;
+    double[]            m_BinaryScores;     // Best score of the label built by a binary rule (or the lexicon)
+    double[]            m_UnaryScores;      // Best score of the label after the closed unary layer
+    float[]             m_BinaryFloats;     // m_BinaryScores of a chart with float scores
+    float[]             m_UnaryFloats;
+    int[]               m_BinaryBack;       // Packed (rule, split) of the best binary rule, -1 if none
+    int[]               m_UnaryBack;        // Index in the closed unary rules of the label, -1 if none
+    int[]               m_LiveLabels;       // Labels with a finite unary score, packed at the start of each cell
+    int[]               m_LiveCounts;       // Number of live labels per cell
+    long[]              m_CellStats;        // CELL_STATS counters per cell, see ParseStats
+    boolean             m_Timed;            // Time the binary and unary pass of each cell
+    boolean             m_Filled;           // Every cell of m_Sentence filled by CKYParser.parse
+
+    public CKYChart(int numTags) {
+        this(numTags, false);
+    }
+
+    public CKYChart(int numTags, boolean floatScores) {
+        m_NumTags       = numTags;
+        m_FloatScores   = floatScores;
+        m_SentLen   = 0;
+        grow(0);            // Empty arrays, so an empty sentence resets a fresh chart
+    }
+
+    /**
+     * Prepares the chart for a sentence. Only the entries used by the sentence
+     * are cleared, the arrays are reallocated only when the sentence is longer
+     * than any seen before.
+     */
+    public void reset(List<String> sentence) {
+        reset(sentence.size());
+        m_Sentence = sentence;
+    }
+
+    public void reset(int sentLen) {
+        if (sentLen > MAX_SENTENCE_LENGTH) {
+            throw new IllegalArgumentException("Sentence too long for the chart: " + sentLen);
+        }
+        if (sentLen > m_Capacity) {
+            grow(sentLen);
+        }
+        m_SentLen = sentLen;
+        m_Sentence = null;
+        m_Filled = false;
+        int used = numCells(sentLen) * m_NumTags;
+        if (m_FloatScores) {
+            Arrays.fill(m_BinaryFloats, 0, used, Float.NEGATIVE_INFINITY);
+            Arrays.fill(m_UnaryFloats, 0, used, Float.NEGATIVE_INFINITY);
+        } else {
+            Arrays.fill(m_BinaryScores, 0, used, Double.NEGATIVE_INFINITY);
+            Arrays.fill(m_UnaryScores, 0, used, Double.NEGATIVE_INFINITY);
+        }
+        Arrays.fill(m_BinaryBack, 0, used, -1);
+        Arrays.fill(m_UnaryBack, 0, used, -1);
+        Arrays.fill(m_LiveCounts, 0, numCells(sentLen), 0);
+    }
+
+    /**
+     * Prepares a chart of double scores like reset, but only clears the given
+     * entries, which must hold every entry written since the last reset. For
+     * parsers that only write a small part of the chart (AStarParser).
+     */
+    public void reset(List<String> sentence, int[] written, int numWritten) {
+        if (sentence.size() > m_Capacity) {
+            reset(sentence);        // The new arrays are cleared whole
+            return;
+        }
+        for (int idx = 0; idx < numWritten; idx++) {
+            int entry = written[idx];
+            m_BinaryScores[entry]   = Double.NEGATIVE_INFINITY;
+            m_UnaryScores[entry]    = Double.NEGATIVE_INFINITY;
+            m_BinaryBack[entry]     = -1;
+            m_UnaryBack[entry]      = -1;
+        }
+        m_SentLen = sentence.size();
+        m_Sentence = sentence;
+        m_Filled = false;
+    }
+
+    void grow(int sentLen) {
+        long entries = (long) numCells(sentLen) * m_NumTags;
+        if (entries > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(
+                    "Chart for %d words and %d labels does not fit in an array", sentLen, m_NumTags));
+        }
+        if (m_FloatScores) {
+            m_BinaryFloats  = new float[(int) entries];
+            m_UnaryFloats   = new float[(int) entries];
+        } else {
+            m_BinaryScores  = new double[(int) entries];
+            m_UnaryScores   = new double[(int) entries];
+        }
+        m_BinaryBack    = new int[(int) entries];
+        m_UnaryBack     = new int[(int) entries];
+        m_LiveLabels    = new int[(int) entries];
+        m_LiveCounts    = new int[numCells(sentLen)];
+        m_CellStats     = new long[numCells(sentLen) * CELL_STATS];
+        m_Capacity      = sentLen;
+    }
+
+    public int getSentenceLength() {
+        return m_SentLen;
+    }
+
+    public List<String> getSentence() {
+        return m_Sentence;
+    }
+
+    public int getNumTags() {
+        return m_NumTags;
+    }
+
+    /** Offset of the first entry of the span [start, end) */
+    public int offset(int start, int end) {
+        return cellIndex(start, end) * m_NumTags;
+    }
+
+    public static int cellIndex(int start, int end) {
+        return end * (end - 1) / 2 + start;
+    }
+
+    public static int numCells(int sentLen) {
+        return sentLen * (sentLen + 1) / 2;
+    }
+
+    public static int packBinary(int ruleIdx, int split) {
+        return (ruleIdx << SPLIT_BITS) | split;
+    }
+
+    public static int binaryRule(int packed) {
+        return packed >>> SPLIT_BITS;
+    }
+
+    public static int binarySplit(int packed) {
+        return packed & SPLIT_MASK;
+    }
+
+    public long sizeInBytes() {
+        return sizeInBytes(m_NumTags, m_Capacity, m_FloatScores);
+    }
+
+    /** Bytes of the arrays of a chart grown for sentences of sentLen words */
+    public static long sizeInBytes(int numTags, int sentLen, boolean floatScores) {
+        int scoreBytes = floatScores ? 4 : 8;
+        long cells = numCells(sentLen);
+        return cells * numTags * (2 * scoreBytes + 4 + 4 + 4) + 4L * cells + 8L * cells * CELL_STATS;
+    }
+}
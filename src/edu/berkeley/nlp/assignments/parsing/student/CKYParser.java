@@ -4,22 +4,72 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.berkeley.nlp.ling.Tree;
 import edu.berkeley.nlp.assignments.parsing.*;
 import edu.berkeley.nlp.util.Indexer;
 
 
+/**
+ * Viterbi CKY parser. The grammar, lexicon and compiled rule tables are built
+ * once and only read while parsing; all the per-sentence state lives in a
+ * CKYChart owned by the parsing thread, so one instance can be shared by
+ * several threads (see parseAll). The cells are filled by a ChartKernel with
+ * the VITERBI semiring; the parser adds the order of the cells (parallel
+ * diagonals, span cache), masks, beams, instrumentation and decoding.
+ */
 public class CKYParser implements Parser {
 
-    CKYChartElem[][][]      m_Chart;
     SimpleLexicon           m_Lexicon;
     Grammar                 m_Grammar;
     Indexer<String>         m_Indexer;
     UnaryClosure            m_UClosure;
+    CompiledGrammar         m_Compiled;
+    CompiledLexicon         m_Lexical;
+    ChartKernel             m_Kernel;           // Viterbi forward pass over m_Compiled and m_Lexical
     int                     m_NumTags;
-    int                     m_SentLen;
-    List<String>            m_Sentence;
+
+    // Per-thread parse workspace, reused across sentences
+    final ThreadLocal<CKYChart> m_Workspace = new ThreadLocal<CKYChart>() {
+        @Override
+        protected CKYChart initialValue() {
+            return new CKYChart(m_NumTags);
+        }
+    };
+
+    // Per-thread decoding stacks
+    final ThreadLocal<ViterbiDecoder> m_Decoder = new ThreadLocal<ViterbiDecoder>() {
+        @Override
+        protected ViterbiDecoder initialValue() {
+            return new ViterbiDecoder(m_Compiled);
+        }
+    };
+
+    // Intra-sentence parallelism, off unless set: the cells of one span length
+    // only read shorter spans, so each diagonal of a long enough sentence is
+    // filled by the pool
+    volatile CellParallelism m_CellParallelism;
+
+    // Per-cell pruning, off unless a beam is set
+    volatile CellBeam       m_Beam;
+
+    // Max-rule-product decoding instead of Viterbi, off unless set
+    volatile InsideOutside  m_Posteriors;
+
+    // Chart fill with float scores instead of doubles, off unless set
+    volatile FloatKernel    m_FloatKernel;
+
+    // Completed cells by the words of their span, off unless set
+    volatile SpanCache      m_SpanCache;
+
+    // Instrumentation: sentences are timed and counted only while a listener
+    // is added or a flight recording takes ParseEvents
+    final List<ParseListener> m_Listeners = new CopyOnWriteArrayList<ParseListener>();
 
     public CKYParser(List<Tree<String>> trainTrees) {
         if(trainTrees.size() < 1) {
@@ -28,15 +78,34 @@ public class CKYParser implements Parser {
         }
         System.out.println("Building CKYParser");
 
+        initialize(annotateTrees(trainTrees));
+
+        //test();
+    }
+
+    /**
+     * Parser over tables read from a ModelFile. Only the compiled tables are
+     * there, the Grammar, SimpleLexicon and UnaryClosure stay null.
+     */
+    public CKYParser(CompiledGrammar compiled, CompiledLexicon lexical) {
+        m_Compiled  = compiled;
+        m_Lexical   = lexical;
+        m_Kernel    = new ChartKernel(compiled, lexical, Semiring.VITERBI);
+        m_Indexer   = compiled.getLabelIndexer();
+        m_NumTags   = m_Indexer.size();
+    }
+
+    // For parsers that annotate the training trees themselves and then call initialize
+    CKYParser() {
+    }
+
+    public static List<Tree<String>> annotateTrees(List<Tree<String>> trainTrees) {
         //Binarize trees (Markovization happens here)!
         List<Tree<String>> annotatedTrees = new ArrayList<Tree<String>>();
         for (Tree<String> tree : trainTrees) {
             annotatedTrees.add(TreeAnnotations.annotateTreeLosslessBinarization(tree));
         }
-
-        initialize(annotatedTrees);
-
-        //test();
+        return annotatedTrees;
     }
 
     public void initialize(List<Tree<String>> trainTrees) {
@@ -45,23 +114,16 @@ public class CKYParser implements Parser {
         m_Indexer   = m_Grammar.getLabelIndexer();
         m_NumTags   = m_Indexer.size();
         m_UClosure  = new UnaryClosure(m_Indexer, m_Grammar.getUnaryRules());
+        m_Compiled  = new CompiledGrammar(m_Grammar, m_UClosure);
+        m_Lexical   = new CompiledLexicon(m_Lexicon, trainTrees, m_Indexer);
+        m_Kernel    = new ChartKernel(m_Compiled, m_Lexical, Semiring.VITERBI);
     }
 
-    public void initChart(int size) {
-        int totalCreated = 0;
-        m_Chart = new CKYChartElem[m_NumTags][][];
-        for (int labelIdx = 0; labelIdx < m_NumTags; labelIdx++) {
-            m_Chart[labelIdx] = new CKYChartElem[size][];
-            for (int rowIdx = 0; rowIdx < size; rowIdx++) {
-                m_Chart[labelIdx][rowIdx] = new CKYChartElem[size-rowIdx];
-                for (int colIdx = 0; colIdx < size - rowIdx; colIdx++) {
-                    m_Chart[labelIdx][rowIdx][colIdx] = new CKYChartElem();
-                    totalCreated++;
-                }
-            }
-        }
-        System.out.format("Total cells created [%d][%d][%d] = %d\n",m_NumTags, size, size, totalCreated);
-        System.gc();
+    /** The chart of the calling thread, ready for a sentence of the given length */
+    public CKYChart initChart(List<String> sentence) {
+        CKYChart chart = m_Workspace.get();
+        chart.reset(sentence);
+        return chart;
     }
 
 
@@ -70,136 +132,303 @@ public class CKYParser implements Parser {
     }
 
     public Tree<String> getBestParse(List<String> sentence) {
-        // Build chart
-        m_Sentence = sentence;
-        m_SentLen = m_Sentence.size();
-        initChart(m_SentLen);
+        return getBestParse(sentence, null);
+    }
 
-        // --- INITIALIZE CHART
-        // Fill up the diagonal with the terminal values
-        for (int tagIdx = 0; tagIdx < m_NumTags; tagIdx++) {
-            String tag = m_Indexer.get(tagIdx);
-            for (int rowIdx = 0; rowIdx < m_SentLen; rowIdx++) {
-                double s = m_Lexicon.scoreTagging(sentence.get(rowIdx), tag);
-                s = Double.isNaN(s)? Double.NEGATIVE_INFINITY : s;
-                m_Chart[tagIdx][rowIdx][m_SentLen-1-rowIdx].binaryScore = s;
+    /**
+     * Parses only the (span, label) items allowed by the mask, or every item
+     * when the mask is null.
+     */
+    public Tree<String> getBestParse(List<String> sentence, ChartMask mask) {
+        ParseEvent event = new ParseEvent();
+        ParseStats stats = null;
+        if (!m_Listeners.isEmpty() || event.isEnabled()) {
+            stats = new ParseStats(sentence);
+            stats.m_Masked = mask != null;
+            event.begin();
+        }
+        long startNanos = System.nanoTime();
 
+        CellBeam beam = m_Beam;
+        InsideOutside posteriors = m_Posteriors;
+        FloatKernel floatKernel = m_FloatKernel;
+        Tree<String> ret;
+        if (sentence.isEmpty()) {
+            ret = null;
+        } else if (posteriors != null) {
+            InsideOutside.Workspace ws = posteriors.workspace();
+            ret = posteriors.compute(ws, sentence) ?
+                    posteriors.maxRuleParse(ws, initChart(sentence), m_Decoder.get()) : null;
+        } else if (floatKernel != null) {
+            ret = floatKernel.parse(sentence, mask, m_Decoder.get(), stats);
+        } else {
+            ret = parse(sentence, mask, beam, stats);
+            if (ret == null && beam != null && beam.m_Fallback) {
+                beam.m_Fallbacks.incrementAndGet();
+                if (stats != null) stats.m_Fallback = true;
+                ret = parse(sentence, mask, null, stats);
             }
         }
+        if (ret == null) {
+            if (stats != null) stats.m_Junk = true;
+            ret = buildJunkTree();
+        }
 
-        // --- POPULATE CHART (Forward Pass)
-        // This approach might not be the most efficient
-        // As it is a brute force approach which traverses through
-        // all the possible tags,
-        // This code is based on the canonical Viterbi approach
-        for (int depth = m_SentLen-1; depth >= 0; --depth) {
-            for (int rowIdx = 0; rowIdx <= depth; ++rowIdx) {
-                int colIdx = depth-rowIdx;                      //Inverse diagonal
-                double baseScore, ruleScore, maxScore;
-
-                // BINARY RULES considering current position as parent
-                for (int tagIdx = 0; tagIdx < m_NumTags; ++tagIdx) {
-                    maxScore = Double.NEGATIVE_INFINITY;
-                    if(depth != m_SentLen-1) {                  //Skip the terminal level
-                        int ruleIdx = 0;
-                        for (BinaryRule binRule : m_Grammar.getBinaryRulesByParent(tagIdx)) {
-                            baseScore = binRule.getScore();
-                            for (int step = rowIdx+1; step<m_SentLen-colIdx; ++step) {
-                                ruleScore = baseScore;
-                                ruleScore += m_Chart[binRule.getLeftChild()][rowIdx][m_SentLen-step].unaryScore;
-                                ruleScore += m_Chart[binRule.getRightChild()][step][colIdx].unaryScore;
-                                if (ruleScore > maxScore) {
-                                    maxScore = ruleScore;
-                                    m_Chart[tagIdx][rowIdx][colIdx].binaryRuleIdx = ruleIdx;
-                                    m_Chart[tagIdx][rowIdx][colIdx].binaryStep = step;
-                                    m_Chart[tagIdx][rowIdx][colIdx].binaryScore = maxScore;
-                                }
-                            }
-                            ruleIdx++;
-                        }
-                    }
-                }
-
-                // Traverse all the unary rules considering current position as parent
-                for (int tagIdx = 0; tagIdx < m_NumTags; ++tagIdx) {
-                    maxScore = Double.NEGATIVE_INFINITY;
-                    boolean foundReflexive = false;
-                    for (UnaryRule unaRule : m_UClosure.getClosedUnaryRulesByParent(tagIdx)) {
-                        int childIdx = unaRule.getChild();
-                        if(childIdx==tagIdx)
-                            foundReflexive = true;
-                        ruleScore = unaRule.getScore();
-                        ruleScore += m_Chart[childIdx][rowIdx][colIdx].binaryScore;
-                        if (ruleScore > maxScore) {
-                            maxScore = ruleScore;
-                            m_Chart[tagIdx][rowIdx][colIdx].unaryChild = unaRule;
-                        }
-                    }
-                    if (foundReflexive) {
-                        ruleScore = m_Chart[tagIdx][rowIdx][colIdx].binaryScore;
-                        if (ruleScore > maxScore) {
-                            maxScore = ruleScore;
-                            m_Chart[tagIdx][rowIdx][colIdx].unaryChild = null;
-                        }
-                    }
-                    m_Chart[tagIdx][rowIdx][colIdx].unaryScore = maxScore;
-                }
+        // --- FORMAT TREE (for output)
+        ret = TreeAnnotations.unAnnotateTree(ret);
+
+        if (stats != null) {
+            stats.m_TotalNanos = System.nanoTime() - startNanos;
+            for (ParseListener listener : m_Listeners) {
+                listener.sentenceParsed(stats);
+            }
+            if (event.shouldCommit()) {
+                event.set(stats);
+                event.commit();
             }
         }
+        return ret;
+    }
 
-        //printChartValues(0,0);
-        //printChartValues(0,1);
-        //printChartValues(1,0);
+    /**
+     * Parses a piece of a sentence (see SegmentingParser): like getBestParse
+     * when a ROOT covers the words, otherwise the tree of the best label over
+     * all of them, under a ROOT. Exhaustive and with double scores whatever the
+     * configuration; null when no label covers the words.
+     */
+    public Tree<String> getBestFragmentParse(List<String> words) {
+        return getBestFragmentParse(words, null);
+    }
 
-        // --- DECODE THE TREE (Backward Pass)
-        Tree<String> ret;
-        if (m_Chart[0][0][0].unaryScore == Double.NEGATIVE_INFINITY) {
-            ret = new Tree<String>("ROOT", Collections.singletonList(new Tree<String>("JUNK")));
-        } else {
-            ret = decodeUnaryTreeFrom(0, 0, 0); // Alternates recursively from unary to binary rules
+    // getBestFragmentParse, counting in fragments the words no ROOT covers
+    Tree<String> getBestFragmentParse(List<String> words, AtomicLong fragments) {
+        if (words.isEmpty())
+            return null;
+        Tree<String> ret = parse(words, null, null, null);
+        if (ret != null)
+            return TreeAnnotations.unAnnotateTree(ret);
+        if (fragments != null)
+            fragments.incrementAndGet();
+        return getChartFragment(words);
+    }
+
+    /**
+     * The tree of the best label over the words, under a ROOT, in the chart
+     * this thread last filled for them (getBestParse without the float kernel
+     * or max-rule decoding), so a parse that found no ROOT need not be redone.
+     * Null when the chart holds another sentence or no label covers the words.
+     */
+    Tree<String> getChartFragment(List<String> words) {
+        CKYChart chart = m_Workspace.get();
+        if (!chart.m_Filled || chart.getSentence() != words)
+            return null;
+        int cell = chart.offset(0, words.size());
+        int best = -1;
+        for (int tagIdx = 0; tagIdx < m_NumTags; ++tagIdx) {
+            if (chart.m_UnaryScores[cell + tagIdx] != Double.NEGATIVE_INFINITY &&
+                    (best < 0 || chart.m_UnaryScores[cell + tagIdx] > chart.m_UnaryScores[cell + best]))
+                best = tagIdx;
         }
+        if (best < 0)
+            return null;
+        return TreeAnnotations.unAnnotateTree(new Tree<String>("ROOT",
+                Collections.singletonList(decodeUnaryTreeFrom(chart, best, 0, words.size()))));
+    }
 
-        // --- FORMAT TREE (for output)
-        return TreeAnnotations.unAnnotateTree(ret);
+    /**
+     * Starts reporting the counters of every sentence (see ParseStats) to the
+     * listener, for instance a ParseMetrics.
+     */
+    public void addListener(ParseListener listener) {
+        m_Listeners.add(listener);
     }
 
+    public void removeListener(ParseListener listener) {
+        m_Listeners.remove(listener);
+    }
 
-    public Tree<String> decodeUnaryTreeFrom(int tagIdx, int rowIdx, int colIdx) {
-        Tree<String> resTree;
+    // Fills the chart and decodes the annotated tree, null when there is no parse
+    Tree<String> parse(List<String> sentence, ChartMask mask, CellBeam beam, ParseStats stats) {
+        // Build chart
+        CKYChart chart = initChart(sentence);
+        chart.m_Timed = stats != null;
+        int sentLen = sentence.size();
+        long nanos = stats != null ? System.nanoTime() : 0;
 
-        UnaryRule rule = m_Chart[tagIdx][rowIdx][colIdx].unaryChild;
-        int childTagIdx = (rule == null)? tagIdx : rule.getChild();
+        // --- INITIALIZE CHART
+        // Fill up the diagonal with the precomputed tag scores of each word
+        m_Kernel.fillLexical(chart, sentence);
+        if (stats != null) {
+            stats.m_LexicalNanos += System.nanoTime() - nanos;
+        }
 
-        if( rowIdx + colIdx == m_SentLen-1 ) {
-            List<Tree<String>> word = Collections.singletonList(new Tree<String>(m_Sentence.get(rowIdx)));
-            resTree = new Tree<String>(m_Indexer.get(childTagIdx), word);
+        // --- POPULATE CHART (Forward Pass)
+        // Spans are filled by increasing length, each cell only reads shorter spans
+        CellParallelism cellParallelism = m_CellParallelism;
+        boolean parallel = cellParallelism != null && sentLen >= cellParallelism.m_MinLength;
+        ForkJoinPool pool = parallel ? cellParallelism.m_Pool : null;
+        // Cached cells only stand for exhaustive ones
+        SpanCache spanCache = mask == null && beam == null && !parallel ? m_SpanCache : null;
+        SpanCache.Lookup restored = spanCache != null ? spanCache.restore(chart) : null;
+        for (int length = 1; length <= sentLen; ++length) {
+            if (parallel && length > 1) {
+                pool.invoke(new DiagonalTask(chart, length, 0, sentLen - length + 1, mask, beam));
+                continue;
+            }
+            for (int start = 0; start + length <= sentLen; ++start) {
+                int end = start + length;
+                if (restored == null || !restored.isRestored(CKYChart.cellIndex(start, end)))
+                    m_Kernel.fillCell(chart, start, end, mask, beam);
+            }
+        }
+        if (spanCache != null) spanCache.store(chart, restored);
+        chart.m_Filled = true;
+
+        //printChartValues(chart, 0, 1);
+        //printChartValues(chart, 0, 2);
+        //printChartValues(chart, 1, 2);
+
+        // --- DECODE THE TREE (Backward Pass)
+        if (stats != null) {
+            stats.addChart(chart);
         }
-        else
-        {
-            resTree = decodeBinaryTreeFrom(childTagIdx, rowIdx, colIdx);
+        if (chart.m_UnaryScores[chart.offset(0, sentLen)] == Double.NEGATIVE_INFINITY) {
+            return null;
         }
+        nanos = stats != null ? System.nanoTime() : 0;
+        Tree<String> ret = decodeUnaryTreeFrom(chart, 0, 0, sentLen); // Alternates from unary to binary rules
+        if (stats != null) {
+            stats.m_DecodeNanos += System.nanoTime() - nanos;
+        }
+        return ret;
+    }
+
+    /**
+     * Fills the diagonals of the sentences of at least minLength words in
+     * parallel on the given pool. The trees are the same as the sequential
+     * fill; a null pool turns the parallel mode off.
+     */
+    public void setCellParallelism(ForkJoinPool pool, int minLength) {
+        m_CellParallelism = pool == null ? null : new CellParallelism(pool, minLength);
+    }
+
+    /** The pool and length threshold of setCellParallelism, published together */
+    static final class CellParallelism {
+        final ForkJoinPool  m_Pool;
+        final int           m_MinLength;
 
-        if (childTagIdx == tagIdx) {
-            return resTree;
+        CellParallelism(ForkJoinPool pool, int minLength) {
+            m_Pool      = pool;
+            m_MinLength = minLength;
         }
+    }
+
+    /**
+     * Turns on per-cell pruning: after the unary layer every cell keeps at most
+     * maxLabels labels (no limit when <= 0), all within margin of its best
+     * label by figure of merit (see CellBeam). With fallback, a sentence the
+     * beam cannot parse is parsed again exhaustively instead of giving JUNK.
+     */
+    public CellBeam setBeam(int maxLabels, double margin, boolean fallback) {
+        CellBeam beam = new CellBeam(m_Compiled, maxLabels, margin, fallback);
+        m_Beam = beam;
+        return beam;
+    }
+
+    /** Back to exhaustive parsing */
+    public void clearBeam() {
+        m_Beam = null;
+    }
+
+    /**
+     * Switches between Viterbi decoding and max-rule-product decoding, which
+     * picks the tree with the best product of rule posteriors from an
+     * inside-outside pass (see InsideOutside). Masks and beams only apply to
+     * Viterbi decoding, and the ParseStats of a max-rule parse only hold the
+     * total time.
+     */
+    public void setMaxRuleDecoding(boolean maxRule) {
+        m_Posteriors = maxRule ? new InsideOutside(m_Compiled, m_Lexical) : null;
+    }
+
+    /**
+     * Fills the charts with float scores (see FloatKernel), with the Vector API
+     * kernel when vector is set and the JVM has jdk.incubator.vector. Masks
+     * apply, beams and cell parallelism do not. Returns the kernel in use.
+     */
+    public FloatKernel setFloatKernel(boolean vector) {
+        FloatKernel kernel = FloatKernel.create(m_Compiled, m_Lexical, vector);
+        m_FloatKernel = kernel;
+        return kernel;
+    }
+
+    /** Back to double scores */
+    public void clearFloatKernel() {
+        m_FloatKernel = null;
+    }
+
+    /**
+     * Turns on the cache of completed cells (see SpanCache) for the spans of
+     * at least minLength words, within maxBytes. Only exhaustive sequential
+     * fills use it: not under a mask, a beam, cell parallelism, the float
+     * kernel or max-rule decoding. The trees are the same as without it.
+     */
+    public SpanCache setSpanCache(long maxBytes, int minLength) {
+        SpanCache cache = new SpanCache(m_NumTags, maxBytes, minLength);
+        m_SpanCache = cache;
+        return cache;
+    }
+
+    /** Back to filling every cell */
+    public void clearSpanCache() {
+        m_SpanCache = null;
+    }
 
-        List<Integer> unaryPath = m_UClosure.getPath(rule);
-        for (int step = unaryPath.size()-2; step >= 0; --step) {
-            int stepTag = unaryPath.get(step);
-            resTree = new Tree<String>(m_Indexer.get(stepTag), Collections.singletonList(resTree));
+    /** Fills the cells [lo, hi) (by start position) of one span length */
+    class DiagonalTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final CKYChart  m_Chart;
+        final int       m_Length;
+        final int       m_Lo;
+        final int       m_Hi;
+        final ChartMask m_Mask;
+        final CellBeam  m_CellBeam;
+
+        DiagonalTask(CKYChart chart, int length, int lo, int hi, ChartMask mask, CellBeam beam) {
+            m_Chart     = chart;
+            m_Length    = length;
+            m_Lo        = lo;
+            m_Hi        = hi;
+            m_Mask      = mask;
+            m_CellBeam  = beam;
         }
-        return resTree;
+
+        @Override
+        protected void compute() {
+            if (m_Hi - m_Lo == 1) {
+                m_Kernel.fillCell(m_Chart, m_Lo, m_Lo + m_Length, m_Mask, m_CellBeam);
+                return;
+            }
+            int mid = (m_Lo + m_Hi) >>> 1;
+            invokeAll(new DiagonalTask(m_Chart, m_Length, m_Lo, mid, m_Mask, m_CellBeam),
+                      new DiagonalTask(m_Chart, m_Length, mid, m_Hi, m_Mask, m_CellBeam));
+        }
+    }
+
+    /** Best tree of the unary item (tagIdx, start, end) of the chart */
+    public Tree<String> decodeUnaryTreeFrom(CKYChart chart, int tagIdx, int start, int end) {
+        return m_Decoder.get().decode(chart, tagIdx, start, end);
     }
 
-    public Tree<String> decodeBinaryTreeFrom(int tagIdx, int rowIdx, int colIdx) {
-        int ruleNum = m_Chart[tagIdx][rowIdx][colIdx].binaryRuleIdx;                       // Get the index from the rule list
-        assert ruleNum != -1 : m_Chart[tagIdx][rowIdx][colIdx].binaryScore;
-        int step = m_Chart[tagIdx][rowIdx][colIdx].binaryStep;                                   // Get the traversal path which had best result
-        BinaryRule rule = m_Grammar.getBinaryRulesByParent(tagIdx).get(ruleNum);   // extract the rule from the index and label <ROOT = 0>
-        ArrayList<Tree<String>> children = new ArrayList<Tree<String>>();   // Build tree for this rule
-        children.add(decodeUnaryTreeFrom(rule.getLeftChild(), rowIdx, m_SentLen - step));        // Build the tree for the left child
-        children.add(decodeUnaryTreeFrom(rule.getRightChild(), step, colIdx));                // Build the tree for the right child
-        return new Tree<String>(m_Indexer.get(tagIdx), children);
+    /**
+     * Parses the sentences on the threads of the pool, which keep their charts
+     * from one batch to the next. The longest sentences are scheduled first so
+     * they do not end up as stragglers; the trees are returned in the order of
+     * the sentences.
+     */
+    public List<Tree<String>> parseAll(List<List<String>> sentences, ExecutorService pool) {
+        return BatchParser.parseAll(this, sentences, pool);
     }
 
     void test() {
@@ -221,24 +450,28 @@ public class CKYParser implements Parser {
         return ruleStr;
     }
 
-    void printChartValues(int i, int j) {
-        System.out.format("Chart [%d][%d]\n", i, j);
+    void printChartValues(CKYChart chart, int start, int end) {
+        System.out.format("Chart [%d][%d]\n", start, end);
 
+        int cell = chart.offset(start, end);
         for (int tagIdx = 0; tagIdx < m_NumTags; ++tagIdx) {
-            if( m_Chart[tagIdx][i][j].binaryScore == Double.NEGATIVE_INFINITY &&
-                m_Chart[tagIdx][i][j].unaryScore == Double.NEGATIVE_INFINITY)
+            if( chart.m_BinaryScores[cell + tagIdx] == Double.NEGATIVE_INFINITY &&
+                chart.m_UnaryScores[cell + tagIdx] == Double.NEGATIVE_INFINITY)
                 continue;
 
             String unaryRuleStr = "";
-            if (m_Chart[tagIdx][i][j].unaryChild != null) {
-                unaryRuleStr = printUnaryRule(m_Chart[tagIdx][i][j].unaryChild);
+            int unaIdx = chart.m_UnaryBack[cell + tagIdx];
+            if (unaIdx != -1) {
+                unaryRuleStr = String.format("%s -> %s", m_Indexer.get(tagIdx),
+                        m_Indexer.get(m_Compiled.m_UnaryChild[unaIdx]));
             }
+            int packed = chart.m_BinaryBack[cell + tagIdx];
             System.out.format("%12s\t%12.3f\t%12.3f\t%6d\t%6d\t%s\n",
                     m_Indexer.get(tagIdx),
-                    m_Chart[tagIdx][i][j].binaryScore,
-                    m_Chart[tagIdx][i][j].unaryScore,
-                    m_Chart[tagIdx][i][j].binaryRuleIdx,
-                    m_Chart[tagIdx][i][j].binaryStep,
+                    chart.m_BinaryScores[cell + tagIdx],
+                    chart.m_UnaryScores[cell + tagIdx],
+                    packed == -1? -1 : CKYChart.binaryRule(packed),
+                    packed == -1? -1 : CKYChart.binarySplit(packed),
                     unaryRuleStr);
         }
         System.out.println();
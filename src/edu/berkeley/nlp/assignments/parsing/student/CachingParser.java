@@ -0,0 +1,66 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.nlp.assignments.parsing.Parser;
+import edu.berkeley.nlp.ling.Tree;
+
+/**
+ * Parser in front of another one that keeps the trees of the sentences it has
+ * parsed, keyed by their words, in a SizedLruCache of the given size. A
+ * repeated sentence is a lookup instead of a parse; every call returns its own
+ * copy of the tree, so callers may change it.
+ *
+ * The wrapped parser must give the same tree for the same words every time,
+ * which holds for CKYParser and AStarParser under any configuration.
+ */
+public class CachingParser implements Parser {
+
+    // Rough heap bytes of a tree node (Tree, its children list and label) and of a key word
+    static final long   NODE_BYTES  = 96;
+    static final long   WORD_BYTES  = 56;
+
+    final Parser                                    m_Parser;
+    final SizedLruCache<List<String>, Tree<String>> m_Cache;
+
+    public CachingParser(Parser parser, long maxBytes) {
+        m_Parser    = parser;
+        m_Cache     = new SizedLruCache<List<String>, Tree<String>>(maxBytes);
+    }
+
+    public Tree<String> getBestParse(List<String> sentence) {
+        Tree<String> tree = m_Cache.get(sentence);
+        if (tree == null) {
+            tree = m_Parser.getBestParse(sentence);
+            List<String> key = new ArrayList<String>(sentence);
+            m_Cache.put(key, tree.deepCopy(), sizeInBytes(key, tree));
+            return tree;
+        }
+        return tree.deepCopy();
+    }
+
+    static long sizeInBytes(List<String> sentence, Tree<String> tree) {
+        return WORD_BYTES * sentence.size() + NODE_BYTES * countNodes(tree);
+    }
+
+    static int countNodes(Tree<String> tree) {
+        int nodes = 1;
+        for (Tree<String> child : tree.getChildren()) {
+            nodes += countNodes(child);
+        }
+        return nodes;
+    }
+
+    public Parser getParser() {
+        return m_Parser;
+    }
+
+    public SizedLruCache<List<String>, Tree<String>> getCache() {
+        return m_Cache;
+    }
+
+    public void printStats() {
+        System.out.println("Sentence cache: " + m_Cache);
+    }
+}
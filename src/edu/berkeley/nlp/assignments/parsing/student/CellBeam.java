@@ -0,0 +1,150 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-cell beam of a CKYParser pass. After the unary layer of a cell, the
+ * labels are ranked by a figure of merit, inside score + outside estimate, and
+ * only the best ones stay alive: at most m_MaxLabels of them, all within
+ * m_Margin of the best one. The others get a -Infinity score, so the longer
+ * spans never look at them.
+ *
+ * The outside estimate of a label is the best score of a rule with the label
+ * as a child (0 for labels that are never a child, like ROOT), which ranks a
+ * label higher when it is likely to be used by a bigger constituent.
+ */
+public class CellBeam {
+
+    final int           m_MaxLabels;        // Labels kept per cell, no limit when <= 0
+    final double        m_Margin;           // Log-score window below the best label of the cell
+    final boolean       m_Fallback;         // Re-parse exhaustively when the beam loses every parse
+    final double[]      m_Outside;          // Outside estimate per label
+    final AtomicLong    m_Cells     = new AtomicLong();
+    final AtomicLong    m_Kept      = new AtomicLong();
+    final AtomicLong    m_Pruned    = new AtomicLong();
+    final AtomicLong    m_Fallbacks = new AtomicLong();
+
+    public CellBeam(CompiledGrammar grammar, int maxLabels, double margin, boolean fallback) {
+        m_MaxLabels = maxLabels;
+        m_Margin    = margin;
+        m_Fallback  = fallback;
+        m_Outside   = outsideEstimates(grammar);
+    }
+
+    static double[] outsideEstimates(CompiledGrammar grammar) {
+        int numTags = grammar.getNumTags();
+        double[] outside = new double[numTags];
+        Arrays.fill(outside, Double.NEGATIVE_INFINITY);
+        for (int r = 0; r < grammar.getNumBinaryRules(); r++) {
+            double score = grammar.m_BinaryScore[r];
+            outside[grammar.m_BinaryLeft[r]] = Math.max(outside[grammar.m_BinaryLeft[r]], score);
+            outside[grammar.m_BinaryRight[r]] = Math.max(outside[grammar.m_BinaryRight[r]], score);
+        }
+        for (int u = 0; u < grammar.getNumUnaryRules(); u++) {
+            int childIdx = grammar.m_UnaryChild[u];
+            if (childIdx != grammar.m_UnaryParent[u]) {
+                outside[childIdx] = Math.max(outside[childIdx], grammar.m_UnaryScore[u]);
+            }
+        }
+        for (int tagIdx = 0; tagIdx < numTags; tagIdx++) {
+            if (outside[tagIdx] == Double.NEGATIVE_INFINITY)
+                outside[tagIdx] = 0;
+        }
+        return outside;
+    }
+
+    /**
+     * Prunes the live labels [from, from + numLive) of the cell whose unary
+     * scores start at cell, and returns the number of survivors. The survivors
+     * stay at the start of the range in increasing label order.
+     */
+    int prune(int[] labels, int from, int numLive, double[] scores, int cell) {
+        m_Cells.incrementAndGet();
+        if (numLive == 0)
+            return 0;
+
+        double best = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < from + numLive; i++) {
+            best = Math.max(best, fom(scores, cell, labels[i]));
+        }
+
+        // Margin: drop the labels too far below the best one
+        int kept = from;
+        double floor = best - m_Margin;
+        for (int i = from; i < from + numLive; i++) {
+            int tagIdx = labels[i];
+            if (fom(scores, cell, tagIdx) >= floor) {
+                labels[kept++] = tagIdx;
+            } else {
+                scores[cell + tagIdx] = Double.NEGATIVE_INFINITY;
+            }
+        }
+
+        // Beam: keep the m_MaxLabels best ones
+        if (m_MaxLabels > 0 && kept - from > m_MaxLabels) {
+            select(labels, from, kept - 1, from + m_MaxLabels, scores, cell);
+            for (int i = from + m_MaxLabels; i < kept; i++) {
+                scores[cell + labels[i]] = Double.NEGATIVE_INFINITY;
+            }
+            kept = from + m_MaxLabels;
+            Arrays.sort(labels, from, kept);
+        }
+
+        m_Kept.addAndGet(kept - from);
+        m_Pruned.addAndGet(numLive - (kept - from));
+        return kept - from;
+    }
+
+    final double fom(double[] scores, int cell, int tagIdx) {
+        return scores[cell + tagIdx] + m_Outside[tagIdx];
+    }
+
+    // Quickselect on labels[lo..hi]: the labels before k end up with a figure
+    // of merit at least as high as the ones from k on
+    void select(int[] labels, int lo, int hi, int k, double[] scores, int cell) {
+        while (lo < hi) {
+            double pivot = fom(scores, cell, labels[(lo + hi) >>> 1]);
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (fom(scores, cell, labels[i]) > pivot) i++;
+                while (fom(scores, cell, labels[j]) < pivot) j--;
+                if (i <= j) {
+                    int tmp = labels[i];
+                    labels[i++] = labels[j];
+                    labels[j--] = tmp;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    public int getMaxLabels() {
+        return m_MaxLabels;
+    }
+
+    public double getMargin() {
+        return m_Margin;
+    }
+
+    public boolean getFallback() {
+        return m_Fallback;
+    }
+
+    public long getFallbacks() {
+        return m_Fallbacks.get();
+    }
+
+    public void printStats() {
+        long cells = m_Cells.get(), kept = m_Kept.get(), pruned = m_Pruned.get();
+        System.out.format("Beam (max %d labels, margin %g): %.1f labels kept per cell, %.1f%% pruned, %d fallbacks\n",
+                m_MaxLabels, m_Margin, cells == 0 ? 0.0 : (double) kept / cells,
+                kept + pruned == 0 ? 0.0 : 100.0 * pruned / (kept + pruned), m_Fallbacks.get());
+    }
+}
@@ -0,0 +1,210 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.List;
+
+/**
+ * The CKY forward pass over a CKYChart, for one CompiledGrammar and
+ * CompiledLexicon and one Semiring: the lexical diagonal, then every cell by
+ * increasing span length, binary layer then closed unary layer. CKYParser and
+ * GenerativeParserDrive are configurations of it (with VITERBI); the INSIDE
+ * and COUNTING kernels fill the same chart with sums for diagnostics.
+ *
+ * The grammar tables are shared and read only, the chart belongs to the
+ * calling thread, so one kernel can fill the charts of several threads.
+ */
+public class ChartKernel {
+
+    final CompiledGrammar   m_Compiled;
+    final CompiledLexicon   m_Lexical;
+    final Semiring          m_Semiring;
+    final int               m_NumTags;
+    final double[]          m_LeftWeight;       // Binary rule weights, by left child (m_LeftScore)
+    final double[]          m_UnaryWeight;      // Closed unary rule weights (m_UnaryScore)
+
+    public ChartKernel(CompiledGrammar compiled, CompiledLexicon lexical, Semiring semiring) {
+        m_Compiled      = compiled;
+        m_Lexical       = lexical;
+        m_Semiring      = semiring;
+        m_NumTags       = compiled.getNumTags();
+        m_LeftWeight    = weights(compiled.m_LeftScore);
+        m_UnaryWeight   = weights(compiled.m_UnaryScore);
+    }
+
+    double[] weights(double[] logScores) {
+        double[] weights = new double[logScores.length];
+        for (int idx = 0; idx < logScores.length; idx++) {
+            weights[idx] = m_Semiring.weight(logScores[idx]);
+        }
+        return weights;
+    }
+
+    public Semiring getSemiring() {
+        return m_Semiring;
+    }
+
+    /**
+     * Fills the whole chart, which must have been reset for the sentence, in
+     * order on the calling thread. Returns the score of ROOT over the sentence.
+     */
+    public double fill(CKYChart chart, List<String> sentence, ChartMask mask, CellBeam beam) {
+        int sentLen = sentence.size();
+        fillLexical(chart, sentence);
+        for (int length = 1; length <= sentLen; ++length) {
+            for (int start = 0; start + length <= sentLen; ++start) {
+                fillCell(chart, start, start + length, mask, beam);
+            }
+        }
+        return sentLen == 0 ? Double.NEGATIVE_INFINITY : chart.m_UnaryScores[chart.offset(0, sentLen)];
+    }
+
+    /** The binary layer of the one-word cells, from the lexicon */
+    public void fillLexical(CKYChart chart, List<String> sentence) {
+        double[] binaryScores = chart.m_BinaryScores;
+        for (int start = 0; start < sentence.size(); start++) {
+            int cell = chart.offset(start, start + 1);
+            m_Lexical.fill(sentence.get(start), binaryScores, cell);
+            for (int entry = cell; entry < cell + m_NumTags; entry++) {
+                binaryScores[entry] = m_Semiring.weight(binaryScores[entry]);
+            }
+        }
+    }
+
+    /**
+     * Fills the cell from the shorter ones, then keeps its live labels (finite
+     * unary score) for the longer spans, pruned by the beam if any.
+     */
+    public void fillCell(CKYChart chart, int start, int end, ChartMask mask, CellBeam beam) {
+        int cellIdx = CKYChart.cellIndex(start, end);
+        long[] cellStats = chart.m_CellStats;
+        int c = cellIdx * CKYChart.CELL_STATS;
+        long nanos = chart.m_Timed ? System.nanoTime() : 0;
+        if (end - start > 1) {
+            fillBinary(chart, start, end, mask);
+        } else {
+            cellStats[c + CKYChart.BINARY_ATTEMPTS] = 0;
+            cellStats[c + CKYChart.BINARY_IMPROVED] = 0;
+        }
+        if (chart.m_Timed) {
+            long now = System.nanoTime();
+            cellStats[c + CKYChart.BINARY_NANOS] = now - nanos;
+            nanos = now;
+        }
+        fillUnary(chart, cellIdx, mask);
+        if (chart.m_Timed) {
+            cellStats[c + CKYChart.UNARY_NANOS] = System.nanoTime() - nanos;
+        }
+
+        // Keep the alive labels of this cell for the longer spans
+        double[] unaryScores    = chart.m_UnaryScores;
+        int[] liveLabels        = chart.m_LiveLabels;
+        int cell = cellIdx * m_NumTags;
+        int numLive = 0;
+        for (int tagIdx = 0; tagIdx < m_NumTags; ++tagIdx) {
+            if (unaryScores[cell + tagIdx] != Double.NEGATIVE_INFINITY)
+                liveLabels[cell + numLive++] = tagIdx;
+        }
+        // The whole sentence cell is never pruned, ROOT may rank low in it
+        if (beam != null && end - start < chart.m_SentLen) {
+            numLive = beam.prune(liveLabels, cell, numLive, unaryScores, cell);
+        }
+        chart.m_LiveCounts[cellIdx] = numLive;
+    }
+
+    /**
+     * BINARY RULES considering the span as parent. The split point is the
+     * outermost loop, then only the labels alive (finite score) in the left
+     * child cell are expanded through the rules they are the left child of.
+     * The backpointer of a derivation is its packed (rule, split), so the
+     * Viterbi ties keep the lowest, as enumerating every parent, rule and
+     * split in order.
+     */
+    void fillBinary(CKYChart chart, int start, int end, ChartMask mask) {
+        double[] binaryScores   = chart.m_BinaryScores;
+        double[] unaryScores    = chart.m_UnaryScores;
+        int[] binaryBack        = chart.m_BinaryBack;
+        int[] liveLabels        = chart.m_LiveLabels;
+        int[] liveCounts        = chart.m_LiveCounts;
+        int[] leftOffsets       = m_Compiled.m_LeftOffsets;
+        int[] leftRight         = m_Compiled.m_LeftRight;
+        int[] leftParent        = m_Compiled.m_LeftParent;
+        int[] leftRule          = m_Compiled.m_LeftRule;
+        double[] leftWeight     = m_LeftWeight;
+        Semiring semiring       = m_Semiring;
+        int cellIdx = CKYChart.cellIndex(start, end);
+        int cell = cellIdx * m_NumTags;
+        double ruleScore;
+        long attempts = 0, improved = 0;
+
+        for (int split = start+1; split < end; ++split) {
+            int leftCellIdx = CKYChart.cellIndex(start, split);
+            int rightCellIdx = CKYChart.cellIndex(split, end);
+            if (liveCounts[leftCellIdx] == 0 || liveCounts[rightCellIdx] == 0)
+                continue;
+            int leftCell = leftCellIdx * m_NumTags;
+            int rightCell = rightCellIdx * m_NumTags;
+            for (int live = leftCell, liveEnd = leftCell + liveCounts[leftCellIdx]; live < liveEnd; ++live) {
+                int leftIdx = liveLabels[live];
+                double leftScore = unaryScores[leftCell + leftIdx];
+                for (int r = leftOffsets[leftIdx], rEnd = leftOffsets[leftIdx+1]; r < rEnd; ++r) {
+                    double rightScore = unaryScores[rightCell + leftRight[r]];
+                    if (rightScore == Double.NEGATIVE_INFINITY)
+                        continue;
+                    ruleScore = leftWeight[r];
+                    ruleScore += leftScore;
+                    ruleScore += rightScore;
+                    if (mask != null && !mask.allows(cellIdx, leftParent[r]))
+                        continue;
+                    attempts++;
+                    if (semiring.add(binaryScores, binaryBack, cell + leftParent[r], ruleScore,
+                            CKYChart.packBinary(leftRule[r], split)))
+                        improved++;
+                }
+            }
+        }
+        int c = cellIdx * CKYChart.CELL_STATS;
+        chart.m_CellStats[c + CKYChart.BINARY_ATTEMPTS] = attempts;
+        chart.m_CellStats[c + CKYChart.BINARY_IMPROVED] = improved;
+    }
+
+    /**
+     * UNARY RULES considering the cell as parent, driven by the children: only
+     * the labels with a finite binary score are expanded through the closed
+     * rules they are the child of. The closure holds the reflexive rule X -> X
+     * of every label, so each finite label reaches its own unary entry. The
+     * backpointer is the closed rule, Viterbi ties keep the lowest, as
+     * enumerating the rules of every parent in order.
+     */
+    void fillUnary(CKYChart chart, int cellIdx, ChartMask mask) {
+        double[] binaryScores   = chart.m_BinaryScores;
+        double[] unaryScores    = chart.m_UnaryScores;
+        int[] unaryBack         = chart.m_UnaryBack;
+        int[] childOffsets      = m_Compiled.m_UnaryChildOffsets;
+        int[] unaryByChild      = m_Compiled.m_UnaryByChild;
+        int[] unaryParent       = m_Compiled.m_UnaryParent;
+        double[] unaryWeight    = m_UnaryWeight;
+        Semiring semiring       = m_Semiring;
+        int cell = cellIdx * m_NumTags;
+        double ruleScore;
+        long attempts = 0, improved = 0;
+
+        for (int childIdx = 0; childIdx < m_NumTags; ++childIdx) {
+            double childScore = binaryScores[cell + childIdx];
+            if (childScore == Double.NEGATIVE_INFINITY)
+                continue;
+            for (int c = childOffsets[childIdx], cEnd = childOffsets[childIdx+1]; c < cEnd; ++c) {
+                int u = unaryByChild[c];
+                int parentIdx = unaryParent[u];
+                if (mask != null && !mask.allows(cellIdx, parentIdx))
+                    continue;
+                ruleScore = unaryWeight[u];
+                ruleScore += childScore;
+                attempts++;
+                if (semiring.add(unaryScores, unaryBack, cell + parentIdx, ruleScore, u))
+                    improved++;
+            }
+        }
+        int c = cellIdx * CKYChart.CELL_STATS;
+        chart.m_CellStats[c + CKYChart.UNARY_ATTEMPTS] = attempts;
+        chart.m_CellStats[c + CKYChart.UNARY_IMPROVED] = improved;
+    }
+}
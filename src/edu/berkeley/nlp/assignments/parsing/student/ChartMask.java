@@ -0,0 +1,40 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Arrays;
+
+/**
+ * Set of (span, label) items a CKYParser pass is allowed to build.
+ *
+ * The items are kept per coarse label: every fine label is projected to its
+ * coarse label, and a fine item is allowed when the coarse item of its span is.
+ */
+public class ChartMask {
+
+    final int[]         m_Projection;       // Fine label -> coarse label
+    final int           m_NumCoarse;
+    boolean[]           m_Allowed;          // cellIndex * numCoarse + coarse label
+
+    public ChartMask(int[] projection, int numCoarse) {
+        m_Projection    = projection;
+        m_NumCoarse     = numCoarse;
+        m_Allowed       = new boolean[0];
+    }
+
+    /** Clears the mask for a sentence of the given length, nothing is allowed */
+    public void reset(int sentLen) {
+        int size = CKYChart.numCells(sentLen) * m_NumCoarse;
+        if (size > m_Allowed.length) {
+            m_Allowed = new boolean[size];
+        } else {
+            Arrays.fill(m_Allowed, 0, size, false);
+        }
+    }
+
+    public void allow(int cellIdx, int coarseIdx) {
+        m_Allowed[cellIdx * m_NumCoarse + coarseIdx] = true;
+    }
+
+    public final boolean allows(int cellIdx, int tagIdx) {
+        return m_Allowed[cellIdx * m_NumCoarse + m_Projection[tagIdx]];
+    }
+}
@@ -0,0 +1,168 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.assignments.parsing.*;
+import edu.berkeley.nlp.util.Indexer;
+
+/**
+ * Two-pass parser. A coarse grammar, whose labels are the fine labels projected
+ * back to their base symbols, computes inside/outside posteriors for every
+ * (span, label). Coarse items whose posterior falls below the threshold are
+ * pruned, and the fine CKYParser only builds the items whose coarse projection
+ * survived. If the pruned fine pass finds no parse, the sentence is parsed
+ * again exhaustively. Like CKYParser, the per-sentence state is kept per
+ * thread, so one instance can be shared by several threads.
+ */
+public class CoarseToFineParser implements Parser {
+
+    public static final double DEFAULT_THRESHOLD = 1e-4;
+
+    CKYParser               m_Fine;
+    CompiledLexicon         m_CoarseLexicon;
+    CompiledGrammar         m_Coarse;
+    InsideOutside           m_CoarsePosteriors;
+    Indexer<String>         m_CoarseIndexer;
+    int                     m_NumCoarse;
+    int[]                   m_Projection;       // Fine label -> coarse label
+    volatile double         m_Threshold;        // Minimum posterior of a kept coarse item
+
+    // Pruning statistics
+    final AtomicLong        m_ItemsTotal = new AtomicLong();
+    final AtomicLong        m_ItemsKept = new AtomicLong();
+    final AtomicLong        m_Fallbacks = new AtomicLong();
+
+    // Mask of each thread
+    final ThreadLocal<ChartMask> m_Masks = new ThreadLocal<ChartMask>() {
+        @Override
+        protected ChartMask initialValue() {
+            return new ChartMask(m_Projection, m_NumCoarse);
+        }
+    };
+
+    public CoarseToFineParser(List<Tree<String>> trainTrees, double threshold) {
+        System.out.println("Building CoarseToFineParser");
+        m_Threshold = threshold;
+
+        List<Tree<String>> annotatedTrees = CKYParser.annotateTrees(trainTrees);
+        m_Fine = new CKYParser();
+        m_Fine.initialize(annotatedTrees);
+
+        List<Tree<String>> coarseTrees = new ArrayList<Tree<String>>();
+        for (Tree<String> tree : annotatedTrees) {
+            coarseTrees.add(projectTree(tree));
+        }
+        Grammar grammar     = Grammar.generativeGrammarFromTrees(coarseTrees);
+        m_CoarseIndexer     = grammar.getLabelIndexer();
+        m_CoarseLexicon     = new CompiledLexicon(new SimpleLexicon(coarseTrees), coarseTrees, m_CoarseIndexer);
+        m_NumCoarse         = m_CoarseIndexer.size();
+        m_Coarse            = new CompiledGrammar(grammar, new UnaryClosure(m_CoarseIndexer, grammar.getUnaryRules()));
+        m_CoarsePosteriors  = new InsideOutside(m_Coarse, m_CoarseLexicon);
+
+        m_Projection = new int[m_Fine.m_NumTags];
+        for (int tagIdx = 0; tagIdx < m_Fine.m_NumTags; tagIdx++) {
+            m_Projection[tagIdx] = m_CoarseIndexer.indexOf(projectLabel(m_Fine.m_Indexer.get(tagIdx)));
+        }
+        System.out.format("Coarse grammar: %d labels (fine: %d)\n", m_NumCoarse, m_Fine.m_NumTags);
+    }
+
+    public void setThreshold(double threshold) {
+        m_Threshold = threshold;
+    }
+
+    public double getThreshold() {
+        return m_Threshold;
+    }
+
+    public Tree<String> getBestParse(List<String> sentence) {
+        if (sentence.isEmpty())
+            return m_Fine.getBestParse(sentence);       // JUNK, there is nothing to prune
+        Tree<String> ret = null;
+        ChartMask mask = m_Masks.get();
+        if (computeMask(mask, sentence)) {
+            ret = m_Fine.getBestParse(sentence, mask);
+        }
+        if (ret == null || isJunk(ret)) {
+            m_Fallbacks.incrementAndGet();
+            ret = m_Fine.getBestParse(sentence);
+        }
+        return ret;
+    }
+
+    static boolean isJunk(Tree<String> tree) {
+        return tree.getChildren().size() == 1 && tree.getChildren().get(0).getLabel().equals("JUNK");
+    }
+
+    /**
+     * Base symbol of an annotated label, keeping the '@' of intermediate
+     * symbols: NP^S -> NP, @NP->_DT_JJ -> @NP. This is the projection
+     * TreeAnnotations.unAnnotateTree applies to node labels.
+     */
+    public static String projectLabel(String label) {
+        int index = -1;
+        for (String delim : new String[] { "=", "<", ">", "^", "_", "->" }) {
+            int currIndex = label.indexOf(delim);
+            if (currIndex > 0 && (index < 0 || currIndex < index))
+                index = currIndex;
+        }
+        return index < 0 ? label : label.substring(0, index);
+    }
+
+    static Tree<String> projectTree(Tree<String> tree) {
+        if (tree.isLeaf()) {
+            return new Tree<String>(tree.getLabel());
+        }
+        List<Tree<String>> children = new ArrayList<Tree<String>>();
+        for (Tree<String> child : tree.getChildren()) {
+            children.add(projectTree(child));
+        }
+        return new Tree<String>(projectLabel(tree.getLabel()), children);
+    }
+
+    /**
+     * Runs the coarse inside-outside pass and fills the mask with the coarse
+     * items whose posterior reaches the threshold. Returns false when the coarse
+     * grammar finds no parse at all.
+     */
+    boolean computeMask(ChartMask mask, List<String> sentence) {
+        InsideOutside.Workspace ws = m_CoarsePosteriors.workspace();
+        if (!m_CoarsePosteriors.compute(ws, sentence)) {
+            return false;
+        }
+
+        // --- PRUNE
+        int sentLen = sentence.size();
+        double threshold = m_Threshold;
+        double[] insideBinary   = ws.m_InsideBinary;
+        double[] insideUnary    = ws.m_InsideUnary;
+        double[] outsideBinary  = ws.m_OutsideBinary;
+        double[] outsideUnary   = ws.m_OutsideUnary;
+        long kept = 0;
+        mask.reset(sentLen);
+        for (int cellIdx = 0; cellIdx < CKYChart.numCells(sentLen); cellIdx++) {
+            // Compares the scaled products, no log or exp per item
+            double bound = m_CoarsePosteriors.posteriorBound(ws, cellIdx, threshold);
+            if (bound == Double.POSITIVE_INFINITY)
+                continue;
+            int cell = cellIdx * m_NumCoarse;
+            for (int tagIdx = 0; tagIdx < m_NumCoarse; tagIdx++) {
+                if (insideUnary[cell + tagIdx] * outsideUnary[cell + tagIdx] >= bound ||
+                        insideBinary[cell + tagIdx] * outsideBinary[cell + tagIdx] >= bound) {
+                    mask.allow(cellIdx, tagIdx);
+                    kept++;
+                }
+            }
+        }
+        m_ItemsTotal.addAndGet((long) CKYChart.numCells(sentLen) * m_NumCoarse);
+        m_ItemsKept.addAndGet(kept);
+        return true;
+    }
+
+    public void printStats() {
+        System.out.format("Coarse items kept: %d / %d (%.2f%%), exhaustive fallbacks: %d\n",
+                m_ItemsKept.get(), m_ItemsTotal.get(), 100.0 * m_ItemsKept.get() / Math.max(1, m_ItemsTotal.get()), m_Fallbacks.get());
+    }
+}
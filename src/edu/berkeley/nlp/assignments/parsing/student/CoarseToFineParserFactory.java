@@ -1,16 +1,90 @@
 package edu.berkeley.nlp.assignments.parsing.student;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import edu.berkeley.nlp.assignments.parsing.Parser;
 import edu.berkeley.nlp.assignments.parsing.ParserFactory;
+import edu.berkeley.nlp.io.PennTreebankReader;
 import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.ling.Trees;
+import edu.berkeley.nlp.parser.EnglishPennTreebankParseEvaluator;
+import edu.berkeley.nlp.util.CommandLineUtils;
 
 
 public class CoarseToFineParserFactory implements ParserFactory {
 
+  double threshold;
+
+  public CoarseToFineParserFactory() {
+    this(CoarseToFineParser.DEFAULT_THRESHOLD);
+  }
+
+  public CoarseToFineParserFactory(double threshold) {
+    this.threshold = threshold;
+  }
+
   public Parser getParser(List<Tree<String>> trainTrees) {
 
-     return null;
+     return new CoarseToFineParser(trainTrees, threshold);
+  }
+
+  /**
+   * Compares the coarse-to-fine parser against the exhaustive CKYParser of
+   * GenerativeParserFactory on the validation section: decoding time, speed-up
+   * and F1 delta. Flags: -path, -maxTrainLength, -maxTestLength, -threshold.
+   */
+  public static void main(String[] args) {
+    Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+    String basePath = CommandLineUtils.getValueOrUseDefault(argMap, "-path", ".");
+    int maxTrainLength = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-maxTrainLength", "1000"));
+    int maxTestLength = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-maxTestLength", "40"));
+    double threshold = Double.parseDouble(CommandLineUtils.getValueOrUseDefault(argMap, "-threshold", "" + CoarseToFineParser.DEFAULT_THRESHOLD));
+
+    List<Tree<String>> trainTrees = readTrees(basePath, 200, 2199, maxTrainLength);
+    List<Tree<String>> testTrees = readTrees(basePath, 2200, 2299, maxTestLength);
+    System.out.println("Train trees: " + trainTrees.size() + ", test trees: " + testTrees.size());
+
+    CoarseToFineParser coarseToFine = new CoarseToFineParser(trainTrees, threshold);
+    Parser exhaustive = coarseToFine.m_Fine;
+
+    long exhaustiveNanos = System.nanoTime();
+    double exhaustiveF1 = evaluate(exhaustive, testTrees);
+    exhaustiveNanos = System.nanoTime() - exhaustiveNanos;
+
+    long pruningNanos = System.nanoTime();
+    double pruningF1 = evaluate(coarseToFine, testTrees);
+    pruningNanos = System.nanoTime() - pruningNanos;
+
+    System.out.format("Exhaustive:     %8d millis  F1: %.2f\n", exhaustiveNanos / 1000000, 100 * exhaustiveF1);
+    System.out.format("Coarse-to-fine: %8d millis  F1: %.2f  (threshold %g)\n", pruningNanos / 1000000, 100 * pruningF1, threshold);
+    System.out.format("Speed-up: %.2fx  F1 delta: %+.2f\n", (double) exhaustiveNanos / pruningNanos, 100 * (pruningF1 - exhaustiveF1));
+    coarseToFine.printStats();
+  }
+
+  static double evaluate(Parser parser, List<Tree<String>> testTrees) {
+    EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval = new EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>(
+        Collections.singleton("ROOT"), new HashSet<String>(Arrays.asList(new String[] { "''", "``", ".", ":", "," })));
+    for (Tree<String> testTree : testTrees) {
+      eval.evaluateF1(parser.getBestParse(testTree.getYield()), testTree);
+    }
+    return eval.getF1();
+  }
+
+  static List<Tree<String>> readTrees(String basePath, int low, int high, int maxLength) {
+    Collection<Tree<String>> trees = PennTreebankReader.readTrees(basePath, low, high);
+    Trees.TreeTransformer<String> treeTransformer = new Trees.StandardTreeNormalizer();
+    List<Tree<String>> normalizedTreeList = new ArrayList<Tree<String>>();
+    for (Tree<String> tree : trees) {
+      Tree<String> normalizedTree = treeTransformer.transformTree(tree);
+      if (normalizedTree.getYield().size() > maxLength) continue;
+      normalizedTreeList.add(normalizedTree);
+    }
+    return normalizedTreeList;
   }
 }
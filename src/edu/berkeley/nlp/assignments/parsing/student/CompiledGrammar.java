@@ -0,0 +1,245 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.berkeley.nlp.assignments.parsing.*;
+import edu.berkeley.nlp.util.Indexer;
+
+/**
+ * Primitive-array view of a Grammar and its UnaryClosure for the CKY inner loops.
+ *
+ * Binary rules are numbered by parent, keeping the order of
+ * Grammar.getBinaryRulesByParent, and stored as parallel parent/left/right/score
+ * arrays; the rules of parent P are [m_ParentOffsets[P], m_ParentOffsets[P+1]).
+ * The same rules are also copied grouped by left child and by right child, each
+ * copy keeping the number of the rule it came from. Closed unary rules are
+ * numbered by parent in the order of UnaryClosure.getClosedUnaryRulesByParent,
+ * with their full parent-to-child path.
+ */
+public class CompiledGrammar {
+
+    final Indexer<String>   m_Indexer;
+    final int               m_NumTags;
+
+    // Binary rules by parent
+    int[]                   m_ParentOffsets;
+    int[]                   m_BinaryParent;
+    int[]                   m_BinaryLeft;
+    int[]                   m_BinaryRight;
+    double[]                m_BinaryScore;
+
+    // Binary rules by left child: right child, parent, rule number and score
+    int[]                   m_LeftOffsets;
+    int[]                   m_LeftRight;
+    int[]                   m_LeftParent;
+    int[]                   m_LeftRule;
+    double[]                m_LeftScore;
+
+    // Binary rules by right child: left child, parent, rule number and score
+    int[]                   m_RightOffsets;
+    int[]                   m_RightLeft;
+    int[]                   m_RightParent;
+    int[]                   m_RightRule;
+    double[]                m_RightScore;
+
+    // Closed unary rules by parent
+    int[]                   m_UnaryOffsets;
+    int[]                   m_UnaryParent;
+    int[]                   m_UnaryChild;
+    double[]                m_UnaryScore;
+    int[][]                 m_UnaryPaths;       // Labels from parent to child, {parent} for the reflexive rule
+
+    // Closed unary rules by child, as numbers of the rules above
+    int[]                   m_UnaryChildOffsets;
+    int[]                   m_UnaryByChild;
+
+    public CompiledGrammar(Grammar grammar, UnaryClosure closure) {
+        m_Indexer = grammar.getLabelIndexer();
+        m_NumTags = m_Indexer.size();
+        compileBinaryRules(grammar);
+        compileUnaryRules(closure);
+        indexBinaryRules();
+        indexUnaryRules();
+    }
+
+    /**
+     * Rebuilds the tables from the rules by parent, as stored in a ModelFile:
+     * the parent arrays and the copies by child are derived from them.
+     */
+    CompiledGrammar(Indexer<String> indexer,
+                    int[] parentOffsets, int[] binaryLeft, int[] binaryRight, double[] binaryScore,
+                    int[] unaryOffsets, int[] unaryChild, double[] unaryScore, int[][] unaryPaths) {
+        m_Indexer       = indexer;
+        m_NumTags       = indexer.size();
+        m_ParentOffsets = parentOffsets;
+        m_BinaryParent  = parentsOf(parentOffsets);
+        m_BinaryLeft    = binaryLeft;
+        m_BinaryRight   = binaryRight;
+        m_BinaryScore   = binaryScore;
+        m_UnaryOffsets  = unaryOffsets;
+        m_UnaryParent   = parentsOf(unaryOffsets);
+        m_UnaryChild    = unaryChild;
+        m_UnaryScore    = unaryScore;
+        m_UnaryPaths    = unaryPaths;
+        indexBinaryRules();
+        indexUnaryRules();
+    }
+
+    /**
+     * Tables from binary rules already grouped by parent and the closure of
+     * the unary rules, as counted by GrammarTrainer.
+     */
+    CompiledGrammar(Indexer<String> indexer,
+                    int[] parentOffsets, int[] binaryLeft, int[] binaryRight, double[] binaryScore,
+                    UnaryClosure closure) {
+        checkBinaryRules(binaryScore.length);
+        m_Indexer       = indexer;
+        m_NumTags       = indexer.size();
+        m_ParentOffsets = parentOffsets;
+        m_BinaryParent  = parentsOf(parentOffsets);
+        m_BinaryLeft    = binaryLeft;
+        m_BinaryRight   = binaryRight;
+        m_BinaryScore   = binaryScore;
+        compileUnaryRules(closure);
+        indexBinaryRules();
+        indexUnaryRules();
+    }
+
+    static void checkBinaryRules(int numRules) {
+        if (numRules > (Integer.MAX_VALUE >>> CKYChart.SPLIT_BITS)) {
+            throw new IllegalArgumentException("Too many binary rules to pack in a backpointer: " + numRules);
+        }
+    }
+
+    void compileBinaryRules(Grammar grammar) {
+        int numRules = grammar.getBinaryRules().size();
+        checkBinaryRules(numRules);
+        m_ParentOffsets = new int[m_NumTags + 1];
+        m_BinaryParent  = new int[numRules];
+        m_BinaryLeft    = new int[numRules];
+        m_BinaryRight   = new int[numRules];
+        m_BinaryScore   = new double[numRules];
+        int r = 0;
+        for (int tagIdx = 0; tagIdx < m_NumTags; tagIdx++) {
+            m_ParentOffsets[tagIdx] = r;
+            for (BinaryRule binRule : grammar.getBinaryRulesByParent(tagIdx)) {
+                m_BinaryParent[r]   = tagIdx;
+                m_BinaryLeft[r]     = binRule.getLeftChild();
+                m_BinaryRight[r]    = binRule.getRightChild();
+                m_BinaryScore[r]    = binRule.getScore();
+                r++;
+            }
+        }
+        m_ParentOffsets[m_NumTags] = r;
+    }
+
+    // Copies of the binary rules grouped by left child and by right child
+    void indexBinaryRules() {
+        int numRules = m_BinaryScore.length;
+        int r;
+        m_LeftOffsets   = countOffsets(m_BinaryLeft);
+        m_LeftRight     = new int[numRules];
+        m_LeftParent    = new int[numRules];
+        m_LeftRule      = new int[numRules];
+        m_LeftScore     = new double[numRules];
+        int[] fill = Arrays.copyOf(m_LeftOffsets, m_NumTags);
+        for (r = 0; r < numRules; r++) {
+            int l = fill[m_BinaryLeft[r]]++;
+            m_LeftRight[l]  = m_BinaryRight[r];
+            m_LeftParent[l] = m_BinaryParent[r];
+            m_LeftRule[l]   = r;
+            m_LeftScore[l]  = m_BinaryScore[r];
+        }
+
+        m_RightOffsets  = countOffsets(m_BinaryRight);
+        m_RightLeft     = new int[numRules];
+        m_RightParent   = new int[numRules];
+        m_RightRule     = new int[numRules];
+        m_RightScore    = new double[numRules];
+        fill = Arrays.copyOf(m_RightOffsets, m_NumTags);
+        for (r = 0; r < numRules; r++) {
+            int l = fill[m_BinaryRight[r]]++;
+            m_RightLeft[l]      = m_BinaryLeft[r];
+            m_RightParent[l]    = m_BinaryParent[r];
+            m_RightRule[l]      = r;
+            m_RightScore[l]     = m_BinaryScore[r];
+        }
+    }
+
+    void compileUnaryRules(UnaryClosure closure) {
+        int numRules = 0;
+        for (int tagIdx = 0; tagIdx < m_NumTags; tagIdx++) {
+            numRules += closure.getClosedUnaryRulesByParent(tagIdx).size();
+        }
+        m_UnaryOffsets  = new int[m_NumTags + 1];
+        m_UnaryParent   = new int[numRules];
+        m_UnaryChild    = new int[numRules];
+        m_UnaryScore    = new double[numRules];
+        m_UnaryPaths    = new int[numRules][];
+        int u = 0;
+        for (int tagIdx = 0; tagIdx < m_NumTags; tagIdx++) {
+            m_UnaryOffsets[tagIdx] = u;
+            for (UnaryRule unaRule : closure.getClosedUnaryRulesByParent(tagIdx)) {
+                m_UnaryParent[u]    = tagIdx;
+                m_UnaryChild[u]     = unaRule.getChild();
+                m_UnaryScore[u]     = unaRule.getScore();
+                List<Integer> path  = closure.getPath(unaRule);
+                m_UnaryPaths[u]     = new int[path.size()];
+                for (int step = 0; step < path.size(); step++) {
+                    m_UnaryPaths[u][step] = path.get(step);
+                }
+                u++;
+            }
+        }
+        m_UnaryOffsets[m_NumTags] = u;
+    }
+
+    void indexUnaryRules() {
+        int numRules = m_UnaryScore.length;
+        int u;
+        m_UnaryChildOffsets = countOffsets(m_UnaryChild);
+        m_UnaryByChild      = new int[numRules];
+        int[] fill = Arrays.copyOf(m_UnaryChildOffsets, m_NumTags);
+        for (u = 0; u < numRules; u++) {
+            m_UnaryByChild[fill[m_UnaryChild[u]]++] = u;
+        }
+    }
+
+    // Key label of every rule, from the offsets of the groups
+    int[] parentsOf(int[] offsets) {
+        int[] parents = new int[offsets[m_NumTags]];
+        for (int tagIdx = 0; tagIdx < m_NumTags; tagIdx++) {
+            Arrays.fill(parents, offsets[tagIdx], offsets[tagIdx + 1], tagIdx);
+        }
+        return parents;
+    }
+
+    // Offsets of the groups of rules sharing the same key label
+    int[] countOffsets(int[] keys) {
+        int[] offsets = new int[m_NumTags + 1];
+        for (int key : keys) {
+            offsets[key + 1]++;
+        }
+        for (int tagIdx = 0; tagIdx < m_NumTags; tagIdx++) {
+            offsets[tagIdx + 1] += offsets[tagIdx];
+        }
+        return offsets;
+    }
+
+    public Indexer<String> getLabelIndexer() {
+        return m_Indexer;
+    }
+
+    public int getNumTags() {
+        return m_NumTags;
+    }
+
+    public int getNumBinaryRules() {
+        return m_BinaryScore.length;
+    }
+
+    public int getNumUnaryRules() {
+        return m_UnaryScore.length;
+    }
+}
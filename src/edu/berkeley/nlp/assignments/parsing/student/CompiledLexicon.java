@@ -0,0 +1,124 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.nlp.assignments.parsing.SimpleLexicon;
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.Indexer;
+
+/**
+ * Precomputed SimpleLexicon scores. Every training word gets a sparse vector of
+ * (tag, score) over the preterminal labels with a finite score; all the other
+ * labels score -Infinity. SimpleLexicon scores every unknown word the same way,
+ * so one shared vector serves all of them.
+ */
+public class CompiledLexicon {
+
+    final Map<String, Integer>  m_WordIds;
+    final int                   m_UnknownId;
+    int[]                       m_Offsets;      // Vector of word w in [m_Offsets[w], m_Offsets[w+1])
+    int[]                       m_Tags;
+    double[]                    m_Scores;
+
+    public CompiledLexicon(SimpleLexicon lexicon, List<Tree<String>> trainTrees, Indexer<String> indexer) {
+        m_WordIds = new HashMap<String, Integer>();
+        for (Tree<String> tree : trainTrees) {
+            for (String word : tree.getYield()) {
+                if (!m_WordIds.containsKey(word)) {
+                    m_WordIds.put(word, m_WordIds.size());
+                }
+            }
+        }
+        m_UnknownId = m_WordIds.size();
+
+        int[] tagIdxs = new int[lexicon.getAllTags().size()];
+        int numTags = 0;
+        for (String tag : lexicon.getAllTags()) {
+            tagIdxs[numTags++] = indexer.indexOf(tag);
+        }
+        Arrays.sort(tagIdxs);
+
+        String[] words = new String[m_UnknownId + 1];
+        for (Map.Entry<String, Integer> entry : m_WordIds.entrySet()) {
+            words[entry.getValue()] = entry.getKey();
+        }
+        words[m_UnknownId] = unknownWord(lexicon);
+
+        m_Offsets = new int[words.length + 1];
+        int[] tags = new int[words.length * 4];
+        double[] scores = new double[tags.length];
+        int size = 0;
+        for (int wordId = 0; wordId < words.length; wordId++) {
+            m_Offsets[wordId] = size;
+            for (int tagIdx : tagIdxs) {
+                double s = lexicon.scoreTagging(words[wordId], indexer.get(tagIdx));
+                if (Double.isNaN(s) || s == Double.NEGATIVE_INFINITY)
+                    continue;
+                if (size == tags.length) {
+                    tags = Arrays.copyOf(tags, 2 * size);
+                    scores = Arrays.copyOf(scores, 2 * size);
+                }
+                tags[size] = tagIdx;
+                scores[size] = s;
+                size++;
+            }
+        }
+        m_Offsets[words.length] = size;
+        m_Tags = Arrays.copyOf(tags, size);
+        m_Scores = Arrays.copyOf(scores, size);
+    }
+
+    /** Tables as stored in a ModelFile, words[w] is the word with id w */
+    CompiledLexicon(String[] words, int[] offsets, int[] tags, double[] scores) {
+        m_WordIds = new HashMap<String, Integer>(2 * words.length);
+        for (int wordId = 0; wordId < words.length; wordId++) {
+            m_WordIds.put(words[wordId], wordId);
+        }
+        m_UnknownId = words.length;
+        m_Offsets   = offsets;
+        m_Tags      = tags;
+        m_Scores    = scores;
+    }
+
+    /** The known words by id */
+    String[] words() {
+        String[] words = new String[m_UnknownId];
+        for (Map.Entry<String, Integer> entry : m_WordIds.entrySet()) {
+            words[entry.getValue()] = entry.getKey();
+        }
+        return words;
+    }
+
+    // Any word the lexicon has not seen stands for all unknown words
+    static String unknownWord(SimpleLexicon lexicon) {
+        String word = "<UNK>";
+        while (lexicon.isKnown(word)) {
+            word = "<" + word + ">";
+        }
+        return word;
+    }
+
+    public int wordId(String word) {
+        Integer wordId = m_WordIds.get(word);
+        return wordId == null ? m_UnknownId : wordId;
+    }
+
+    /**
+     * Writes the scores of the word into scores[offset + tag]. Only the tags of
+     * the word are written, the other entries are left as they are (-Infinity
+     * in a freshly reset chart).
+     */
+    public void fill(String word, double[] scores, int offset) {
+        int wordId = wordId(word);
+        for (int i = m_Offsets[wordId], iEnd = m_Offsets[wordId + 1]; i < iEnd; i++) {
+            scores[offset + m_Tags[i]] = m_Scores[i];
+        }
+    }
+
+    public int getNumWords() {
+        return m_UnknownId;
+    }
+}
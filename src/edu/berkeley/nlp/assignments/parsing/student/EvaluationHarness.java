@@ -0,0 +1,450 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.berkeley.nlp.assignments.parsing.Parser;
+import edu.berkeley.nlp.assignments.parsing.ParserFactory;
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.parser.EnglishPennTreebankParseEvaluator;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * Trains every ParserFactory of a list on the same trees and parses the test
+ * sentences with each on a pool of threads, then scores the trees in the order
+ * of the test set, so the accuracy does not depend on the threads. Reports, by
+ * sentence length bucket and over all sentences: labeled P/R/F1 and exact
+ * match (as PCFGParserTester), sentences per second, mean, p95 and p99
+ * latency, the largest chart a sentence needed (CKYChart.sizeInBytes, for the
+ * parsers built on CKYParser) and the mean heap allocated per sentence. The
+ * same figures are written as JSON for scripts that gate on them.
+ *
+ * Flags: -path, -maxTrainLength (1000), -maxTestLength (40), -test (validation
+ * section 22 by default, test section 23 with -test), -threads (available
+ * processors), -buckets 10,20,30,40 (upper lengths), -json FILE (or stdout,
+ * the tables and progress lines then go to stderr), -warmup (parse the test
+ * set once untimed first),
+ * -factories GenerativeParserFactory,CoarseToFineParserFactory,...
+ * A factory name without a package is one of this package; a name ending in
+ * :serial is parsed on one thread, for parsers that cannot be shared.
+ */
+public class EvaluationHarness {
+
+    static final String DEFAULT_FACTORIES =
+            "GenerativeParserFactory,GenerativeParserFactoryDrive,CoarseToFineParserFactory";
+
+    // -json value for standard output (the flag parser drops values starting with -)
+    static final String STDOUT = "stdout";
+
+    /** Counts and timings of the sentences of one length range */
+    public static class Bucket {
+        final int           m_Low;
+        final int           m_High;
+        int                 m_Sentences;
+        long                m_Words;
+        long                m_Correct;
+        long                m_Guessed;
+        long                m_Gold;
+        int                 m_Exact;
+        long[]              m_Nanos = new long[16];
+        long                m_PeakChartBytes;
+        long                m_AllocatedBytes;
+
+        Bucket(int low, int high) {
+            m_Low   = low;
+            m_High  = high;
+        }
+
+        void add(Sentence sentence, int correct, int guessed, int gold) {
+            if (m_Sentences == m_Nanos.length) {
+                m_Nanos = Arrays.copyOf(m_Nanos, 2 * m_Nanos.length);
+            }
+            m_Nanos[m_Sentences++] = sentence.m_Nanos;
+            m_Words             += sentence.m_Length;
+            m_Correct           += correct;
+            m_Guessed           += guessed;
+            m_Gold              += gold;
+            if (correct == guessed && correct == gold) m_Exact++;
+            m_PeakChartBytes    = Math.max(m_PeakChartBytes, sentence.m_ChartBytes);
+            m_AllocatedBytes    += sentence.m_AllocatedBytes;
+        }
+
+        public double getPrecision() {
+            return m_Guessed > 0 ? (double) m_Correct / m_Guessed : 1.0;
+        }
+
+        public double getRecall() {
+            return m_Gold > 0 ? (double) m_Correct / m_Gold : 1.0;
+        }
+
+        /** Same formula as LabeledConstituentEval */
+        public double getF1() {
+            double precision = getPrecision(), recall = getRecall();
+            return precision > 0.0 && recall > 0.0 ? 2.0 / (1.0 / precision + 1.0 / recall) : 0.0;
+        }
+
+        public double getExact() {
+            return m_Sentences > 0 ? (double) m_Exact / m_Sentences : 0.0;
+        }
+
+        public double getMeanMillis() {
+            long total = 0;
+            for (int idx = 0; idx < m_Sentences; idx++) {
+                total += m_Nanos[idx];
+            }
+            return m_Sentences > 0 ? total / 1e6 / m_Sentences : 0.0;
+        }
+
+        /** The p-th percentile (0-100) of the latencies, nearest rank */
+        public double getPercentileMillis(double p) {
+            if (m_Sentences == 0) return 0.0;
+            long[] sorted = Arrays.copyOf(m_Nanos, m_Sentences);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+            return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))] / 1e6;
+        }
+
+        // Rate of one thread parsing these sentences back to back, times the threads
+        double getSentencesPerSecond(int threads) {
+            double mean = getMeanMillis();
+            return mean > 0 ? threads * 1000 / mean : 0.0;
+        }
+
+        String range() {
+            if (m_High < Integer.MAX_VALUE) return m_Low + "-" + m_High;
+            return m_Low == 1 ? "all" : m_Low + "+";
+        }
+    }
+
+    /** Figures of one factory */
+    public static class Result {
+        final String        m_Name;
+        final int           m_Threads;
+        long                m_TrainNanos;
+        long                m_WallNanos;
+        double              m_EvalF1;       // From LabeledConstituentEval, as a check of m_Total
+        final Bucket        m_Total = new Bucket(1, Integer.MAX_VALUE);
+        final List<Bucket>  m_Buckets = new ArrayList<Bucket>();
+
+        Result(String name, int threads, int[] buckets) {
+            m_Name      = name;
+            m_Threads   = threads;
+            int low = 1;
+            for (int high : buckets) {
+                m_Buckets.add(new Bucket(low, high));
+                low = high + 1;
+            }
+            m_Buckets.add(new Bucket(low, Integer.MAX_VALUE));
+        }
+
+        Bucket bucket(int length) {
+            for (Bucket bucket : m_Buckets) {
+                if (length <= bucket.m_High) return bucket;
+            }
+            throw new IllegalStateException("No bucket for " + length);
+        }
+
+        public Bucket getTotal() {
+            return m_Total;
+        }
+
+        public double getSentencesPerSecond() {
+            return m_WallNanos > 0 ? m_Total.m_Sentences * 1e9 / m_WallNanos : 0.0;
+        }
+
+        public void print(PrintStream out) {
+            out.format("%s: trained in %.1f s, %d sentences in %.1f s on %d threads, %.1f sentences/s, F1 %.2f\n",
+                    m_Name, m_TrainNanos / 1e9, m_Total.m_Sentences, m_WallNanos / 1e9, m_Threads,
+                    getSentencesPerSecond(), 100 * m_EvalF1);
+            out.format("  %7s %6s  %6s %6s %6s %6s  %8s %8s %8s %8s  %9s %9s\n", "length", "sents", "P", "R", "F1",
+                    "EX", "sent/s", "mean ms", "p95 ms", "p99 ms", "chart KB", "alloc KB");
+            for (Bucket bucket : m_Buckets) {
+                if (bucket.m_Sentences > 0) printBucket(out, bucket, bucket.getSentencesPerSecond(m_Threads));
+            }
+            printBucket(out, m_Total, getSentencesPerSecond());
+        }
+
+        void printBucket(PrintStream out, Bucket bucket, double sentencesPerSecond) {
+            out.format("  %7s %6d  %6.2f %6.2f %6.2f %6.2f  %8.1f %8.2f %8.2f %8.2f  %9d %9d\n", bucket.range(),
+                    bucket.m_Sentences, 100 * bucket.getPrecision(), 100 * bucket.getRecall(), 100 * bucket.getF1(),
+                    100 * bucket.getExact(), sentencesPerSecond, bucket.getMeanMillis(),
+                    bucket.getPercentileMillis(95), bucket.getPercentileMillis(99), bucket.m_PeakChartBytes / 1024,
+                    bucket.m_AllocatedBytes / Math.max(1, bucket.m_Sentences) / 1024);
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append(String.format(Locale.ROOT,
+                    "{\"factory\": \"%s\", \"threads\": %d, \"trainSeconds\": %.3f, \"wallSeconds\": %.3f, " +
+                    "\"sentencesPerSecond\": %.3f, \"total\": ",
+                    m_Name, m_Threads, m_TrainNanos / 1e9, m_WallNanos / 1e9, getSentencesPerSecond()));
+            appendJson(json, m_Total, getSentencesPerSecond());
+            json.append(", \"buckets\": [");
+            String separator = "";
+            for (Bucket bucket : m_Buckets) {
+                if (bucket.m_Sentences == 0) continue;
+                json.append(separator);
+                appendJson(json, bucket, bucket.getSentencesPerSecond(m_Threads));
+                separator = ", ";
+            }
+            return json.append("]}").toString();
+        }
+
+        void appendJson(StringBuilder json, Bucket bucket, double sentencesPerSecond) {
+            json.append(String.format(Locale.ROOT,
+                    "{\"minLength\": %d, \"maxLength\": %s, \"sentences\": %d, \"words\": %d, " +
+                    "\"precision\": %.4f, \"recall\": %.4f, \"f1\": %.4f, \"exact\": %.4f, " +
+                    "\"sentencesPerSecond\": %.3f, \"meanMillis\": %.4f, \"p95Millis\": %.4f, \"p99Millis\": %.4f, " +
+                    "\"peakChartBytes\": %d, \"allocatedBytesPerSentence\": %d}",
+                    bucket.m_Low, bucket.m_High == Integer.MAX_VALUE ? "null" : "" + bucket.m_High,
+                    bucket.m_Sentences, bucket.m_Words, bucket.getPrecision(), bucket.getRecall(), bucket.getF1(),
+                    bucket.getExact(), sentencesPerSecond, bucket.getMeanMillis(), bucket.getPercentileMillis(95),
+                    bucket.getPercentileMillis(99), bucket.m_PeakChartBytes,
+                    bucket.m_AllocatedBytes / Math.max(1, bucket.m_Sentences)));
+        }
+    }
+
+    // One parsed sentence, written by the thread that parsed it
+    static class Sentence {
+        int             m_Length;
+        Tree<String>    m_Tree;
+        long            m_Nanos;
+        long            m_ChartBytes;
+        long            m_AllocatedBytes;
+    }
+
+    // Largest chart needed by the sentence being parsed on each thread
+    static final ThreadLocal<long[]> CHART_BYTES = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    /**
+     * Trains the factory on the training trees and evaluates its parser on
+     * the test trees with the given number of threads. With warmUp the test
+     * sentences are parsed once more beforehand, untimed, to compile the code.
+     */
+    public static Result evaluate(String name, ParserFactory factory, List<Tree<String>> trainTrees,
+                                  final List<Tree<String>> testTrees, int threads, int[] buckets, boolean warmUp) {
+        Result result = new Result(name, threads, buckets);
+        long nanos = System.nanoTime();
+        final Parser parser = factory.getParser(trainTrees);
+        result.m_TrainNanos = System.nanoTime() - nanos;
+
+        List<CKYParser> chartParsers = new ArrayList<CKYParser>();
+        List<ParseListener> listeners = new ArrayList<ParseListener>();
+        collectChartParsers(parser, chartParsers);
+        for (final CKYParser chartParser : chartParsers) {
+            ParseListener listener = new ParseListener() {
+                public void sentenceParsed(ParseStats stats) {
+                    long[] bytes = CHART_BYTES.get();
+                    bytes[0] = Math.max(bytes[0], CKYChart.sizeInBytes(chartParser.m_NumTags, stats.getSentenceLength(), false));
+                }
+            };
+            chartParser.addListener(listener);
+            listeners.add(listener);
+        }
+
+        final List<List<String>> sentences = new ArrayList<List<String>>(testTrees.size());
+        for (Tree<String> tree : testTrees) {
+            sentences.add(tree.getYield());
+        }
+        final Sentence[] parsed = new Sentence[sentences.size()];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int pass = warmUp ? 0 : 1; pass < 2; pass++) {
+                nanos = System.nanoTime();
+                List<Future<?>> futures = new ArrayList<Future<?>>(sentences.size());
+                for (final Integer idx : BatchParser.longestFirst(sentences)) {
+                    futures.add(pool.submit(new Callable<Object>() {
+                        public Object call() {
+                            parsed[idx] = parse(parser, sentences.get(idx));
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                result.m_WallNanos = System.nanoTime() - nanos;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Parsing failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            for (int idx = 0; idx < chartParsers.size(); idx++) {
+                chartParsers.get(idx).removeListener(listeners.get(idx));
+            }
+        }
+
+        // Scored in the order of the test set
+        EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval = new EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>(
+                Collections.singleton("ROOT"), new HashSet<String>(Arrays.asList(new String[] { "''", "``", ".", ":", "," })));
+        for (int idx = 0; idx < testTrees.size(); idx++) {
+            Tree<String> guess = parsed[idx].m_Tree;
+            Tree<String> gold = testTrees.get(idx);
+            eval.evaluateF1(guess, gold);
+            Set<?> guessed = eval.makeObjects(guess);
+            Set<?> golds = eval.makeObjects(gold);
+            int correct = 0;
+            for (Object constituent : guessed) {
+                if (golds.contains(constituent)) correct++;
+            }
+            result.bucket(parsed[idx].m_Length).add(parsed[idx], correct, guessed.size(), golds.size());
+            result.m_Total.add(parsed[idx], correct, guessed.size(), golds.size());
+        }
+        result.m_EvalF1 = eval.getF1();
+        return result;
+    }
+
+    static Sentence parse(Parser parser, List<String> words) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = threadBean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemoryEnabled() ?
+                (com.sun.management.ThreadMXBean) threadBean : null;
+        long[] chartBytes = CHART_BYTES.get();
+        chartBytes[0] = 0;
+        Sentence sentence = new Sentence();
+        sentence.m_Length = words.size();
+        long allocated = allocations != null ? allocations.getCurrentThreadAllocatedBytes() : 0;
+        long start = System.nanoTime();
+        sentence.m_Tree = parser.getBestParse(words);
+        sentence.m_Nanos = System.nanoTime() - start;
+        sentence.m_AllocatedBytes = allocations != null ? allocations.getCurrentThreadAllocatedBytes() - allocated : 0;
+        sentence.m_ChartBytes = chartBytes[0];
+        return sentence;
+    }
+
+    // The CKYParsers a parser fills its charts with
+    static void collectChartParsers(Parser parser, List<CKYParser> chartParsers) {
+        if (parser instanceof CKYParser) {
+            chartParsers.add((CKYParser) parser);
+        } else if (parser instanceof CoarseToFineParser) {
+            chartParsers.add(((CoarseToFineParser) parser).m_Fine);
+        } else if (parser instanceof CachingParser) {
+            collectChartParsers(((CachingParser) parser).getParser(), chartParsers);
+        } else if (parser instanceof SegmentingParser) {
+            collectChartParsers(((SegmentingParser) parser).getParser(), chartParsers);
+        }
+    }
+
+    public static ParserFactory newFactory(String className) {
+        String qualified = className.indexOf('.') < 0 ?
+                EvaluationHarness.class.getPackage().getName() + "." + className : className;
+        try {
+            return (ParserFactory) Class.forName(qualified).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot create parser factory " + qualified, e);
+        }
+    }
+
+    /**
+     * Evaluates the factories of the comma separated list in turn, see the
+     * class comment for the :serial suffix.
+     */
+    public static List<Result> evaluateAll(String factories, List<Tree<String>> trainTrees,
+                                           List<Tree<String>> testTrees, int threads, int[] buckets, boolean warmUp) {
+        List<Result> results = new ArrayList<Result>();
+        for (String entry : factories.split(",")) {
+            String name = entry.trim();
+            boolean serial = name.endsWith(":serial");
+            if (serial) name = name.substring(0, name.length() - ":serial".length());
+            Result result = evaluate(name, newFactory(name), trainTrees, testTrees, serial ? 1 : threads, buckets, warmUp);
+            result.print(System.out);
+            results.add(result);
+        }
+        return results;
+    }
+
+    public static String toJson(List<Result> results) {
+        StringBuilder json = new StringBuilder("{\"results\": [\n");
+        for (int idx = 0; idx < results.size(); idx++) {
+            json.append("  ").append(results.get(idx).toJson()).append(idx + 1 < results.size() ? ",\n" : "\n");
+        }
+        return json.append("]}\n").toString();
+    }
+
+    /** Writes the JSON to the file, or to System.out for STDOUT */
+    public static void writeJson(List<Result> results, String path) throws IOException {
+        if (path.equals(STDOUT)) {
+            writeJson(results, System.out);
+            return;
+        }
+        Writer writer = new FileWriter(path);
+        try {
+            writer.write(toJson(results));
+        } finally {
+            writer.close();
+        }
+    }
+
+    public static void writeJson(List<Result> results, PrintStream out) {
+        out.print(toJson(results));
+        out.flush();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        String basePath = CommandLineUtils.getValueOrUseDefault(argMap, "-path", ".");
+        int maxTrainLength = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-maxTrainLength", "1000"));
+        int maxTestLength = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-maxTestLength", "40"));
+        int threads = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-threads",
+                "" + Runtime.getRuntime().availableProcessors()));
+        int[] buckets = parseInts(CommandLineUtils.getValueOrUseDefault(argMap, "-buckets", "10,20,30,40"));
+        String factories = CommandLineUtils.getValueOrUseDefault(argMap, "-factories", DEFAULT_FACTORIES);
+        String json = argMap.get("-json");
+        if (argMap.containsKey("-json") && json == null) {
+            throw new IllegalArgumentException("-json needs a file name, or " + STDOUT);
+        }
+
+        // Only the JSON goes to stdout then, the parsers print progress on System.out
+        PrintStream stdout = System.out;
+        if (STDOUT.equals(json)) {
+            System.setOut(System.err);
+        }
+
+        List<Tree<String>> trainTrees = CoarseToFineParserFactory.readTrees(basePath, 200, 2199, maxTrainLength);
+        List<Tree<String>> testTrees = argMap.containsKey("-test") ?
+                CoarseToFineParserFactory.readTrees(basePath, 2300, 2399, maxTestLength) :
+                CoarseToFineParserFactory.readTrees(basePath, 2200, 2299, maxTestLength);
+        System.out.println("Train trees: " + trainTrees.size() + ", test trees: " + testTrees.size());
+
+        List<Result> results = evaluateAll(factories, trainTrees, testTrees, threads, buckets, argMap.containsKey("-warmup"));
+        if (STDOUT.equals(json)) {
+            writeJson(results, stdout);
+        } else if (json != null) {
+            writeJson(results, json);
+        }
+    }
+
+    static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int idx = 0; idx < parts.length; idx++) {
+            values[idx] = Integer.parseInt(parts[idx].trim());
+        }
+        return values;
+    }
+}
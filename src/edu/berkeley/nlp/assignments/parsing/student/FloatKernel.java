@@ -0,0 +1,244 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.List;
+
+import edu.berkeley.nlp.ling.Tree;
+
+/**
+ * Viterbi chart fill with float scores, half the memory traffic of the double
+ * chart of CKYParser. The charts have float scores (see CKYChart) and the same
+ * backpointers, so the trees are decoded by ViterbiDecoder.
+ *
+ * This class is the scalar kernel, the same left-child driven loops as
+ * CKYParser. VectorFloatKernel fills the binary layer with the Vector API. It
+ * lives in its own source root (vector/), built only when the JDK has
+ * jdk.incubator.vector, and create() falls back to the scalar kernel when the
+ * class is missing or the module is not in the JVM (run with --add-modules
+ * jdk.incubator.vector).
+ *
+ * Float rounding can break or create ties, so the trees may differ from the
+ * double path where two derivations score within about 1e-5 of each other.
+ */
+public class FloatKernel {
+
+    static final String VECTOR_KERNEL = "edu.berkeley.nlp.assignments.parsing.student.VectorFloatKernel";
+
+    final CompiledGrammar   m_Compiled;
+    final CompiledLexicon   m_Lexical;
+    final int               m_NumTags;
+    final float[]           m_LeftScore;        // CompiledGrammar.m_LeftScore
+    final float[]           m_UnaryScore;       // CompiledGrammar.m_UnaryScore
+    final float[]           m_LexicalScore;     // CompiledLexicon.m_Scores
+
+    // Per-thread chart with float scores
+    final ThreadLocal<CKYChart> m_Charts = new ThreadLocal<CKYChart>() {
+        @Override
+        protected CKYChart initialValue() {
+            return new CKYChart(m_NumTags, true);
+        }
+    };
+
+    FloatKernel(CompiledGrammar compiled, CompiledLexicon lexical) {
+        m_Compiled      = compiled;
+        m_Lexical       = lexical;
+        m_NumTags       = compiled.getNumTags();
+        m_LeftScore     = toFloats(compiled.m_LeftScore);
+        m_UnaryScore    = toFloats(compiled.m_UnaryScore);
+        m_LexicalScore  = toFloats(lexical.m_Scores);
+    }
+
+    /**
+     * The vector kernel if asked for and the Vector API is available, the
+     * scalar kernel otherwise; isVectorized tells which one it is.
+     */
+    public static FloatKernel create(CompiledGrammar compiled, CompiledLexicon lexical, boolean vector) {
+        if (vector) {
+            try {
+                return (FloatKernel) Class.forName(VECTOR_KERNEL)
+                        .getDeclaredConstructor(CompiledGrammar.class, CompiledLexicon.class)
+                        .newInstance(compiled, lexical);
+            } catch (LinkageError | ReflectiveOperationException e) {
+                // Not built or the module is not in the JVM
+            }
+        }
+        return new FloatKernel(compiled, lexical);
+    }
+
+    static float[] toFloats(double[] scores) {
+        float[] floats = new float[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            floats[i] = (float) scores[i];
+        }
+        return floats;
+    }
+
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /** Scores evaluated at once by the binary layer */
+    public int getLanes() {
+        return 1;
+    }
+
+    /**
+     * Fills the chart of the calling thread for the sentence, only the items
+     * allowed by the mask (every item when null). Returns the chart, whose ROOT
+     * score over the sentence is -Infinity when there is no parse.
+     */
+    public CKYChart fill(List<String> sentence, ChartMask mask) {
+        CKYChart chart = m_Charts.get();
+        chart.reset(sentence);
+        int sentLen = sentence.size();
+        for (int start = 0; start < sentLen; start++) {
+            int wordId = m_Lexical.wordId(sentence.get(start));
+            int cell = chart.offset(start, start + 1);
+            for (int i = m_Lexical.m_Offsets[wordId], iEnd = m_Lexical.m_Offsets[wordId + 1]; i < iEnd; i++) {
+                chart.m_BinaryFloats[cell + m_Lexical.m_Tags[i]] = m_LexicalScore[i];
+            }
+        }
+        for (int length = 1; length <= sentLen; length++) {
+            for (int start = 0; start + length <= sentLen; start++) {
+                fillCell(chart, start, start + length, mask);
+            }
+        }
+        return chart;
+    }
+
+    /** Fills the chart and decodes the annotated tree, null when there is no parse */
+    Tree<String> parse(List<String> sentence, ChartMask mask, ViterbiDecoder decoder, ParseStats stats) {
+        CKYChart chart = m_Charts.get();
+        chart.m_Timed = stats != null;
+        fill(sentence, mask);
+        if (stats != null) {
+            stats.addChart(chart);
+        }
+        if (chart.m_UnaryFloats[chart.offset(0, sentence.size())] == Float.NEGATIVE_INFINITY) {
+            return null;
+        }
+        long nanos = stats != null ? System.nanoTime() : 0;
+        Tree<String> ret = decoder.decode(chart, 0, 0, sentence.size());
+        if (stats != null) {
+            stats.m_DecodeNanos += System.nanoTime() - nanos;
+        }
+        return ret;
+    }
+
+    void fillCell(CKYChart chart, int start, int end, ChartMask mask) {
+        int cellIdx = CKYChart.cellIndex(start, end);
+        long[] cellStats = chart.m_CellStats;
+        int c = cellIdx * CKYChart.CELL_STATS;
+        long nanos = chart.m_Timed ? System.nanoTime() : 0;
+        cellStats[c + CKYChart.BINARY_ATTEMPTS] = 0;
+        cellStats[c + CKYChart.BINARY_IMPROVED] = 0;
+        if (end - start > 1) {
+            fillBinary(chart, start, end, mask);
+        }
+        if (chart.m_Timed) {
+            long now = System.nanoTime();
+            cellStats[c + CKYChart.BINARY_NANOS] = now - nanos;
+            nanos = now;
+        }
+        fillUnary(chart, cellIdx, mask);
+        if (chart.m_Timed) {
+            cellStats[c + CKYChart.UNARY_NANOS] = System.nanoTime() - nanos;
+        }
+
+        float[] unaryScores = chart.m_UnaryFloats;
+        int[] liveLabels    = chart.m_LiveLabels;
+        int cell = cellIdx * m_NumTags;
+        int numLive = 0;
+        for (int tagIdx = 0; tagIdx < m_NumTags; ++tagIdx) {
+            if (unaryScores[cell + tagIdx] != Float.NEGATIVE_INFINITY)
+                liveLabels[cell + numLive++] = tagIdx;
+        }
+        chart.m_LiveCounts[cellIdx] = numLive;
+    }
+
+    /** ChartKernel.fillBinary (VITERBI) over float scores */
+    void fillBinary(CKYChart chart, int start, int end, ChartMask mask) {
+        float[] binaryScores    = chart.m_BinaryFloats;
+        float[] unaryScores     = chart.m_UnaryFloats;
+        int[] binaryBack        = chart.m_BinaryBack;
+        int[] liveLabels        = chart.m_LiveLabels;
+        int[] liveCounts        = chart.m_LiveCounts;
+        int[] leftOffsets       = m_Compiled.m_LeftOffsets;
+        int[] leftRight         = m_Compiled.m_LeftRight;
+        int[] leftParent        = m_Compiled.m_LeftParent;
+        int[] leftRule          = m_Compiled.m_LeftRule;
+        float[] leftRuleScore   = m_LeftScore;
+        int cellIdx = CKYChart.cellIndex(start, end);
+        int cell = cellIdx * m_NumTags;
+        long attempts = 0, improved = 0;
+
+        for (int split = start+1; split < end; ++split) {
+            int leftCellIdx = CKYChart.cellIndex(start, split);
+            int rightCellIdx = CKYChart.cellIndex(split, end);
+            if (liveCounts[leftCellIdx] == 0 || liveCounts[rightCellIdx] == 0)
+                continue;
+            int leftCell = leftCellIdx * m_NumTags;
+            int rightCell = rightCellIdx * m_NumTags;
+            for (int live = leftCell, liveEnd = leftCell + liveCounts[leftCellIdx]; live < liveEnd; ++live) {
+                int leftIdx = liveLabels[live];
+                float leftScore = unaryScores[leftCell + leftIdx];
+                for (int r = leftOffsets[leftIdx], rEnd = leftOffsets[leftIdx+1]; r < rEnd; ++r) {
+                    float rightScore = unaryScores[rightCell + leftRight[r]];
+                    if (rightScore == Float.NEGATIVE_INFINITY)
+                        continue;
+                    if (mask != null && !mask.allows(cellIdx, leftParent[r]))
+                        continue;
+                    float ruleScore = leftRuleScore[r] + leftScore + rightScore;
+                    int parent = cell + leftParent[r];
+                    int packed = CKYChart.packBinary(leftRule[r], split);
+                    attempts++;
+                    if (ruleScore > binaryScores[parent] ||
+                            (ruleScore == binaryScores[parent] && packed < binaryBack[parent])) {
+                        binaryScores[parent] = ruleScore;
+                        binaryBack[parent] = packed;
+                        improved++;
+                    }
+                }
+            }
+        }
+        int c = cellIdx * CKYChart.CELL_STATS;
+        chart.m_CellStats[c + CKYChart.BINARY_ATTEMPTS] = attempts;
+        chart.m_CellStats[c + CKYChart.BINARY_IMPROVED] = improved;
+    }
+
+    /** ChartKernel.fillUnary (VITERBI) over float scores */
+    void fillUnary(CKYChart chart, int cellIdx, ChartMask mask) {
+        float[] binaryScores    = chart.m_BinaryFloats;
+        float[] unaryScores     = chart.m_UnaryFloats;
+        int[] unaryBack         = chart.m_UnaryBack;
+        int[] childOffsets      = m_Compiled.m_UnaryChildOffsets;
+        int[] unaryByChild      = m_Compiled.m_UnaryByChild;
+        int[] unaryParent       = m_Compiled.m_UnaryParent;
+        float[] unaryRuleScore  = m_UnaryScore;
+        int cell = cellIdx * m_NumTags;
+        long attempts = 0, improved = 0;
+
+        for (int childIdx = 0; childIdx < m_NumTags; ++childIdx) {
+            float childScore = binaryScores[cell + childIdx];
+            if (childScore == Float.NEGATIVE_INFINITY)
+                continue;
+            for (int c = childOffsets[childIdx], cEnd = childOffsets[childIdx+1]; c < cEnd; ++c) {
+                int u = unaryByChild[c];
+                int parentIdx = unaryParent[u];
+                if (mask != null && !mask.allows(cellIdx, parentIdx))
+                    continue;
+                float ruleScore = unaryRuleScore[u] + childScore;
+                int parent = cell + parentIdx;
+                attempts++;
+                if (ruleScore > unaryScores[parent] ||
+                        (ruleScore == unaryScores[parent] && u < unaryBack[parent])) {
+                    unaryScores[parent] = ruleScore;
+                    unaryBack[parent] = u;
+                    improved++;
+                }
+            }
+        }
+        int c = cellIdx * CKYChart.CELL_STATS;
+        chart.m_CellStats[c + CKYChart.UNARY_ATTEMPTS] = attempts;
+        chart.m_CellStats[c + CKYChart.UNARY_IMPROVED] = improved;
+    }
+}
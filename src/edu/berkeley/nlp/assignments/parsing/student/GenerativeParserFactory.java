@@ -1,5 +1,7 @@
 package edu.berkeley.nlp.assignments.parsing.student;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
 import edu.berkeley.nlp.assignments.parsing.Parser;
@@ -8,10 +10,102 @@ import edu.berkeley.nlp.ling.Tree;
 import edu.berkeley.nlp.assignments.parsing.student.CKYParser;
 
 
+/**
+ * With -Dcky.model=FILE the parser is read from that ModelFile when it exists
+ * and was trained on the same trees with the same -Dcky.markov and
+ * -Dcky.minRuleCount (see ModelFile.trainingConfig), otherwise
+ * it is trained and the model is written there for the next run.
+ * With -Dcky.floatKernel=vector (or scalar) the charts have float scores, see
+ * CKYParser.setFloatKernel. With -Dcky.trainThreads=N the tables are trained
+ * on N threads by GrammarTrainer, identical to the sequential ones.
+ * -Dcky.markov=h,v trains over MarkovAnnotator trees instead of the lossless
+ * binarization, and -Dcky.minRuleCount=N prunes the rules seen fewer than N
+ * times (GrammarTrainer.setMinRuleCount). With -Dcky.astar=true the parser is
+ * an AStarParser over the same tables. -Dcky.cache=MB keeps the trees of
+ * the parsed sentences in a CachingParser of that many megabytes, and
+ * -Dcky.spanCache=MB the cells of the spans of at least
+ * -Dcky.spanCacheMinLength words (3 by default), see CKYParser.setSpanCache.
+ * -Dcky.maxChartMB=MB cuts the sentences whose chart would not fit in that many
+ * megabytes into segments parsed apart (SegmentingParser).
+ */
 public class GenerativeParserFactory implements ParserFactory {
 	
 	public Parser getParser(List<Tree<String>> trainTrees) {
-		return new CKYParser(trainTrees);
+		CKYParser parser = buildParser(trainTrees);
+		String floatKernel = System.getProperty("cky.floatKernel");
+		if (floatKernel != null) {
+			boolean vector = floatKernel.equals("vector");
+			FloatKernel kernel = parser.setFloatKernel(vector);
+			if (vector && !kernel.isVectorized()) {
+				System.err.println("Vector API not available, using the scalar float kernel");
+			}
+		}
+		String spanCache = System.getProperty("cky.spanCache");
+		if (spanCache != null) {
+			parser.setSpanCache(Long.parseLong(spanCache) << 20, Integer.getInteger("cky.spanCacheMinLength", 3));
+		}
+		Parser ret = parser;
+		if (Boolean.getBoolean("cky.astar")) {
+			ret = new AStarParser(parser);
+		}
+		String maxChart = System.getProperty("cky.maxChartMB");
+		if (maxChart != null) {
+			ret = new SegmentingParser(ret, parser, Long.parseLong(maxChart) << 20);
+		}
+		String cache = System.getProperty("cky.cache");
+		if (cache != null) {
+			ret = new CachingParser(ret, Long.parseLong(cache) << 20);
+		}
+		return ret;
+	}
+
+	CKYParser buildParser(List<Tree<String>> trainTrees) {
+		String modelPath = System.getProperty("cky.model");
+		if (modelPath == null) {
+			return trainParser(trainTrees);
+		}
+		String config = trainingConfig(trainTrees);
+		try {
+			if (new File(modelPath).exists()) {
+				String modelConfig = ModelFile.readConfig(modelPath);
+				if (config.equals(modelConfig)) {
+					System.out.println("Reading CKYParser from " + modelPath);
+					return ModelFile.read(modelPath);
+				}
+				System.out.println("Model file " + modelPath + " was trained with " + modelConfig + ", retraining with " + config);
+			}
+			CKYParser parser = trainParser(trainTrees);
+			ModelFile.write(parser, config, modelPath);
+			return parser;
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot use model file " + modelPath, e);
+		}
+	}
+
+	// The ModelFile training configuration of the trees and the cky.markov and cky.minRuleCount properties
+	static String trainingConfig(List<Tree<String>> trainTrees) {
+		String markov = System.getProperty("cky.markov");
+		String minRuleCount = System.getProperty("cky.minRuleCount");
+		MarkovAnnotator annotator = markov == null ? new MarkovAnnotator(MarkovAnnotator.INFINITE, 1) :
+				MarkovAnnotator.parse(markov);
+		return ModelFile.trainingConfig(annotator.toString(), minRuleCount == null ? 1 : Integer.parseInt(minRuleCount),
+				trainTrees);
+	}
+
+	CKYParser trainParser(List<Tree<String>> trainTrees) {
+		String threads = System.getProperty("cky.trainThreads");
+		String markov = System.getProperty("cky.markov");
+		String minRuleCount = System.getProperty("cky.minRuleCount");
+		if (threads == null && markov == null && minRuleCount == null) {
+			return new CKYParser(trainTrees);
+		}
+		int numThreads = threads == null ? 1 : Integer.parseInt(threads);
+		GrammarTrainer trainer = markov == null ? new GrammarTrainer(numThreads) :
+				new GrammarTrainer(numThreads, MarkovAnnotator.parse(markov));
+		if (minRuleCount != null) {
+			trainer.setMinRuleCount(Integer.parseInt(minRuleCount));
+		}
+		return trainer.train(trainTrees);
 	}
 
 }
@@ -0,0 +1,537 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.berkeley.nlp.assignments.parsing.BinaryRule;
+import edu.berkeley.nlp.assignments.parsing.TreeAnnotations;
+import edu.berkeley.nlp.assignments.parsing.UnaryClosure;
+import edu.berkeley.nlp.assignments.parsing.UnaryRule;
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.ling.Trees;
+import edu.berkeley.nlp.util.Indexer;
+
+/**
+ * Trains the tables of CKYParser without Grammar and SimpleLexicon. The trees
+ * are cut into contiguous shards, each annotated and counted on its own thread
+ * into primitive counts (LongCountMap keyed by packed label indices) with its
+ * own label and word indices; no annotated tree is kept once counted.
+ *
+ * The shards are merged in order, which numbers the labels and words by first
+ * occurrence as a single pass over the trees would. The tables come out
+ * identical to those of CKYParser(trainTrees): same label indices, same rule
+ * order (the rules go through a HashMap like the Counter of Grammar), scores
+ * computed with the same arithmetic as Grammar and SimpleLexicon.
+ */
+public class GrammarTrainer {
+
+    // Label indices are packed in LABEL_BITS bits each into the rule keys
+    static final int    LABEL_BITS = 21;
+    static final long   LABEL_MASK = (1L << LABEL_BITS) - 1;
+
+    final int                           m_Threads;
+    final Trees.TreeTransformer<String> m_Annotator;
+    int                                 m_MinRuleCount = 1;
+    long                                m_TrainNanos;       // Time of the last train
+
+    /** Annotates the trees like CKYParser.annotateTrees */
+    public GrammarTrainer(int threads) {
+        this(threads, new Trees.TreeTransformer<String>() {
+            public Tree<String> transformTree(Tree<String> tree) {
+                return TreeAnnotations.annotateTreeLosslessBinarization(tree);
+            }
+        });
+    }
+
+    /** The annotator must binarize, Grammar only has unary and binary rules */
+    public GrammarTrainer(int threads, Trees.TreeTransformer<String> annotator) {
+        m_Threads   = threads;
+        m_Annotator = annotator;
+    }
+
+    /**
+     * Drops the rules counted fewer times than minCount, and the labels no
+     * longer used by the rules left (see Counts.prune). 1 keeps every rule.
+     */
+    public void setMinRuleCount(int minCount) {
+        m_MinRuleCount = minCount;
+    }
+
+    public CKYParser train(List<Tree<String>> trainTrees) {
+        long start = System.nanoTime();
+        Counts counts = count(trainTrees);
+        if (m_MinRuleCount > 1) {
+            counts = counts.prune(m_MinRuleCount);
+        }
+        CKYParser parser = new CKYParser(counts.compileGrammar(), counts.compileLexicon());
+        m_TrainNanos = System.nanoTime() - start;
+        return parser;
+    }
+
+    /** Time the last train took, counting and compiling on m_Threads threads */
+    public long getTrainNanos() {
+        return m_TrainNanos;
+    }
+
+    /**
+     * Counts of all the trees. Shards are merged as they complete in order,
+     * while the later ones are still counting.
+     */
+    Counts count(final List<Tree<String>> trainTrees) {
+        int numShards = Math.min(m_Threads, trainTrees.size());
+        if (numShards <= 1) {
+            return countShard(trainTrees);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(numShards);
+        try {
+            List<Future<Counts>> futures = new ArrayList<Future<Counts>>(numShards);
+            for (int shard = 0; shard < numShards; shard++) {
+                final List<Tree<String>> trees = trainTrees.subList(
+                        (int) ((long) shard * trainTrees.size() / numShards),
+                        (int) ((long) (shard + 1) * trainTrees.size() / numShards));
+                futures.add(pool.submit(new Callable<Counts>() {
+                    public Counts call() {
+                        return countShard(trees);
+                    }
+                }));
+            }
+            Counts counts = futures.get(0).get();
+            for (int shard = 1; shard < numShards; shard++) {
+                counts.addAll(futures.get(shard).get());
+            }
+            return counts;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while training", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Training failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    Counts countShard(List<Tree<String>> trees) {
+        Counts counts = new Counts();
+        for (Tree<String> tree : trees) {
+            counts.addTree(m_Annotator.transformTree(tree));
+        }
+        return counts;
+    }
+
+    static long binaryKey(int parent, int left, int right) {
+        return ((long) parent << (2 * LABEL_BITS)) | ((long) left << LABEL_BITS) | right;
+    }
+
+    static long pairKey(long high, int low) {
+        return (high << LABEL_BITS) | low;
+    }
+
+    /**
+     * Rule and tagging counts over a set of trees, with their own label and
+     * word indices. The tag of a tagging is its label index.
+     */
+    static class Counts {
+
+        final Indexer<String>   m_Labels        = new Indexer<String>();
+        final Indexer<String>   m_Words         = new Indexer<String>();
+        final LongCountMap      m_Binary        = new LongCountMap();   // (parent, left, right)
+        final LongCountMap      m_Unary         = new LongCountMap();   // (parent, child)
+        final LongCountMap      m_Taggings      = new LongCountMap();   // (word, tag)
+        int[]                   m_SymbolCounts  = new int[64];          // Parents of the rules
+        int[]                   m_TagCounts     = new int[64];
+        int[]                   m_TypeTagCounts = new int[64];          // Words by the tag they were first seen with
+        int[]                   m_WordCounts    = new int[256];
+        int[]                   m_FirstTags     = new int[256];
+        int                     m_NumWordTypes;                         // Words with a first tag
+        int                     m_TotalTokens;
+
+        void addTree(Tree<String> tree) {
+            addLabels(tree);
+            if (m_Labels.size() > LABEL_MASK) {
+                throw new IllegalArgumentException("Too many labels to pack in a rule key: " + m_Labels.size());
+            }
+            growLabels();
+            tally(tree);
+            List<String> words = tree.getYield();
+            List<String> tags = tree.getPreTerminalYield();
+            for (int position = 0; position < words.size(); position++) {
+                int word = m_Words.addAndGetIndex(words.get(position)), tag = m_Labels.indexOf(tags.get(position));
+                addTagging(word, tag, 1);
+                m_Taggings.increment(pairKey(word, tag));
+            }
+            m_TotalTokens += words.size();
+        }
+
+        // Pre-order like Grammar, so the labels are numbered the same
+        void addLabels(Tree<String> tree) {
+            if (tree.isLeaf())
+                return;
+            m_Labels.addAndGetIndex(tree.getLabel());
+            for (Tree<String> child : tree.getChildren()) {
+                addLabels(child);
+            }
+        }
+
+        // Grammar.tallyTree: rules first counted in the same order
+        void tally(Tree<String> tree) {
+            if (tree.isLeaf() || tree.isPreTerminal())
+                return;
+            List<Tree<String>> children = tree.getChildren();
+            int parent = m_Labels.indexOf(tree.getLabel());
+            if (children.size() == 1) {
+                m_SymbolCounts[parent]++;
+                m_Unary.increment(pairKey(parent, m_Labels.indexOf(children.get(0).getLabel())));
+            } else if (children.size() == 2) {
+                m_SymbolCounts[parent]++;
+                m_Binary.increment(binaryKey(parent, m_Labels.indexOf(children.get(0).getLabel()),
+                        m_Labels.indexOf(children.get(1).getLabel())));
+            } else {
+                throw new IllegalArgumentException("Attempted to construct a Grammar with an illegal tree (unbinarized?): " + tree);
+            }
+            for (Tree<String> child : children) {
+                tally(child);
+            }
+        }
+
+        // A word new to these counts is a new word type of the tag
+        void addTagging(int word, int tag, int count) {
+            if (word == m_NumWordTypes) {
+                if (word == m_WordCounts.length) {
+                    m_WordCounts = Arrays.copyOf(m_WordCounts, 2 * word);
+                    m_FirstTags = Arrays.copyOf(m_FirstTags, 2 * word);
+                }
+                m_FirstTags[word] = tag;
+                m_TypeTagCounts[tag]++;
+                m_NumWordTypes++;
+            }
+            m_WordCounts[word] += count;
+            m_TagCounts[tag] += count;
+        }
+
+        void growLabels() {
+            if (m_Labels.size() > m_SymbolCounts.length) {
+                int size = Math.max(m_Labels.size(), 2 * m_SymbolCounts.length);
+                m_SymbolCounts = Arrays.copyOf(m_SymbolCounts, size);
+                m_TagCounts = Arrays.copyOf(m_TagCounts, size);
+                m_TypeTagCounts = Arrays.copyOf(m_TypeTagCounts, size);
+            }
+        }
+
+        /** Adds the counts of trees that come after those counted here */
+        void addAll(Counts other) {
+            int[] labels = new int[other.m_Labels.size()];
+            for (int label = 0; label < labels.length; label++) {
+                labels[label] = m_Labels.addAndGetIndex(other.m_Labels.get(label));
+            }
+            if (m_Labels.size() > LABEL_MASK) {
+                throw new IllegalArgumentException("Too many labels to pack in a rule key: " + m_Labels.size());
+            }
+            growLabels();
+            for (int label = 0; label < labels.length; label++) {
+                m_SymbolCounts[labels[label]] += other.m_SymbolCounts[label];
+            }
+            for (int e = 0; e < other.m_Binary.size(); e++) {
+                long key = other.m_Binary.key(e);
+                m_Binary.add(binaryKey(labels[(int) (key >>> (2 * LABEL_BITS))],
+                        labels[(int) ((key >>> LABEL_BITS) & LABEL_MASK)], labels[(int) (key & LABEL_MASK)]),
+                        other.m_Binary.count(e));
+            }
+            for (int e = 0; e < other.m_Unary.size(); e++) {
+                long key = other.m_Unary.key(e);
+                m_Unary.add(pairKey(labels[(int) (key >>> LABEL_BITS)], labels[(int) (key & LABEL_MASK)]),
+                        other.m_Unary.count(e));
+            }
+
+            // Words in the order of other, each new one with its first tag
+            int[] words = new int[other.m_Words.size()];
+            for (int word = 0; word < words.length; word++) {
+                words[word] = m_Words.addAndGetIndex(other.m_Words.get(word));
+                addTagging(words[word], labels[other.m_FirstTags[word]], 0);
+            }
+            for (int e = 0; e < other.m_Taggings.size(); e++) {
+                long key = other.m_Taggings.key(e);
+                int word = words[(int) (key >>> LABEL_BITS)], tag = labels[(int) (key & LABEL_MASK)];
+                m_Taggings.add(pairKey(word, tag), other.m_Taggings.count(e));
+                addTagging(word, tag, other.m_Taggings.count(e));
+            }
+            m_TotalTokens += other.m_TotalTokens;
+        }
+
+        /**
+         * Counts without the rules seen fewer than minCount times, and without
+         * the labels that are then useless: every label but ROOT and the tags
+         * must be built from the tags and reach ROOT through the rules left.
+         * Those rules are dropped too. The rules left keep their scores, their
+         * counts over all the counts of the parent.
+         */
+        Counts prune(int minCount) {
+            int numLabels = m_Labels.size();
+            boolean[] keepBinary = new boolean[m_Binary.size()];
+            boolean[] keepUnary = new boolean[m_Unary.size()];
+            for (int e = 0; e < keepBinary.length; e++) {
+                keepBinary[e] = m_Binary.count(e) >= minCount;
+            }
+            for (int e = 0; e < keepUnary.length; e++) {
+                keepUnary[e] = m_Unary.count(e) >= minCount;
+            }
+
+            boolean[] built = new boolean[numLabels];
+            for (int label = 0; label < numLabels; label++) {
+                built[label] = m_TagCounts[label] > 0;
+            }
+            for (boolean changed = true; changed; ) {
+                changed = false;
+                for (int e = 0; e < keepBinary.length; e++) {
+                    long key = m_Binary.key(e);
+                    int parent = (int) (key >>> (2 * LABEL_BITS));
+                    if (keepBinary[e] && !built[parent] && built[(int) ((key >>> LABEL_BITS) & LABEL_MASK)]
+                            && built[(int) (key & LABEL_MASK)]) {
+                        built[parent] = changed = true;
+                    }
+                }
+                for (int e = 0; e < keepUnary.length; e++) {
+                    long key = m_Unary.key(e);
+                    int parent = (int) (key >>> LABEL_BITS);
+                    if (keepUnary[e] && !built[parent] && built[(int) (key & LABEL_MASK)]) {
+                        built[parent] = changed = true;
+                    }
+                }
+            }
+            for (int e = 0; e < keepBinary.length; e++) {
+                long key = m_Binary.key(e);
+                keepBinary[e] &= built[(int) ((key >>> LABEL_BITS) & LABEL_MASK)] && built[(int) (key & LABEL_MASK)];
+            }
+            for (int e = 0; e < keepUnary.length; e++) {
+                keepUnary[e] &= built[(int) (m_Unary.key(e) & LABEL_MASK)];
+            }
+
+            // ROOT is label 0, the first label of the first tree
+            boolean[] reached = new boolean[numLabels];
+            reached[0] = true;
+            for (boolean changed = true; changed; ) {
+                changed = false;
+                for (int e = 0; e < keepBinary.length; e++) {
+                    long key = m_Binary.key(e);
+                    int left = (int) ((key >>> LABEL_BITS) & LABEL_MASK), right = (int) (key & LABEL_MASK);
+                    if (keepBinary[e] && reached[(int) (key >>> (2 * LABEL_BITS))] && !(reached[left] && reached[right])) {
+                        reached[left] = reached[right] = changed = true;
+                    }
+                }
+                for (int e = 0; e < keepUnary.length; e++) {
+                    long key = m_Unary.key(e);
+                    int child = (int) (key & LABEL_MASK);
+                    if (keepUnary[e] && reached[(int) (key >>> LABEL_BITS)] && !reached[child]) {
+                        reached[child] = changed = true;
+                    }
+                }
+            }
+
+            Counts pruned = new Counts();
+            int[] labels = new int[numLabels];
+            for (int label = 0; label < numLabels; label++) {
+                boolean keep = label == 0 || m_TagCounts[label] > 0 || (built[label] && reached[label]);
+                labels[label] = keep ? pruned.m_Labels.addAndGetIndex(m_Labels.get(label)) : -1;
+            }
+            pruned.growLabels();
+            for (int label = 0; label < numLabels; label++) {
+                if (labels[label] < 0)
+                    continue;
+                pruned.m_SymbolCounts[labels[label]] = m_SymbolCounts[label];
+                pruned.m_TagCounts[labels[label]] = m_TagCounts[label];
+                pruned.m_TypeTagCounts[labels[label]] = m_TypeTagCounts[label];
+            }
+            for (int e = 0; e < keepBinary.length; e++) {
+                long key = m_Binary.key(e);
+                if (keepBinary[e] && reached[(int) (key >>> (2 * LABEL_BITS))]) {
+                    pruned.m_Binary.add(binaryKey(labels[(int) (key >>> (2 * LABEL_BITS))],
+                            labels[(int) ((key >>> LABEL_BITS) & LABEL_MASK)], labels[(int) (key & LABEL_MASK)]),
+                            m_Binary.count(e));
+                }
+            }
+            for (int e = 0; e < keepUnary.length; e++) {
+                long key = m_Unary.key(e);
+                if (keepUnary[e] && reached[(int) (key >>> LABEL_BITS)]) {
+                    pruned.m_Unary.add(pairKey(labels[(int) (key >>> LABEL_BITS)], labels[(int) (key & LABEL_MASK)]),
+                            m_Unary.count(e));
+                }
+            }
+
+            // The tags are all kept, the words and taggings only need the new tags
+            for (int word = 0; word < m_NumWordTypes; word++) {
+                pruned.m_Words.add(m_Words.get(word));
+            }
+            pruned.m_WordCounts = Arrays.copyOf(m_WordCounts, m_WordCounts.length);
+            pruned.m_FirstTags = new int[m_FirstTags.length];
+            for (int word = 0; word < m_NumWordTypes; word++) {
+                pruned.m_FirstTags[word] = labels[m_FirstTags[word]];
+            }
+            pruned.m_NumWordTypes = m_NumWordTypes;
+            for (int e = 0; e < m_Taggings.size(); e++) {
+                long key = m_Taggings.key(e);
+                pruned.m_Taggings.add(pairKey(key >>> LABEL_BITS, labels[(int) (key & LABEL_MASK)]), m_Taggings.count(e));
+            }
+            pruned.m_TotalTokens = m_TotalTokens;
+            return pruned;
+        }
+
+        CompiledGrammar compileGrammar() {
+            int numTags = m_Labels.size();
+
+            // Grammar adds its rules in the order of the HashMap of its Counter,
+            // which only depends on the rules and the order they were first counted
+            Map<UnaryRule, Integer> unaryEntries = new HashMap<UnaryRule, Integer>();
+            for (int e = 0; e < m_Unary.size(); e++) {
+                long key = m_Unary.key(e);
+                unaryEntries.put(new UnaryRule((int) (key >>> LABEL_BITS), (int) (key & LABEL_MASK)), e);
+            }
+            List<UnaryRule> unaryRules = new ArrayList<UnaryRule>(unaryEntries.size());
+            for (Map.Entry<UnaryRule, Integer> entry : unaryEntries.entrySet()) {
+                UnaryRule rule = entry.getKey();
+                rule.setScore(Math.log((double) m_Unary.count(entry.getValue()) / (double) m_SymbolCounts[rule.getParent()]));
+                unaryRules.add(rule);
+            }
+
+            Map<BinaryRule, Integer> binaryEntries = new HashMap<BinaryRule, Integer>();
+            for (int e = 0; e < m_Binary.size(); e++) {
+                long key = m_Binary.key(e);
+                binaryEntries.put(new BinaryRule((int) (key >>> (2 * LABEL_BITS)),
+                        (int) ((key >>> LABEL_BITS) & LABEL_MASK), (int) (key & LABEL_MASK)), e);
+            }
+            int numRules = binaryEntries.size();
+            int[] parentOffsets = new int[numTags + 1];
+            for (BinaryRule rule : binaryEntries.keySet()) {
+                parentOffsets[rule.getParent() + 1]++;
+            }
+            for (int tagIdx = 0; tagIdx < numTags; tagIdx++) {
+                parentOffsets[tagIdx + 1] += parentOffsets[tagIdx];
+            }
+            int[] binaryLeft = new int[numRules];
+            int[] binaryRight = new int[numRules];
+            double[] binaryScore = new double[numRules];
+            int[] fill = Arrays.copyOf(parentOffsets, numTags);
+            for (Map.Entry<BinaryRule, Integer> entry : binaryEntries.entrySet()) {
+                BinaryRule rule = entry.getKey();
+                int r = fill[rule.getParent()]++;
+                binaryLeft[r] = rule.getLeftChild();
+                binaryRight[r] = rule.getRightChild();
+                binaryScore[r] = Math.log((double) m_Binary.count(entry.getValue()) / (double) m_SymbolCounts[rule.getParent()]);
+            }
+            return new CompiledGrammar(m_Labels, parentOffsets, binaryLeft, binaryRight, binaryScore,
+                    new UnaryClosure(m_Labels, unaryRules));
+        }
+
+        /** The vectors of CompiledLexicon, scored like SimpleLexicon.scoreTagging */
+        CompiledLexicon compileLexicon() {
+            int numWords = m_Words.size();
+            String[] words = new String[numWords];
+            for (int word = 0; word < numWords; word++) {
+                words[word] = m_Words.get(word);
+            }
+
+            // Taggings by word, in tag order
+            int[] tagOffsets = new int[numWords + 2];
+            for (int e = 0; e < m_Taggings.size(); e++) {
+                tagOffsets[(int) (m_Taggings.key(e) >>> LABEL_BITS) + 1]++;
+            }
+            for (int word = 0; word <= numWords; word++) {
+                tagOffsets[word + 1] += tagOffsets[word];
+            }
+            int[] taggedTags = new int[m_Taggings.size()];
+            int[] taggedCounts = new int[m_Taggings.size()];
+            int[] fill = Arrays.copyOf(tagOffsets, numWords);
+            for (int e = 0; e < m_Taggings.size(); e++) {
+                long key = m_Taggings.key(e);
+                int i = fill[(int) (key >>> LABEL_BITS)]++;
+                taggedTags[i] = (int) (key & LABEL_MASK);
+                taggedCounts[i] = m_Taggings.count(e);
+            }
+            for (int word = 0; word < numWords; word++) {
+                for (int i = tagOffsets[word] + 1; i < tagOffsets[word + 1]; i++) {
+                    int tag = taggedTags[i], count = taggedCounts[i], j = i;
+                    for (; j > tagOffsets[word] && taggedTags[j - 1] > tag; j--) {
+                        taggedTags[j] = taggedTags[j - 1];
+                        taggedCounts[j] = taggedCounts[j - 1];
+                    }
+                    taggedTags[j] = tag;
+                    taggedCounts[j] = count;
+                }
+            }
+
+            int numTags = m_Labels.size();
+            int[] tagIdxs = new int[numTags];
+            int numTagIdxs = 0;
+            for (int tagIdx = 0; tagIdx < numTags; tagIdx++) {
+                if (m_TagCounts[tagIdx] > 0)
+                    tagIdxs[numTagIdxs++] = tagIdx;
+            }
+
+            // Rare words score every tag, the others only the tags they were seen with
+            int[] offsets = new int[numWords + 2];
+            int[] tags = new int[4 * (numWords + 1)];
+            double[] scores = new double[tags.length];
+            int[] wordTagCounts = new int[numTags];
+            int size = 0;
+            for (int word = 0; word <= numWords; word++) {
+                offsets[word] = size;
+                int wordCount = word < numWords ? m_WordCounts[word] : 0;
+                int numCandidates;
+                int[] candidates;
+                if (wordCount < 10) {
+                    for (int i = tagOffsets[word]; i < tagOffsets[word + 1]; i++) {
+                        wordTagCounts[taggedTags[i]] = taggedCounts[i];
+                    }
+                    candidates = tagIdxs;
+                    numCandidates = numTagIdxs;
+                } else {
+                    candidates = Arrays.copyOfRange(taggedTags, tagOffsets[word], tagOffsets[word + 1]);
+                    numCandidates = candidates.length;
+                    for (int i = tagOffsets[word]; i < tagOffsets[word + 1]; i++) {
+                        wordTagCounts[taggedTags[i]] = taggedCounts[i];
+                    }
+                }
+                for (int c = 0; c < numCandidates; c++) {
+                    int tagIdx = candidates[c];
+                    double s = scoreTagging(wordCount, wordTagCounts[tagIdx], tagIdx);
+                    if (Double.isNaN(s) || s == Double.NEGATIVE_INFINITY)
+                        continue;
+                    if (size == tags.length) {
+                        tags = Arrays.copyOf(tags, 2 * size);
+                        scores = Arrays.copyOf(scores, 2 * size);
+                    }
+                    tags[size] = tagIdx;
+                    scores[size] = s;
+                    size++;
+                }
+                for (int i = tagOffsets[word]; i < tagOffsets[word + 1]; i++) {
+                    wordTagCounts[taggedTags[i]] = 0;
+                }
+            }
+            offsets[numWords + 1] = size;
+            return new CompiledLexicon(words, offsets, Arrays.copyOf(tags, size), Arrays.copyOf(scores, size));
+        }
+
+        // SimpleLexicon.scoreTagging, step by step in the same arithmetic
+        double scoreTagging(int wordCount, int wordTagCount, int tag) {
+            int totalTokens = m_TotalTokens;
+            double p_tag = (double) m_TagCounts[tag] / totalTokens;
+            double c_word = wordCount;
+            double c_tag_and_word = wordTagCount;
+            if (c_word < 10) {
+                c_word += 1.0;
+                c_tag_and_word += (double) m_TypeTagCounts[tag] / (double) m_NumWordTypes;
+            }
+            double p_word = (1.0 + c_word) / (totalTokens + 1.0);
+            double p_tag_given_word = c_tag_and_word / c_word;
+            return Math.log(p_tag_given_word / p_tag * p_word);
+        }
+    }
+}
@@ -0,0 +1,564 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.berkeley.nlp.ling.Tree;
+
+/**
+ * Inside-outside sums over a CompiledGrammar and CompiledLexicon, in
+ * probability space rather than with log-sum-exp.
+ *
+ * The chart has the CKYChart layout (cellIndex(start, end) * numTags + label),
+ * with a binary layer (before the closed unaries) and a unary layer for both
+ * the inside and the outside scores. To stay clear of underflow every cell
+ * carries a power-of-two exponent: the probability of an entry is
+ * value * 2^scale(cell), and after each cell is filled its values are shifted
+ * so the largest is in [1, 2). Products of cells add their exponents, and the
+ * split points of a cell are summed at the largest exponent among them.
+ *
+ * As in the Viterbi pass, the closed unary rules stand for the unary chains,
+ * so the sums are over trees with at most one closed unary per span.
+ *
+ * The grammar tables are shared and read only; the chart of each thread is
+ * kept in a Workspace (see workspace()).
+ */
+public class InsideOutside {
+
+    static final int    EMPTY   = Integer.MIN_VALUE;    // Scale of a cell without any non-zero entry
+    static final double LN2     = Math.log(2);
+
+    final CompiledGrammar   m_Grammar;
+    final CompiledLexicon   m_Lexicon;
+    final int               m_NumTags;
+    final double[]          m_LeftProb;         // Binary rule probabilities, by left child (m_LeftScore)
+    final double[]          m_RightProb;        // ... by right child (m_RightScore)
+    final double[]          m_UnaryProb;        // Closed unary rule probabilities (m_UnaryScore)
+    final double[]          m_LexicalProb;      // Tagging probabilities (CompiledLexicon.m_Scores)
+
+    /** Inside and outside chart of one thread */
+    public static class Workspace {
+        final int           m_NumTags;
+        int                 m_Capacity;
+        int                 m_SentLen;
+        List<String>        m_Sentence;
+        double[]            m_InsideBinary;
+        double[]            m_InsideUnary;
+        double[]            m_OutsideBinary;
+        double[]            m_OutsideUnary;
+        int[]               m_InsideScale;      // Per cell
+        int[]               m_OutsideScale;
+        int[]               m_LiveLabels;       // Labels with a non-zero inside unary score, per cell
+        int[]               m_LiveCounts;
+        boolean             m_InLogSpace;       // After maxRuleParse, the scores are logs
+
+        Workspace(int numTags) {
+            m_NumTags = numTags;
+            grow(0);            // Empty arrays, so an empty sentence resets a fresh workspace
+        }
+
+        void grow(int sentLen) {
+            int entries = CKYChart.numCells(sentLen) * m_NumTags;
+            m_InsideBinary  = new double[entries];
+            m_InsideUnary   = new double[entries];
+            m_OutsideBinary = new double[entries];
+            m_OutsideUnary  = new double[entries];
+            m_LiveLabels    = new int[entries];
+            m_InsideScale   = new int[CKYChart.numCells(sentLen)];
+            m_OutsideScale  = new int[CKYChart.numCells(sentLen)];
+            m_LiveCounts    = new int[CKYChart.numCells(sentLen)];
+            m_Capacity      = sentLen;
+        }
+
+        void reset(List<String> sentence) {
+            int sentLen = sentence.size();
+            if (sentLen > m_Capacity) {
+                grow(sentLen);
+            }
+            m_SentLen = sentLen;
+            m_Sentence = sentence;
+            m_InLogSpace = false;
+            int used = CKYChart.numCells(sentLen) * m_NumTags;
+            Arrays.fill(m_InsideBinary, 0, used, 0.0);
+            Arrays.fill(m_InsideUnary, 0, used, 0.0);
+            Arrays.fill(m_OutsideBinary, 0, used, 0.0);
+            Arrays.fill(m_OutsideUnary, 0, used, 0.0);
+            Arrays.fill(m_InsideScale, 0, CKYChart.numCells(sentLen), EMPTY);
+            Arrays.fill(m_OutsideScale, 0, CKYChart.numCells(sentLen), EMPTY);
+            Arrays.fill(m_LiveCounts, 0, CKYChart.numCells(sentLen), 0);
+        }
+
+        public int getSentenceLength() {
+            return m_SentLen;
+        }
+    }
+
+    final ThreadLocal<Workspace> m_Workspace = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace(m_NumTags);
+        }
+    };
+
+    public InsideOutside(CompiledGrammar grammar, CompiledLexicon lexicon) {
+        m_Grammar       = grammar;
+        m_Lexicon       = lexicon;
+        m_NumTags       = grammar.getNumTags();
+        m_LeftProb      = exp(grammar.m_LeftScore);
+        m_RightProb     = exp(grammar.m_RightScore);
+        m_UnaryProb     = exp(grammar.m_UnaryScore);
+        m_LexicalProb   = exp(lexicon.m_Scores);
+    }
+
+    static double[] exp(double[] scores) {
+        double[] probs = new double[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            probs[i] = Math.exp(scores[i]);
+        }
+        return probs;
+    }
+
+    /** The workspace of the calling thread */
+    public Workspace workspace() {
+        return m_Workspace.get();
+    }
+
+    /**
+     * Inside and outside passes over the sentence. Returns false, with only the
+     * inside scores filled, when the grammar has no parse of the sentence (or
+     * the sentence is empty).
+     */
+    public boolean compute(Workspace ws, List<String> sentence) {
+        ws.reset(sentence);
+        if (ws.m_SentLen == 0)
+            return false;
+        inside(ws);
+        if (ws.m_InsideScale[CKYChart.cellIndex(0, ws.m_SentLen)] == EMPTY ||
+                ws.m_InsideUnary[rootEntry(ws)] == 0.0) {
+            return false;
+        }
+        outside(ws);
+        return true;
+    }
+
+    // ROOT is label 0 of the indexer, as in CKYParser
+    int rootEntry(Workspace ws) {
+        return CKYChart.cellIndex(0, ws.m_SentLen) * m_NumTags;
+    }
+
+    /** Log probability of the sentence, -Infinity when it has no parse */
+    public double logLikelihood(Workspace ws) {
+        int topIdx = CKYChart.cellIndex(0, ws.m_SentLen);
+        if (ws.m_InsideScale[topIdx] == EMPTY || ws.m_InsideUnary[rootEntry(ws)] == 0.0)
+            return Double.NEGATIVE_INFINITY;
+        return Math.log(ws.m_InsideUnary[rootEntry(ws)]) + LN2 * ws.m_InsideScale[topIdx];
+    }
+
+    void inside(Workspace ws) {
+        int sentLen = ws.m_SentLen;
+        double[] insideBinary   = ws.m_InsideBinary;
+        double[] insideUnary    = ws.m_InsideUnary;
+        int[] insideScale       = ws.m_InsideScale;
+        int[] liveLabels        = ws.m_LiveLabels;
+        int[] liveCounts        = ws.m_LiveCounts;
+        int[] leftOffsets       = m_Grammar.m_LeftOffsets;
+        int[] leftRight         = m_Grammar.m_LeftRight;
+        int[] leftParent        = m_Grammar.m_LeftParent;
+        double[] leftProb       = m_LeftProb;
+
+        for (int length = 1; length <= sentLen; length++) {
+            for (int start = 0; start + length <= sentLen; start++) {
+                int end = start + length;
+                int cellIdx = CKYChart.cellIndex(start, end);
+                int cell = cellIdx * m_NumTags;
+                int scale;
+
+                if (length == 1) {
+                    int wordId = m_Lexicon.wordId(ws.m_Sentence.get(start));
+                    for (int i = m_Lexicon.m_Offsets[wordId]; i < m_Lexicon.m_Offsets[wordId + 1]; i++) {
+                        insideBinary[cell + m_Lexicon.m_Tags[i]] = m_LexicalProb[i];
+                    }
+                    scale = 0;
+                } else {
+                    // The splits are summed at the largest exponent of their products
+                    scale = EMPTY;
+                    for (int split = start + 1; split < end; split++) {
+                        int leftIdx = CKYChart.cellIndex(start, split);
+                        int rightIdx = CKYChart.cellIndex(split, end);
+                        if (liveCounts[leftIdx] > 0 && liveCounts[rightIdx] > 0)
+                            scale = Math.max(scale, insideScale[leftIdx] + insideScale[rightIdx]);
+                    }
+                    if (scale == EMPTY)
+                        continue;
+                    for (int split = start + 1; split < end; split++) {
+                        int leftIdx = CKYChart.cellIndex(start, split);
+                        int rightIdx = CKYChart.cellIndex(split, end);
+                        if (liveCounts[leftIdx] == 0 || liveCounts[rightIdx] == 0)
+                            continue;
+                        double factor = Math.scalb(1.0, insideScale[leftIdx] + insideScale[rightIdx] - scale);
+                        if (factor == 0.0)
+                            continue;
+                        int leftCell = leftIdx * m_NumTags;
+                        int rightCell = rightIdx * m_NumTags;
+                        for (int live = leftCell, liveEnd = leftCell + liveCounts[leftIdx]; live < liveEnd; live++) {
+                            int leftTag = liveLabels[live];
+                            double leftScore = insideUnary[leftCell + leftTag] * factor;
+                            for (int r = leftOffsets[leftTag], rEnd = leftOffsets[leftTag + 1]; r < rEnd; r++) {
+                                double rightScore = insideUnary[rightCell + leftRight[r]];
+                                if (rightScore == 0.0)
+                                    continue;
+                                insideBinary[cell + leftParent[r]] += leftProb[r] * leftScore * rightScore;
+                            }
+                        }
+                    }
+                }
+
+                unaryInside(insideBinary, insideUnary, cell);
+                int shift = normalize(insideBinary, insideUnary, cell);
+                if (shift == EMPTY)
+                    continue;
+                insideScale[cellIdx] = scale + shift;
+                int numLive = 0;
+                for (int tagIdx = 0; tagIdx < m_NumTags; tagIdx++) {
+                    if (insideUnary[cell + tagIdx] != 0.0)
+                        liveLabels[cell + numLive++] = tagIdx;
+                }
+                liveCounts[cellIdx] = numLive;
+            }
+        }
+    }
+
+    // The closure holds the reflexive rules (probability 1), so every binary
+    // score also reaches its own unary entry
+    void unaryInside(double[] insideBinary, double[] insideUnary, int cell) {
+        int[] childOffsets = m_Grammar.m_UnaryChildOffsets;
+        int[] unaryByChild = m_Grammar.m_UnaryByChild;
+        int[] unaryParent = m_Grammar.m_UnaryParent;
+        for (int childIdx = 0; childIdx < m_NumTags; childIdx++) {
+            double childScore = insideBinary[cell + childIdx];
+            if (childScore == 0.0)
+                continue;
+            for (int c = childOffsets[childIdx], cEnd = childOffsets[childIdx + 1]; c < cEnd; c++) {
+                int u = unaryByChild[c];
+                insideUnary[cell + unaryParent[u]] += m_UnaryProb[u] * childScore;
+            }
+        }
+    }
+
+    void unaryOutside(Workspace ws, int cell) {
+        int[] childOffsets = m_Grammar.m_UnaryChildOffsets;
+        int[] unaryByChild = m_Grammar.m_UnaryByChild;
+        int[] unaryParent = m_Grammar.m_UnaryParent;
+        double[] outsideUnary = ws.m_OutsideUnary;
+        for (int childIdx = 0; childIdx < m_NumTags; childIdx++) {
+            if (ws.m_InsideBinary[cell + childIdx] == 0.0)
+                continue;
+            double sum = 0.0;
+            for (int c = childOffsets[childIdx], cEnd = childOffsets[childIdx + 1]; c < cEnd; c++) {
+                int u = unaryByChild[c];
+                sum += m_UnaryProb[u] * outsideUnary[cell + unaryParent[u]];
+            }
+            ws.m_OutsideBinary[cell + childIdx] = sum;
+        }
+    }
+
+    /**
+     * Divides both layers of the cell by the power of two of their largest
+     * value and returns its exponent, EMPTY when the cell is all zeros.
+     */
+    int normalize(double[] binary, double[] unary, int cell) {
+        double max = 0.0;
+        for (int tagIdx = 0; tagIdx < m_NumTags; tagIdx++) {
+            max = Math.max(max, Math.max(binary[cell + tagIdx], unary[cell + tagIdx]));
+        }
+        if (max == 0.0)
+            return EMPTY;
+        int shift = Math.getExponent(max);
+        if (shift == 0)
+            return 0;
+        if (shift < Double.MIN_EXPONENT) {
+            // Subnormal maximum, 2^-shift would overflow
+            for (int tagIdx = 0; tagIdx < m_NumTags; tagIdx++) {
+                binary[cell + tagIdx] = Math.scalb(binary[cell + tagIdx], -shift);
+                unary[cell + tagIdx] = Math.scalb(unary[cell + tagIdx], -shift);
+            }
+            return shift;
+        }
+        double factor = Math.scalb(1.0, -shift);
+        for (int tagIdx = 0; tagIdx < m_NumTags; tagIdx++) {
+            binary[cell + tagIdx] *= factor;
+            unary[cell + tagIdx] *= factor;
+        }
+        return shift;
+    }
+
+    /**
+     * Outside pass, longest spans first. Each cell pulls its outside score from
+     * the cells that contain it: as left child of (start, end') next to the
+     * right sibling (end, end'), and as right child of (start', end) next to
+     * (start', start). Only the labels with a non-zero inside score get one.
+     */
+    void outside(Workspace ws) {
+        int sentLen = ws.m_SentLen;
+        double[] insideUnary    = ws.m_InsideUnary;
+        double[] outsideBinary  = ws.m_OutsideBinary;
+        double[] outsideUnary   = ws.m_OutsideUnary;
+        int[] insideScale       = ws.m_InsideScale;
+        int[] outsideScale      = ws.m_OutsideScale;
+        int[] liveLabels        = ws.m_LiveLabels;
+        int[] liveCounts        = ws.m_LiveCounts;
+        int[] leftOffsets       = m_Grammar.m_LeftOffsets;
+        int[] leftRight         = m_Grammar.m_LeftRight;
+        int[] leftParent        = m_Grammar.m_LeftParent;
+        int[] rightOffsets      = m_Grammar.m_RightOffsets;
+        int[] rightLeft         = m_Grammar.m_RightLeft;
+        int[] rightParent       = m_Grammar.m_RightParent;
+
+        int topIdx = CKYChart.cellIndex(0, sentLen);
+        outsideUnary[topIdx * m_NumTags] = 1.0;
+        outsideScale[topIdx] = 0;
+        unaryOutside(ws, topIdx * m_NumTags);
+        outsideScale[topIdx] = normalize(outsideBinary, outsideUnary, topIdx * m_NumTags);
+
+        for (int length = sentLen - 1; length >= 1; length--) {
+            for (int start = 0; start + length <= sentLen; start++) {
+                int end = start + length;
+                int cellIdx = CKYChart.cellIndex(start, end);
+                int cell = cellIdx * m_NumTags;
+                int numLive = liveCounts[cellIdx];
+                if (numLive == 0)
+                    continue;
+
+                int scale = EMPTY;
+                for (int parentEnd = end + 1; parentEnd <= sentLen; parentEnd++) {
+                    int parentIdx = CKYChart.cellIndex(start, parentEnd);
+                    int siblingIdx = CKYChart.cellIndex(end, parentEnd);
+                    if (outsideScale[parentIdx] != EMPTY && liveCounts[siblingIdx] > 0)
+                        scale = Math.max(scale, outsideScale[parentIdx] + insideScale[siblingIdx]);
+                }
+                for (int parentStart = 0; parentStart < start; parentStart++) {
+                    int parentIdx = CKYChart.cellIndex(parentStart, end);
+                    int siblingIdx = CKYChart.cellIndex(parentStart, start);
+                    if (outsideScale[parentIdx] != EMPTY && liveCounts[siblingIdx] > 0)
+                        scale = Math.max(scale, outsideScale[parentIdx] + insideScale[siblingIdx]);
+                }
+                if (scale == EMPTY)
+                    continue;
+
+                // As left child
+                for (int parentEnd = end + 1; parentEnd <= sentLen; parentEnd++) {
+                    int parentIdx = CKYChart.cellIndex(start, parentEnd);
+                    int siblingIdx = CKYChart.cellIndex(end, parentEnd);
+                    if (outsideScale[parentIdx] == EMPTY || liveCounts[siblingIdx] == 0)
+                        continue;
+                    double factor = Math.scalb(1.0, outsideScale[parentIdx] + insideScale[siblingIdx] - scale);
+                    if (factor == 0.0)
+                        continue;
+                    int parentCell = parentIdx * m_NumTags;
+                    int siblingCell = siblingIdx * m_NumTags;
+                    for (int live = cell; live < cell + numLive; live++) {
+                        int tagIdx = liveLabels[live];
+                        double sum = 0.0;
+                        for (int r = leftOffsets[tagIdx], rEnd = leftOffsets[tagIdx + 1]; r < rEnd; r++) {
+                            double siblingScore = insideUnary[siblingCell + leftRight[r]];
+                            if (siblingScore == 0.0)
+                                continue;
+                            sum += m_LeftProb[r] * outsideBinary[parentCell + leftParent[r]] * siblingScore;
+                        }
+                        outsideUnary[cell + tagIdx] += sum * factor;
+                    }
+                }
+                // As right child
+                for (int parentStart = 0; parentStart < start; parentStart++) {
+                    int parentIdx = CKYChart.cellIndex(parentStart, end);
+                    int siblingIdx = CKYChart.cellIndex(parentStart, start);
+                    if (outsideScale[parentIdx] == EMPTY || liveCounts[siblingIdx] == 0)
+                        continue;
+                    double factor = Math.scalb(1.0, outsideScale[parentIdx] + insideScale[siblingIdx] - scale);
+                    if (factor == 0.0)
+                        continue;
+                    int parentCell = parentIdx * m_NumTags;
+                    int siblingCell = siblingIdx * m_NumTags;
+                    for (int live = cell; live < cell + numLive; live++) {
+                        int tagIdx = liveLabels[live];
+                        double sum = 0.0;
+                        for (int r = rightOffsets[tagIdx], rEnd = rightOffsets[tagIdx + 1]; r < rEnd; r++) {
+                            double siblingScore = insideUnary[siblingCell + rightLeft[r]];
+                            if (siblingScore == 0.0)
+                                continue;
+                            sum += m_RightProb[r] * outsideBinary[parentCell + rightParent[r]] * siblingScore;
+                        }
+                        outsideUnary[cell + tagIdx] += sum * factor;
+                    }
+                }
+
+                unaryOutside(ws, cell);
+                int shift = normalize(outsideBinary, outsideUnary, cell);
+                if (shift != EMPTY)
+                    outsideScale[cellIdx] = scale + shift;
+            }
+        }
+    }
+
+    /**
+     * Bound on the stored inside * outside product of the cell equivalent to a
+     * posterior of threshold: the posterior of an entry (either layer) is at
+     * least threshold exactly when insideValue * outsideValue >= the bound.
+     * Infinity when the cell has no outside or inside score.
+     */
+    public double posteriorBound(Workspace ws, int cellIdx, double threshold) {
+        int topIdx = CKYChart.cellIndex(0, ws.m_SentLen);
+        if (ws.m_InsideScale[cellIdx] == EMPTY || ws.m_OutsideScale[cellIdx] == EMPTY)
+            return Double.POSITIVE_INFINITY;
+        long exponent = (long) ws.m_InsideScale[topIdx] - ws.m_InsideScale[cellIdx] - ws.m_OutsideScale[cellIdx];
+        exponent = Math.max(Integer.MIN_VALUE / 2, Math.min(Integer.MAX_VALUE / 2, exponent));
+        return Math.scalb(threshold * ws.m_InsideUnary[rootEntry(ws)], (int) exponent);
+    }
+
+    /** Posterior of the unary item (tagIdx, start, end) */
+    public double posterior(Workspace ws, int tagIdx, int start, int end) {
+        int cellIdx = CKYChart.cellIndex(start, end);
+        int entry = cellIdx * m_NumTags + tagIdx;
+        if (ws.m_InsideScale[cellIdx] == EMPTY || ws.m_OutsideScale[cellIdx] == EMPTY)
+            return 0.0;
+        double logPost = Math.log(ws.m_InsideUnary[entry] * ws.m_OutsideUnary[entry])
+                + LN2 * ((long) ws.m_InsideScale[cellIdx] + ws.m_OutsideScale[cellIdx]) - logLikelihood(ws);
+        return Math.exp(logPost);
+    }
+
+    /**
+     * Max-rule-product decoding: the tree whose product of rule posteriors is
+     * the highest, with the posteriors of the last compute on the workspace.
+     * The chart is filled with the log max-rule scores and backpointers, and
+     * decoded by the ViterbiDecoder. Returns the annotated tree, or null when
+     * the sentence has no parse.
+     *
+     * The scores of the workspace are turned into logs on the way, so the
+     * posteriors cannot be read from it afterwards.
+     */
+    public Tree<String> maxRuleParse(Workspace ws, CKYChart chart, ViterbiDecoder decoder) {
+        int sentLen = ws.m_SentLen;
+        double logZ = logLikelihood(ws);
+        if (logZ == Double.NEGATIVE_INFINITY)
+            return null;
+        toLogSpace(ws);
+
+        double[] logInsideBinary    = ws.m_InsideBinary;
+        double[] logInsideUnary     = ws.m_InsideUnary;
+        double[] logOutsideBinary   = ws.m_OutsideBinary;
+        double[] logOutsideUnary    = ws.m_OutsideUnary;
+        int[] liveLabels            = ws.m_LiveLabels;
+        int[] liveCounts            = ws.m_LiveCounts;
+        double[] bestBinary         = chart.m_BinaryScores;
+        double[] bestUnary          = chart.m_UnaryScores;
+        int[] binaryBack            = chart.m_BinaryBack;
+        int[] unaryBack             = chart.m_UnaryBack;
+        int[] leftOffsets           = m_Grammar.m_LeftOffsets;
+        int[] leftRight             = m_Grammar.m_LeftRight;
+        int[] leftParent            = m_Grammar.m_LeftParent;
+        int[] leftRule              = m_Grammar.m_LeftRule;
+        double[] leftScore          = m_Grammar.m_LeftScore;
+        int[] unaryOffsets          = m_Grammar.m_UnaryOffsets;
+        int[] unaryChild            = m_Grammar.m_UnaryChild;
+        double[] unaryScore         = m_Grammar.m_UnaryScore;
+        chart.reset(ws.m_Sentence);
+
+        for (int length = 1; length <= sentLen; length++) {
+            for (int start = 0; start + length <= sentLen; start++) {
+                int end = start + length;
+                int cellIdx = CKYChart.cellIndex(start, end);
+                int cell = cellIdx * m_NumTags;
+                if (liveCounts[cellIdx] == 0)
+                    continue;
+
+                if (length == 1) {
+                    // Posterior of the tag over the word
+                    for (int tagIdx = 0; tagIdx < m_NumTags; tagIdx++) {
+                        bestBinary[cell + tagIdx] = logInsideBinary[cell + tagIdx] + logOutsideBinary[cell + tagIdx] - logZ;
+                    }
+                } else {
+                    for (int split = start + 1; split < end; split++) {
+                        int leftIdx = CKYChart.cellIndex(start, split);
+                        int rightIdx = CKYChart.cellIndex(split, end);
+                        if (liveCounts[leftIdx] == 0 || liveCounts[rightIdx] == 0)
+                            continue;
+                        int leftCell = leftIdx * m_NumTags;
+                        int rightCell = rightIdx * m_NumTags;
+                        for (int live = leftCell, liveEnd = leftCell + liveCounts[leftIdx]; live < liveEnd; live++) {
+                            int leftTag = liveLabels[live];
+                            double leftBest = bestUnary[leftCell + leftTag];
+                            if (leftBest == Double.NEGATIVE_INFINITY)
+                                continue;
+                            double leftTerm = logInsideUnary[leftCell + leftTag] + leftBest - logZ;
+                            for (int r = leftOffsets[leftTag], rEnd = leftOffsets[leftTag + 1]; r < rEnd; r++) {
+                                int rightTag = leftRight[r];
+                                double rightBest = bestUnary[rightCell + rightTag];
+                                if (rightBest == Double.NEGATIVE_INFINITY)
+                                    continue;
+                                int parent = cell + leftParent[r];
+                                double score = leftScore[r] + logOutsideBinary[parent] + leftTerm
+                                        + logInsideUnary[rightCell + rightTag] + rightBest;
+                                int packed = CKYChart.packBinary(leftRule[r], split);
+                                if (score > bestBinary[parent] ||
+                                        (score == bestBinary[parent] && packed < binaryBack[parent])) {
+                                    bestBinary[parent] = score;
+                                    binaryBack[parent] = packed;
+                                }
+                            }
+                        }
+                    }
+                }
+
+                // A label may stay without a unary rule (reflexive, posterior 1)
+                // or take the closed unary with the best posterior
+                for (int live = cell, liveEnd = cell + liveCounts[cellIdx]; live < liveEnd; live++) {
+                    int tagIdx = liveLabels[live];
+                    double outsideTerm = logOutsideUnary[cell + tagIdx] - logZ;
+                    double best = bestBinary[cell + tagIdx];
+                    int back = -1;
+                    for (int u = unaryOffsets[tagIdx], uEnd = unaryOffsets[tagIdx + 1]; u < uEnd; u++) {
+                        int childIdx = unaryChild[u];
+                        if (childIdx == tagIdx)
+                            continue;
+                        double childBest = bestBinary[cell + childIdx];
+                        if (childBest == Double.NEGATIVE_INFINITY)
+                            continue;
+                        double score = unaryScore[u] + outsideTerm + logInsideBinary[cell + childIdx] + childBest;
+                        if (score > best) {
+                            best = score;
+                            back = u;
+                        }
+                    }
+                    bestUnary[cell + tagIdx] = best;
+                    unaryBack[cell + tagIdx] = back;
+                }
+            }
+        }
+
+        if (bestUnary[CKYChart.cellIndex(0, sentLen) * m_NumTags] == Double.NEGATIVE_INFINITY)
+            return null;
+        return decoder.decode(chart, 0, 0, sentLen);
+    }
+
+    // Replaces every score by its log probability, scale included
+    void toLogSpace(Workspace ws) {
+        if (ws.m_InLogSpace)
+            return;
+        int numCells = CKYChart.numCells(ws.m_SentLen);
+        for (int cellIdx = 0; cellIdx < numCells; cellIdx++) {
+            toLog(ws.m_InsideBinary, ws.m_InsideUnary, cellIdx * m_NumTags, ws.m_InsideScale[cellIdx]);
+            toLog(ws.m_OutsideBinary, ws.m_OutsideUnary, cellIdx * m_NumTags, ws.m_OutsideScale[cellIdx]);
+        }
+        ws.m_InLogSpace = true;
+    }
+
+    void toLog(double[] binary, double[] unary, int cell, int scale) {
+        double offset = scale == EMPTY ? 0.0 : LN2 * scale;
+        for (int tagIdx = 0; tagIdx < m_NumTags; tagIdx++) {
+            // Most entries are zero, which is cheaper to test than to log
+            double b = binary[cell + tagIdx], u = unary[cell + tagIdx];
+            binary[cell + tagIdx] = b == 0.0 ? Double.NEGATIVE_INFINITY : Math.log(b) + offset;
+            unary[cell + tagIdx] = u == 0.0 ? Double.NEGATIVE_INFINITY : Math.log(u) + offset;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Arrays;
+
+/**
+ * Integer counts keyed by long, without boxing: open addressing over a
+ * power-of-two table of entry numbers, the keys and counts themselves in
+ * arrays by entry. Entries are numbered in the order their keys were first
+ * counted, which is also the iteration order.
+ */
+public class LongCountMap {
+
+    long[]      m_Keys;
+    int[]       m_Counts;
+    int[]       m_Table;        // Entry + 1 per slot, 0 for an empty slot
+    int         m_Size;
+
+    public LongCountMap() {
+        m_Keys      = new long[16];
+        m_Counts    = new int[16];
+        m_Table     = new int[32];
+    }
+
+    // Fibonacci hashing, the keys pack small label indices in the low bits
+    int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (m_Table.length - 1);
+    }
+
+    /** Adds count to the key, returns the entry of the key */
+    public int add(long key, int count) {
+        int s = slot(key);
+        for (int e = m_Table[s]; e != 0; e = m_Table[s]) {
+            if (m_Keys[e - 1] == key) {
+                m_Counts[e - 1] += count;
+                return e - 1;
+            }
+            s = (s + 1) & (m_Table.length - 1);
+        }
+        if (m_Size == m_Keys.length) {
+            m_Keys = Arrays.copyOf(m_Keys, 2 * m_Size);
+            m_Counts = Arrays.copyOf(m_Counts, 2 * m_Size);
+        }
+        m_Keys[m_Size] = key;
+        m_Counts[m_Size] = count;
+        m_Table[s] = ++m_Size;
+        if (2 * m_Size > m_Table.length) {
+            rehash();
+        }
+        return m_Size - 1;
+    }
+
+    public int increment(long key) {
+        return add(key, 1);
+    }
+
+    /** The count of the key, 0 if it was never counted */
+    public int get(long key) {
+        int s = slot(key);
+        for (int e = m_Table[s]; e != 0; e = m_Table[s]) {
+            if (m_Keys[e - 1] == key)
+                return m_Counts[e - 1];
+            s = (s + 1) & (m_Table.length - 1);
+        }
+        return 0;
+    }
+
+    void rehash() {
+        m_Table = new int[2 * m_Table.length];
+        for (int e = 0; e < m_Size; e++) {
+            int s = slot(m_Keys[e]);
+            while (m_Table[s] != 0) {
+                s = (s + 1) & (m_Table.length - 1);
+            }
+            m_Table[s] = e + 1;
+        }
+    }
+
+    public int size() {
+        return m_Size;
+    }
+
+    public long key(int entry) {
+        return m_Keys[entry];
+    }
+
+    public int count(int entry) {
+        return m_Counts[entry];
+    }
+}
@@ -0,0 +1,96 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.ling.Trees;
+
+/**
+ * Binarization with horizontal and vertical Markovization of order h and v.
+ *
+ * Vertical: every phrasal label below ROOT carries the labels of its v-1
+ * nearest ancestors, NP^S for v=2 and NP^VP^S for v=3. Preterminals keep their
+ * labels, so the lexicon sees the same tags.
+ *
+ * Horizontal: the intermediate labels of a binarized node only remember the
+ * last h children generated, @NP->_DT_JJ for h=2 however many came before;
+ * with INFINITE they remember all of them. INFINITE,1 gives the trees of
+ * TreeAnnotations.annotateTreeLosslessBinarization, and
+ * TreeAnnotations.unAnnotateTree strips both annotations.
+ */
+public class MarkovAnnotator implements Trees.TreeTransformer<String> {
+
+    public static final int INFINITE = -1;
+
+    final int m_Horizontal;
+    final int m_Vertical;
+
+    public MarkovAnnotator(int horizontal, int vertical) {
+        if (vertical < 1) {
+            throw new IllegalArgumentException("Vertical order must be at least 1: " + vertical);
+        }
+        m_Horizontal    = horizontal < 0 ? INFINITE : horizontal;
+        m_Vertical      = vertical;
+    }
+
+    /** From "h,v", where h may be inf (as in data/scores.txt) */
+    public static MarkovAnnotator parse(String spec) {
+        String[] parts = spec.split(",");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Expected h,v: " + spec);
+        }
+        String h = parts[0].trim();
+        return new MarkovAnnotator(h.equals("inf") ? INFINITE : Integer.parseInt(h), Integer.parseInt(parts[1].trim()));
+    }
+
+    public Tree<String> transformTree(Tree<String> tree) {
+        return annotate(tree, Collections.<String>emptyList());
+    }
+
+    // Ancestors are the unannotated labels above the node, nearest first
+    Tree<String> annotate(Tree<String> tree, List<String> ancestors) {
+        String label = tree.getLabel();
+        if (tree.isLeaf())
+            return new Tree<String>(label);
+        if (tree.isPreTerminal())
+            return new Tree<String>(label, Collections.singletonList(new Tree<String>(tree.getChildren().get(0).getLabel())));
+
+        StringBuilder annotated = new StringBuilder(label);
+        for (int idx = 0; idx < m_Vertical - 1 && idx < ancestors.size(); idx++) {
+            annotated.append('^').append(ancestors.get(idx));
+        }
+        List<String> childAncestors = new ArrayList<String>(m_Vertical);
+        childAncestors.add(label);
+        childAncestors.addAll(ancestors.subList(0, Math.max(0, Math.min(ancestors.size(), m_Vertical - 2))));
+
+        List<Tree<String>> children = tree.getChildren();
+        if (children.size() == 1) {
+            return new Tree<String>(annotated.toString(),
+                    Collections.singletonList(annotate(children.get(0), childAncestors)));
+        }
+        Tree<String> intermediate = binarize(children, 0, "@" + annotated + "->", childAncestors);
+        return new Tree<String>(annotated.toString(), intermediate.getChildren());
+    }
+
+    // The intermediate node over children[generated...], as TreeAnnotations.binarizeTreeHelper
+    Tree<String> binarize(List<Tree<String>> children, int generated, String prefix, List<String> childAncestors) {
+        List<Tree<String>> kids = new ArrayList<Tree<String>>(2);
+        kids.add(annotate(children.get(generated), childAncestors));
+        if (generated < children.size() - 1) {
+            kids.add(binarize(children, generated + 1, prefix, childAncestors));
+        }
+        StringBuilder label = new StringBuilder(prefix);
+        int first = m_Horizontal == INFINITE ? 0 : Math.max(0, generated - m_Horizontal);
+        for (int idx = first; idx < generated; idx++) {
+            label.append('_').append(children.get(idx).getLabel());
+        }
+        return new Tree<String>(label.toString(), kids);
+    }
+
+    @Override
+    public String toString() {
+        return "h=" + (m_Horizontal == INFINITE ? "inf" : String.valueOf(m_Horizontal)) + ",v=" + m_Vertical;
+    }
+}
@@ -0,0 +1,301 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+import edu.berkeley.nlp.util.Indexer;
+
+/**
+ * Binary model file of a CKYParser: the labels, the binary rules and closed
+ * unary rules (with their paths) of the CompiledGrammar, and the score vectors
+ * of the CompiledLexicon. A parser read back from it parses exactly like the
+ * one that was written, without the treebank, Grammar, SimpleLexicon or
+ * UnaryClosure.
+ *
+ * Layout (big-endian): magic, version, the training configuration (see
+ * trainingConfig), then the sections in the order of write(). Arrays are an
+ * int length followed by the elements, strings are UTF-8 bytes with an int
+ * length. The by-child copies of the rules are not stored, CompiledGrammar
+ * rebuilds them. Version 1 files have no training configuration.
+ */
+public class ModelFile {
+
+    static final int    MAGIC   = 0x434B594D;       // "CKYM"
+    static final int    VERSION = 2;
+    static final int    MAX_CONFIG_LENGTH = 1 << 16;   // Bytes, for readConfig of a corrupt file
+
+    /** The settings of the tables of CKYParser(trainTrees), see settings */
+    public static final String DEFAULT_SETTINGS =
+            "annotator=" + new MarkovAnnotator(MarkovAnnotator.INFINITE, 1) + " minRuleCount=1";
+
+    /**
+     * What the tables were trained with: the annotator (see
+     * MarkovAnnotator.toString), the rule count pruning threshold and a
+     * fingerprint of the training trees. A model is only reused for the same
+     * configuration.
+     */
+    public static String trainingConfig(String annotator, int minRuleCount, List<Tree<String>> trainTrees) {
+        return "annotator=" + annotator + " minRuleCount=" + Math.max(1, minRuleCount)
+                + " trees=" + fingerprint(trainTrees);
+    }
+
+    /** The configuration of CKYParser(trainTrees) */
+    public static String defaultConfig(List<Tree<String>> trainTrees) {
+        return DEFAULT_SETTINGS + " trees=" + fingerprint(trainTrees);
+    }
+
+    /** The configuration without the trees fingerprint, null for null */
+    public static String settings(String config) {
+        if (config == null)
+            return null;
+        int trees = config.indexOf(" trees=");
+        return trees < 0 ? config : config.substring(0, trees);
+    }
+
+    /** Number of trees and a hash of their yields, in order */
+    static String fingerprint(List<Tree<String>> trees) {
+        long hash = 17;
+        for (Tree<String> tree : trees) {
+            for (String word : tree.getYield()) {
+                hash = 31 * hash + word.hashCode();
+            }
+            hash = 31 * hash + '\n';
+        }
+        return trees.size() + ":" + Long.toHexString(hash);
+    }
+
+    /** Writes the tables of a parser trained as CKYParser(trainTrees) */
+    public static void write(CKYParser parser, List<Tree<String>> trainTrees, String path) throws IOException {
+        write(parser, defaultConfig(trainTrees), path);
+    }
+
+    public static void write(CKYParser parser, String config, String path) throws IOException {
+        CompiledGrammar grammar = parser.m_Compiled;
+        CompiledLexicon lexicon = parser.m_Lexical;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, config);
+
+            Indexer<String> indexer = grammar.getLabelIndexer();
+            out.writeInt(indexer.size());
+            for (String label : indexer) {
+                writeString(out, label);
+            }
+
+            writeInts(out, grammar.m_ParentOffsets);
+            writeInts(out, grammar.m_BinaryLeft);
+            writeInts(out, grammar.m_BinaryRight);
+            writeDoubles(out, grammar.m_BinaryScore);
+
+            writeInts(out, grammar.m_UnaryOffsets);
+            writeInts(out, grammar.m_UnaryChild);
+            writeDoubles(out, grammar.m_UnaryScore);
+            int[][] paths = grammar.m_UnaryPaths;
+            int[] pathOffsets = new int[paths.length + 1];
+            for (int u = 0; u < paths.length; u++) {
+                pathOffsets[u + 1] = pathOffsets[u] + paths[u].length;
+            }
+            int[] pathLabels = new int[pathOffsets[paths.length]];
+            for (int u = 0; u < paths.length; u++) {
+                System.arraycopy(paths[u], 0, pathLabels, pathOffsets[u], paths[u].length);
+            }
+            writeInts(out, pathOffsets);
+            writeInts(out, pathLabels);
+
+            String[] words = lexicon.words();
+            out.writeInt(words.length);
+            for (String word : words) {
+                writeString(out, word);
+            }
+            writeInts(out, lexicon.m_Offsets);
+            writeInts(out, lexicon.m_Tags);
+            writeDoubles(out, lexicon.m_Scores);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * The training configuration stored in the file, null for a version 1
+     * file that has none.
+     */
+    public static String readConfig(String path) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 512));
+        try {
+            if (checkVersion(in.readInt(), in.readInt(), path) == 1)
+                return null;
+            int length = in.readInt();
+            if (length < 0 || length > MAX_CONFIG_LENGTH) {
+                throw new IOException("Corrupt model file: " + path);
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (EOFException e) {
+            throw new IOException("Corrupt model file: " + path, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    // Checks the magic and version, returns the training configuration
+    static String readHeader(ByteBuffer in, String path) throws IOException {
+        if (in.limit() < 8) {
+            throw new IOException("Not a CKY model file: " + path);
+        }
+        return checkVersion(in.getInt(), in.getInt(), path) == 1 ? null : readString(in);
+    }
+
+    static int checkVersion(int magic, int version, String path) throws IOException {
+        if (magic != MAGIC) {
+            throw new IOException("Not a CKY model file: " + path);
+        }
+        if (version != VERSION && version != 1) {
+            throw new IOException("Unsupported model version " + version + " (expected " + VERSION + "): " + path);
+        }
+        return version;
+    }
+
+    /**
+     * Maps the file and builds the parser from it. The tables are copied out of
+     * the mapping into the arrays the parser loops over, so the file can be
+     * replaced once the parser is built.
+     */
+    public static CKYParser read(String path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Model file too large: " + path);
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            readHeader(in, path);
+
+            Indexer<String> indexer = new Indexer<String>();
+            int numTags = in.getInt();
+            for (int tagIdx = 0; tagIdx < numTags; tagIdx++) {
+                indexer.add(readString(in));
+            }
+
+            int[] parentOffsets = readInts(in);
+            int[] binaryLeft    = readInts(in);
+            int[] binaryRight   = readInts(in);
+            double[] binaryScore = readDoubles(in);
+
+            int[] unaryOffsets  = readInts(in);
+            int[] unaryChild    = readInts(in);
+            double[] unaryScore = readDoubles(in);
+            int[] pathOffsets   = readInts(in);
+            int[] pathLabels    = readInts(in);
+            int[][] paths = new int[pathOffsets.length - 1][];
+            for (int u = 0; u < paths.length; u++) {
+                paths[u] = new int[pathOffsets[u + 1] - pathOffsets[u]];
+                System.arraycopy(pathLabels, pathOffsets[u], paths[u], 0, paths[u].length);
+            }
+
+            String[] words = new String[in.getInt()];
+            for (int wordId = 0; wordId < words.length; wordId++) {
+                words[wordId] = readString(in);
+            }
+            int[] lexOffsets    = readInts(in);
+            int[] lexTags       = readInts(in);
+            double[] lexScores  = readDoubles(in);
+
+            CompiledGrammar grammar = new CompiledGrammar(indexer, parentOffsets, binaryLeft, binaryRight, binaryScore,
+                    unaryOffsets, unaryChild, unaryScore, paths);
+            CompiledLexicon lexicon = new CompiledLexicon(words, lexOffsets, lexTags, lexScores);
+            return new CKYParser(grammar, lexicon);
+        } catch (RuntimeException e) {
+            // Buffer underflow or bad offsets: the file was cut or is not a model
+            throw new IOException("Corrupt model file: " + path, e);
+        } finally {
+            file.close();
+        }
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int[] readInts(ByteBuffer in) {
+        int[] values = new int[in.getInt()];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + 4 * values.length);
+        return values;
+    }
+
+    static double[] readDoubles(ByteBuffer in) {
+        double[] values = new double[in.getInt()];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + 8 * values.length);
+        return values;
+    }
+
+    /**
+     * Trains a CKYParser on the treebank and writes its model, or with -check
+     * reads the model back and reports the load time.
+     * Flags: -path, -maxTrainLength, -model, -check.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        String basePath = CommandLineUtils.getValueOrUseDefault(argMap, "-path", ".");
+        int maxTrainLength = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-maxTrainLength", "1000"));
+        String modelPath = CommandLineUtils.getValueOrUseDefault(argMap, "-model", "cky.model");
+
+        if (argMap.containsKey("-check")) {
+            long start = System.nanoTime();
+            CKYParser parser = read(modelPath);
+            System.out.format("Loaded %s in %d millis: %d labels, %d binary rules, %d closed unary rules, %d words, trained with %s\n",
+                    modelPath, (System.nanoTime() - start) / 1000000, parser.m_NumTags,
+                    parser.m_Compiled.getNumBinaryRules(), parser.m_Compiled.getNumUnaryRules(), parser.m_Lexical.getNumWords(),
+                    readConfig(modelPath));
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<Tree<String>> trainTrees = CoarseToFineParserFactory.readTrees(basePath, 200, 2199, maxTrainLength);
+        CKYParser parser = new CKYParser(trainTrees);
+        System.out.format("Trained on %d trees in %d millis\n", trainTrees.size(), (System.nanoTime() - start) / 1000000);
+        write(parser, trainTrees, modelPath);
+        System.out.println("Wrote " + modelPath);
+    }
+}
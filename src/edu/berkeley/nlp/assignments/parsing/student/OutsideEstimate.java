@@ -0,0 +1,146 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Arrays;
+
+/**
+ * SX outside estimates (Klein and Manning, A* parsing, 2003) for AStarParser:
+ * the best outside score of a label with left words to its left and right
+ * words to its right, over every sentence and every tagging of its words. The
+ * words are summarized by the best lexical score of each tag over the whole
+ * lexicon, unknown words included, so the estimate is never below the true
+ * outside score of an item: it is admissible, and consistent as well.
+ *
+ * Like the chart, the tables have a binary layer (items before the unary
+ * closure, including the tags over a word) and a unary layer (items after it),
+ * for contexts of left + right < maxLength words.
+ */
+public class OutsideEstimate {
+
+    final CompiledGrammar   m_Compiled;
+    final int               m_NumTags;
+    final int               m_MaxLength;
+
+    // Best inside scores over any length words, [length * numTags + label]
+    final double[]          m_InsideBinary;
+    final double[]          m_InsideUnary;
+
+    // Best outside scores, [context(left, right) * numTags + label]
+    final double[]          m_OutsideBinary;
+    final double[]          m_OutsideUnary;
+
+    public OutsideEstimate(CompiledGrammar compiled, CompiledLexicon lexical, int maxLength) {
+        m_Compiled  = compiled;
+        m_NumTags   = compiled.getNumTags();
+        m_MaxLength = maxLength;
+        long entries = (long) context(0, maxLength) * m_NumTags;
+        if (entries > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(
+                    "Estimates for %d words and %d labels do not fit in an array", maxLength, m_NumTags));
+        }
+        m_InsideBinary  = new double[(maxLength + 1) * m_NumTags];
+        m_InsideUnary   = new double[(maxLength + 1) * m_NumTags];
+        m_OutsideBinary = new double[(int) entries];
+        m_OutsideUnary  = new double[(int) entries];
+        computeInside(lexical);
+        computeOutside();
+    }
+
+    public int getMaxLength() {
+        return m_MaxLength;
+    }
+
+    // Contexts by increasing number of words, so parents come before children
+    static int context(int left, int right) {
+        int words = left + right;
+        return words * (words + 1) / 2 + left;
+    }
+
+    /** Estimate for the binary item of the label with left and right words around it */
+    public double outsideBinary(int tagIdx, int left, int right) {
+        return m_OutsideBinary[context(left, right) * m_NumTags + tagIdx];
+    }
+
+    /** Estimate for the unary item of the label with left and right words around it */
+    public double outsideUnary(int tagIdx, int left, int right) {
+        return m_OutsideUnary[context(left, right) * m_NumTags + tagIdx];
+    }
+
+    void computeInside(CompiledLexicon lexical) {
+        int[] binaryParent  = m_Compiled.m_BinaryParent;
+        int[] binaryLeft    = m_Compiled.m_BinaryLeft;
+        int[] binaryRight   = m_Compiled.m_BinaryRight;
+        double[] binaryScore = m_Compiled.m_BinaryScore;
+        Arrays.fill(m_InsideBinary, Double.NEGATIVE_INFINITY);
+        Arrays.fill(m_InsideUnary, Double.NEGATIVE_INFINITY);
+        for (int i = 0; i < lexical.m_Tags.length; i++) {
+            int entry = m_NumTags + lexical.m_Tags[i];
+            m_InsideBinary[entry] = Math.max(m_InsideBinary[entry], lexical.m_Scores[i]);
+        }
+        for (int length = 1; length <= m_MaxLength; length++) {
+            int cell = length * m_NumTags;
+            for (int r = 0; length > 1 && r < binaryScore.length; r++) {
+                double best = m_InsideBinary[cell + binaryParent[r]];
+                for (int leftLength = 1; leftLength < length; leftLength++) {
+                    double left = m_InsideUnary[leftLength * m_NumTags + binaryLeft[r]];
+                    double right = m_InsideUnary[(length - leftLength) * m_NumTags + binaryRight[r]];
+                    best = Math.max(best, binaryScore[r] + left + right);
+                }
+                m_InsideBinary[cell + binaryParent[r]] = best;
+            }
+            closeUnary(m_InsideBinary, m_InsideUnary, cell);
+        }
+    }
+
+    // Unary layer of the cell from its binary layer, through the closed rules
+    void closeUnary(double[] binary, double[] unary, int cell) {
+        for (int u = 0; u < m_Compiled.m_UnaryScore.length; u++) {
+            int parent = cell + m_Compiled.m_UnaryParent[u];
+            unary[parent] = Math.max(unary[parent], m_Compiled.m_UnaryScore[u] + binary[cell + m_Compiled.m_UnaryChild[u]]);
+        }
+    }
+
+    void computeOutside() {
+        int[] binaryParent  = m_Compiled.m_BinaryParent;
+        int[] binaryLeft    = m_Compiled.m_BinaryLeft;
+        int[] binaryRight   = m_Compiled.m_BinaryRight;
+        double[] binaryScore = m_Compiled.m_BinaryScore;
+        Arrays.fill(m_OutsideBinary, Double.NEGATIVE_INFINITY);
+        Arrays.fill(m_OutsideUnary, Double.NEGATIVE_INFINITY);
+        m_OutsideUnary[0] = 0.0;        // ROOT over the whole sentence
+
+        for (int words = 0; words < m_MaxLength; words++) {
+            for (int left = 0; left <= words; left++) {
+                int right = words - left;
+                int cell = context(left, right) * m_NumTags;
+                // Unary items are the children of binary items with fewer words around
+                for (int r = 0; r < binaryScore.length; r++) {
+                    int parent = binaryParent[r];
+                    // Left child: the sibling covers the first k of the words on the right
+                    double best = m_OutsideUnary[cell + binaryLeft[r]];
+                    for (int k = 1; k <= right; k++) {
+                        double outside = m_OutsideBinary[context(left, right - k) * m_NumTags + parent];
+                        best = Math.max(best, outside + binaryScore[r] + m_InsideUnary[k * m_NumTags + binaryRight[r]]);
+                    }
+                    m_OutsideUnary[cell + binaryLeft[r]] = best;
+                    // Right child: the sibling covers the last k of the words on the left
+                    best = m_OutsideUnary[cell + binaryRight[r]];
+                    for (int k = 1; k <= left; k++) {
+                        double outside = m_OutsideBinary[context(left - k, right) * m_NumTags + parent];
+                        best = Math.max(best, outside + binaryScore[r] + m_InsideUnary[k * m_NumTags + binaryLeft[r]]);
+                    }
+                    m_OutsideUnary[cell + binaryRight[r]] = best;
+                }
+                // Binary items are the children of the unary items of the same context
+                for (int u = 0; u < m_Compiled.m_UnaryScore.length; u++) {
+                    int child = cell + m_Compiled.m_UnaryChild[u];
+                    m_OutsideBinary[child] = Math.max(m_OutsideBinary[child],
+                            m_OutsideUnary[cell + m_Compiled.m_UnaryParent[u]] + m_Compiled.m_UnaryScore[u]);
+                }
+            }
+        }
+    }
+
+    public long sizeInBytes() {
+        return 8L * (m_InsideBinary.length + m_InsideUnary.length + m_OutsideBinary.length + m_OutsideUnary.length);
+    }
+}
@@ -0,0 +1,89 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event of one CKYParser.getBestParse call, with the counters
+ * of its ParseStats. Recorded while a flight recording is running, for
+ * instance with -XX:StartFlightRecording:filename=parse.jfr.
+ */
+@Name("edu.berkeley.nlp.Parse")
+@Label("CKY Parse")
+@Category("Parsing")
+@Description("One sentence parsed by CKYParser")
+public class ParseEvent extends Event {
+
+    @Label("Sentence Length")
+    int sentenceLength;
+
+    @Label("Lexical")
+    @Timespan(Timespan.NANOSECONDS)
+    long lexicalNanos;
+
+    @Label("Binary")
+    @Timespan(Timespan.NANOSECONDS)
+    long binaryNanos;
+
+    @Label("Unary")
+    @Timespan(Timespan.NANOSECONDS)
+    long unaryNanos;
+
+    @Label("Decode")
+    @Timespan(Timespan.NANOSECONDS)
+    long decodeNanos;
+
+    @Label("Chart Size")
+    @DataAmount
+    long chartBytes;
+
+    @Label("Binary Attempts")
+    long binaryAttempts;
+
+    @Label("Binary Improved")
+    long binaryImproved;
+
+    @Label("Unary Attempts")
+    long unaryAttempts;
+
+    @Label("Unary Improved")
+    long unaryImproved;
+
+    @Label("Finite Labels")
+    long finiteLabels;
+
+    @Label("Max Finite Labels")
+    int maxFiniteLabels;
+
+    @Label("Masked")
+    boolean masked;
+
+    @Label("Fallback")
+    boolean fallback;
+
+    @Label("Junk")
+    boolean junk;
+
+    void set(ParseStats stats) {
+        sentenceLength  = stats.getSentenceLength();
+        lexicalNanos    = stats.m_LexicalNanos;
+        binaryNanos     = stats.m_BinaryNanos;
+        unaryNanos      = stats.m_UnaryNanos;
+        decodeNanos     = stats.m_DecodeNanos;
+        chartBytes      = stats.m_ChartBytes;
+        binaryAttempts  = stats.m_BinaryAttempts;
+        binaryImproved  = stats.m_BinaryImproved;
+        unaryAttempts   = stats.m_UnaryAttempts;
+        unaryImproved   = stats.m_UnaryImproved;
+        finiteLabels    = stats.m_FiniteLabels;
+        maxFiniteLabels = stats.m_MaxFiniteLabels;
+        masked          = stats.m_Masked;
+        fallback        = stats.m_Fallback;
+        junk            = stats.m_Junk;
+    }
+}
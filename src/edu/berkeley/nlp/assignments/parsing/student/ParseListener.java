@@ -0,0 +1,10 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+/**
+ * Receives the counters of every sentence parsed by a CKYParser it is added
+ * to. Called on the parsing thread, possibly from several threads at once.
+ */
+public interface ParseListener {
+
+    void sentenceParsed(ParseStats stats);
+}
@@ -0,0 +1,139 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ParseListener keeping totals over all the sentences, and the slowest
+ * sentence of each reporting period so the outliers can be looked at. With
+ * startReporting, a summary line is printed periodically.
+ */
+public class ParseMetrics implements ParseListener {
+
+    final LongAdder     m_Sentences         = new LongAdder();
+    final LongAdder     m_Words             = new LongAdder();
+    final LongAdder     m_Junk              = new LongAdder();
+    final LongAdder     m_Fallbacks         = new LongAdder();
+    final LongAdder     m_Masked            = new LongAdder();
+    final LongAdder     m_LexicalNanos      = new LongAdder();
+    final LongAdder     m_BinaryNanos       = new LongAdder();
+    final LongAdder     m_UnaryNanos        = new LongAdder();
+    final LongAdder     m_DecodeNanos       = new LongAdder();
+    final LongAdder     m_TotalNanos        = new LongAdder();
+    final LongAdder     m_BinaryAttempts    = new LongAdder();
+    final LongAdder     m_BinaryImproved    = new LongAdder();
+    final LongAdder     m_UnaryAttempts     = new LongAdder();
+    final LongAdder     m_UnaryImproved     = new LongAdder();
+    final LongAdder     m_Cells             = new LongAdder();
+    final LongAdder     m_FiniteLabels      = new LongAdder();
+    final AtomicLong    m_MaxChartBytes     = new AtomicLong();
+    final AtomicReference<ParseStats> m_Slowest = new AtomicReference<ParseStats>();
+
+    ScheduledExecutorService m_Reporter;
+
+    public void sentenceParsed(ParseStats stats) {
+        m_Sentences.increment();
+        m_Words.add(stats.getSentenceLength());
+        if (stats.m_Junk) m_Junk.increment();
+        if (stats.m_Fallback) m_Fallbacks.increment();
+        if (stats.m_Masked) m_Masked.increment();
+        m_LexicalNanos.add(stats.m_LexicalNanos);
+        m_BinaryNanos.add(stats.m_BinaryNanos);
+        m_UnaryNanos.add(stats.m_UnaryNanos);
+        m_DecodeNanos.add(stats.m_DecodeNanos);
+        m_TotalNanos.add(stats.m_TotalNanos);
+        m_BinaryAttempts.add(stats.m_BinaryAttempts);
+        m_BinaryImproved.add(stats.m_BinaryImproved);
+        m_UnaryAttempts.add(stats.m_UnaryAttempts);
+        m_UnaryImproved.add(stats.m_UnaryImproved);
+        m_Cells.add(stats.m_Cells);
+        m_FiniteLabels.add(stats.m_FiniteLabels);
+        long bytes = stats.m_ChartBytes;
+        for (long max = m_MaxChartBytes.get(); bytes > max; max = m_MaxChartBytes.get()) {
+            if (m_MaxChartBytes.compareAndSet(max, bytes))
+                break;
+        }
+        for (ParseStats slowest = m_Slowest.get(); slowest == null || stats.m_TotalNanos > slowest.m_TotalNanos; slowest = m_Slowest.get()) {
+            if (m_Slowest.compareAndSet(slowest, stats))
+                break;
+        }
+    }
+
+    public long getSentences() {
+        return m_Sentences.sum();
+    }
+
+    public long getJunk() {
+        return m_Junk.sum();
+    }
+
+    public long getMaxChartBytes() {
+        return m_MaxChartBytes.get();
+    }
+
+    /** The slowest sentence since the last call, and starts a new period */
+    public ParseStats takeSlowest() {
+        return m_Slowest.getAndSet(null);
+    }
+
+    public String summary() {
+        long sentences = m_Sentences.sum();
+        long cells = m_Cells.sum();
+        long binaryAttempts = m_BinaryAttempts.sum(), unaryAttempts = m_UnaryAttempts.sum();
+        return String.format("%d sentences (%d words), %.2f ms per sentence: lexical %.1f%%, binary %.1f%%, unary %.1f%%, decode %.1f%%; " +
+                        "binary rules improving %.1f%% of %d, unary %.1f%% of %d; %.1f finite labels per cell; " +
+                        "peak chart %d bytes; %d JUNK, %d fallbacks, %d masked",
+                sentences, m_Words.sum(), sentences == 0 ? 0.0 : m_TotalNanos.sum() / 1e6 / sentences,
+                percent(m_LexicalNanos.sum(), m_TotalNanos.sum()), percent(m_BinaryNanos.sum(), m_TotalNanos.sum()),
+                percent(m_UnaryNanos.sum(), m_TotalNanos.sum()), percent(m_DecodeNanos.sum(), m_TotalNanos.sum()),
+                percent(m_BinaryImproved.sum(), binaryAttempts), binaryAttempts,
+                percent(m_UnaryImproved.sum(), unaryAttempts), unaryAttempts,
+                cells == 0 ? 0.0 : (double) m_FiniteLabels.sum() / cells,
+                m_MaxChartBytes.get(), m_Junk.sum(), m_Fallbacks.sum(), m_Masked.sum());
+    }
+
+    static double percent(long part, long total) {
+        return total == 0 ? 0.0 : 100.0 * part / total;
+    }
+
+    /**
+     * Prints the summary and the slowest sentence of the period every
+     * periodMillis on a daemon thread, until stopReporting.
+     */
+    public synchronized void startReporting(long periodMillis, final PrintStream out) {
+        stopReporting();
+        m_Reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "parse-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        m_Reporter.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                report(out);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReporting() {
+        if (m_Reporter != null) {
+            m_Reporter.shutdownNow();
+            m_Reporter = null;
+        }
+    }
+
+    public void report(PrintStream out) {
+        out.println(summary());
+        ParseStats slowest = takeSlowest();
+        if (slowest != null) {
+            out.println("Slowest: " + slowest);
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.berkeley.nlp.assignments.parsing.Parser;
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+/**
+ * Long-running parse service around one thread-safe Parser, trained or read
+ * from a ModelFile once at startup.
+ *
+ * Line protocol, UTF-8, over stdin/stdout or a local socket:
+ *   request:  id TAB sentence             (tokens separated by spaces)
+ *             id TAB millis TAB sentence  (with its own deadline)
+ *   response: id TAB tree                 (bracketed, one line)
+ *             id TAB ERROR message        (empty or too long sentence, deadline passed, parser failure)
+ * Responses are written as the sentences finish, not in request order.
+ *
+ * Requests wait in a bounded queue; a reader blocks when it is full, which
+ * pushes back on the client. A dispatcher drains the queue into micro-batches,
+ * groups them by sentence length and splits each group among the workers, so
+ * every worker parses sentences of similar length in a row. A request whose
+ * deadline passed before a worker got to it is answered with an error instead
+ * of being parsed.
+ */
+public class ParseServer {
+
+    static final String     ERROR = "ERROR ";
+
+    /**
+     * Where the answers of one input stream go. A socket is closed once its
+     * input ended and every request read from it was answered.
+     */
+    static class Client {
+        final PrintWriter   m_Out;
+        final Closeable     m_Connection;       // null for stdin/stdout
+        int                 m_Pending;
+        boolean             m_InputDone;
+
+        Client(OutputStream out, Closeable connection) {
+            m_Out           = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            m_Connection    = connection;
+        }
+
+        synchronized void accepted() {
+            m_Pending++;
+        }
+
+        synchronized void respond(String id, String answer, boolean pending) {
+            m_Out.print(id);
+            m_Out.print('\t');
+            m_Out.print(answer);
+            m_Out.print('\n');
+            m_Out.flush();
+            if (pending) {
+                m_Pending--;
+                closeIfDone();
+            }
+        }
+
+        synchronized void inputDone() {
+            m_InputDone = true;
+            closeIfDone();
+        }
+
+        void closeIfDone() {
+            if (m_InputDone && m_Pending == 0 && m_Connection != null) {
+                try {
+                    m_Connection.close();
+                } catch (IOException e) {
+                    // The client went away, nothing left to send
+                }
+            }
+        }
+    }
+
+    /** One sentence to parse and where its answer goes */
+    static class Request {
+        final String        m_Id;
+        final List<String>  m_Sentence;
+        final long          m_Deadline;         // System.nanoTime() limit, 0 for none
+        final Client        m_Client;
+
+        Request(String id, List<String> sentence, long deadline, Client client) {
+            m_Id        = id;
+            m_Sentence  = sentence;
+            m_Deadline  = deadline;
+            m_Client    = client;
+        }
+    }
+
+    // Put in the queue when the input ends, the dispatcher stops on it
+    static final Request    END = new Request(null, null, 0, null);
+
+    final Parser                    m_Parser;
+    final BlockingQueue<Request>    m_Queue;
+    final ExecutorService           m_Workers;
+    final int                       m_Threads;
+    final Semaphore                 m_InFlight;         // Batches handed to the workers and not done
+    final int                       m_MaxBatch;
+    final long                      m_BatchWaitNanos;
+    final int                       m_BucketWidth;
+    final long                      m_DeadlineNanos;    // Default deadline of a request, 0 for none
+    final int                       m_MaxLength;
+
+    final AtomicLong                m_Parsed    = new AtomicLong();
+    final AtomicLong                m_Expired   = new AtomicLong();
+    final AtomicLong                m_Rejected  = new AtomicLong();
+    final AtomicLong                m_Batches   = new AtomicLong();     // Worker tasks
+
+    public ParseServer(Parser parser, int threads, int queueSize, int maxBatch, long batchWaitMillis,
+                       int bucketWidth, long deadlineMillis, int maxLength) {
+        m_Parser            = parser;
+        m_Queue             = new ArrayBlockingQueue<Request>(queueSize);
+        m_Workers           = Executors.newFixedThreadPool(threads);
+        m_Threads           = Math.max(1, threads);
+        m_InFlight          = new Semaphore(2 * threads);
+        m_MaxBatch          = maxBatch;
+        m_BatchWaitNanos    = TimeUnit.MILLISECONDS.toNanos(batchWaitMillis);
+        m_BucketWidth       = Math.max(1, bucketWidth);
+        m_DeadlineNanos     = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        m_MaxLength         = maxLength;
+    }
+
+    /**
+     * Reads requests from the stream until it ends, answering to the client.
+     * Blocks while the queue is full. Bad lines are answered right away.
+     */
+    public void serve(InputStream in, Client client) throws IOException, InterruptedException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                Request request = parseRequest(line, client);
+                if (request != null) {
+                    client.accepted();
+                    m_Queue.put(request);
+                }
+            }
+        } finally {
+            client.inputDone();
+        }
+    }
+
+    Request parseRequest(String line, Client client) {
+        String[] fields = line.split("\t", -1);
+        String id = fields[0];
+        long deadline = m_DeadlineNanos;
+        String text;
+        if (fields.length == 2) {
+            text = fields[1];
+        } else if (fields.length == 3) {
+            try {
+                deadline = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(fields[1].trim()));
+            } catch (NumberFormatException e) {
+                return reject(id, "bad deadline: " + fields[1], client);
+            }
+            text = fields[2];
+        } else {
+            return reject(id, "expected id<TAB>sentence", client);
+        }
+        List<String> sentence = text.trim().isEmpty() ?
+                Collections.<String>emptyList() : Arrays.asList(text.trim().split(" +"));
+        if (sentence.isEmpty()) {
+            return reject(id, "empty sentence", client);
+        }
+        if (sentence.size() > m_MaxLength) {
+            return reject(id, "sentence too long: " + sentence.size() + " > " + m_MaxLength, client);
+        }
+        return new Request(id, sentence, deadline > 0 ? System.nanoTime() + deadline : 0, client);
+    }
+
+    Request reject(String id, String message, Client client) {
+        m_Rejected.incrementAndGet();
+        client.respond(id, ERROR + message, false);
+        return null;
+    }
+
+    /**
+     * Dispatcher loop: waits for a request, collects up to m_MaxBatch of them
+     * for at most the batch wait, and submits them grouped by length. Returns
+     * once END is taken and every batch is done.
+     */
+    public void dispatch() throws InterruptedException {
+        List<Request> batch = new ArrayList<Request>();
+        boolean ended = false;
+        while (!ended) {
+            Request first = m_Queue.take();
+            if (first == END)
+                break;
+            batch.add(first);
+            long until = System.nanoTime() + m_BatchWaitNanos;
+            while (batch.size() < m_MaxBatch) {
+                Request next = m_Queue.poll(until - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (next == null)
+                    break;
+                if (next == END) {
+                    ended = true;
+                    break;
+                }
+                batch.add(next);
+            }
+            submitByLength(batch);
+            batch = new ArrayList<Request>();
+        }
+        m_Workers.shutdown();
+        m_Workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Longest first, the requests of a length bucket split into one task per
+     * worker, so a batch of similar lengths still uses every worker and each
+     * task parses sentences of similar length in a row.
+     */
+    void submitByLength(List<Request> batch) throws InterruptedException {
+        Collections.sort(batch, new Comparator<Request>() {
+            public int compare(Request a, Request b) {
+                return b.m_Sentence.size() - a.m_Sentence.size();
+            }
+        });
+        int from = 0;
+        while (from < batch.size()) {
+            int bucket = batch.get(from).m_Sentence.size() / m_BucketWidth;
+            int to = from + 1;
+            while (to < batch.size() && batch.get(to).m_Sentence.size() / m_BucketWidth == bucket) {
+                to++;
+            }
+            int chunk = (to - from + m_Threads - 1) / m_Threads;
+            for (int chunkFrom = from; chunkFrom < to; chunkFrom += chunk) {
+                submit(batch.subList(chunkFrom, Math.min(to, chunkFrom + chunk)));
+            }
+            from = to;
+        }
+    }
+
+    void submit(final List<Request> group) throws InterruptedException {
+        m_InFlight.acquire();
+        m_Batches.incrementAndGet();
+        m_Workers.execute(new Runnable() {
+            public void run() {
+                VirtualMachineError fatal = null;
+                try {
+                    for (Request request : group) {
+                        try {
+                            parse(request);
+                        } catch (VirtualMachineError e) {
+                            // Answered already, the rest of the group still is
+                            if (fatal == null) fatal = e;
+                        }
+                    }
+                } finally {
+                    m_InFlight.release();
+                }
+                if (fatal != null) throw fatal;
+            }
+        });
+    }
+
+    /**
+     * Answers the request whatever happens: a failure of the parser, Errors
+     * included, answers ERROR. A VirtualMachineError is thrown again once
+     * answered.
+     */
+    void parse(Request request) {
+        if (request.m_Deadline != 0 && System.nanoTime() > request.m_Deadline) {
+            m_Expired.incrementAndGet();
+            request.m_Client.respond(request.m_Id, ERROR + "deadline exceeded", true);
+            return;
+        }
+        String answer;
+        VirtualMachineError fatal = null;
+        try {
+            Tree<String> tree = m_Parser.getBestParse(request.m_Sentence);
+            answer = tree.toString();
+            m_Parsed.incrementAndGet();
+        } catch (Throwable e) {
+            // Long inputs may run out of memory or stack, the client waits all the same
+            answer = ERROR + e;
+            if (e instanceof VirtualMachineError) fatal = (VirtualMachineError) e;
+        }
+        request.m_Client.respond(request.m_Id, answer, true);
+        if (fatal != null) throw fatal;
+    }
+
+    /** Makes the dispatcher finish the queued requests and return */
+    public void end() throws InterruptedException {
+        m_Queue.put(END);
+    }
+
+    public void printStats() {
+        System.err.format("Parsed %d sentences in %d worker tasks, %d past their deadline, %d rejected\n",
+                m_Parsed.get(), m_Batches.get(), m_Expired.get(), m_Rejected.get());
+    }
+
+    static Parser loadParser(Map<String, String> argMap) throws IOException {
+        String modelPath = argMap.get("-model");
+        if (modelPath != null && new File(modelPath).exists()
+                && ModelFile.DEFAULT_SETTINGS.equals(ModelFile.settings(ModelFile.readConfig(modelPath)))) {
+            System.err.println("Reading CKYParser from " + modelPath);
+            return ModelFile.read(modelPath);
+        }
+        String basePath = CommandLineUtils.getValueOrUseDefault(argMap, "-path", ".");
+        int maxTrainLength = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-maxTrainLength", "1000"));
+        List<Tree<String>> trainTrees = CoarseToFineParserFactory.readTrees(basePath, 200, 2199, maxTrainLength);
+        CKYParser parser = new CKYParser(trainTrees);
+        if (modelPath != null) {
+            ModelFile.write(parser, trainTrees, modelPath);
+        }
+        return parser;
+    }
+
+    /**
+     * Flags: -model (read when trained with ModelFile.DEFAULT_SETTINGS, whatever
+     * its trees since the server starts without the treebank, or written after
+     * training on -path), -path, -maxTrainLength, -port (local socket,
+     * stdin/stdout without it), -threads,
+     * -queue, -batch, -batchWait (millis), -bucket (length bucket width),
+     * -deadline (default millis per request, 0 for none), -maxLength,
+     * -report (seconds between ParseMetrics summaries, 0 for none).
+     * Log lines go to stderr, stdout only carries responses.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+        int threads = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-threads", "" + Runtime.getRuntime().availableProcessors()));
+        int queueSize = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-queue", "1024"));
+        int maxBatch = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-batch", "64"));
+        long batchWait = Long.parseLong(CommandLineUtils.getValueOrUseDefault(argMap, "-batchWait", "5"));
+        int bucketWidth = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-bucket", "5"));
+        long deadline = Long.parseLong(CommandLineUtils.getValueOrUseDefault(argMap, "-deadline", "0"));
+        int maxLength = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(argMap, "-maxLength", "" + CKYChart.MAX_SENTENCE_LENGTH));
+        long reportSeconds = Long.parseLong(CommandLineUtils.getValueOrUseDefault(argMap, "-report", "60"));
+
+        // The parser prints progress on stdout, which is the response channel
+        OutputStream stdout = System.out;
+        System.setOut(System.err);
+
+        Parser parser = loadParser(argMap);
+        ParseMetrics metrics = new ParseMetrics();
+        if (reportSeconds > 0 && parser instanceof CKYParser) {
+            ((CKYParser) parser).addListener(metrics);
+            metrics.startReporting(TimeUnit.SECONDS.toMillis(reportSeconds), System.err);
+        }
+        final ParseServer server = new ParseServer(parser, threads, queueSize, maxBatch, batchWait,
+                bucketWidth, deadline, Math.min(maxLength, CKYChart.MAX_SENTENCE_LENGTH));
+        Thread dispatcher = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.dispatch();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "parse-dispatcher");
+        dispatcher.start();
+
+        if (!argMap.containsKey("-port")) {
+            server.serve(System.in, new Client(stdout, null));
+            server.end();
+            dispatcher.join();
+            server.printStats();
+            if (metrics.getSentences() > 0) {
+                metrics.stopReporting();
+                metrics.report(System.err);
+            }
+            return;
+        }
+
+        int port = Integer.parseInt(argMap.get("-port"));
+        ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        System.err.println("Listening on " + serverSocket.getLocalSocketAddress());
+        while (true) {
+            final Socket socket = serverSocket.accept();
+            Thread connection = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        server.serve(socket.getInputStream(), new Client(socket.getOutputStream(), socket));
+                    } catch (IOException e) {
+                        System.err.println("Connection " + socket.getRemoteSocketAddress() + ": " + e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "parse-connection");
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+}
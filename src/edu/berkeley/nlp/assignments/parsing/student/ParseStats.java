@@ -0,0 +1,147 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.List;
+
+/**
+ * Counters of one CKYParser.getBestParse call, handed to the ParseListeners.
+ *
+ * Binary and unary times are summed over the cells, so with the diagonals
+ * filled in parallel they add up the time of every thread. When the beam
+ * fallback parses the sentence twice, all the counters cover both passes.
+ */
+public class ParseStats {
+
+    final List<String>  m_Sentence;
+    int                 m_Passes;
+    long                m_LexicalNanos;
+    long                m_BinaryNanos;
+    long                m_UnaryNanos;
+    long                m_DecodeNanos;
+    long                m_TotalNanos;
+    long                m_ChartBytes;
+    long                m_BinaryAttempts;
+    long                m_BinaryImproved;
+    long                m_UnaryAttempts;
+    long                m_UnaryImproved;
+    long                m_Cells;
+    long                m_FiniteLabels;
+    int                 m_MaxFiniteLabels;
+    boolean             m_Masked;
+    boolean             m_Fallback;
+    boolean             m_Junk;
+
+    ParseStats(List<String> sentence) {
+        m_Sentence = sentence;
+    }
+
+    // Adds the cell counters of a filled chart
+    void addChart(CKYChart chart) {
+        m_Passes++;
+        m_ChartBytes = Math.max(m_ChartBytes, chart.sizeInBytes());
+        long[] cellStats = chart.m_CellStats;
+        int numCells = CKYChart.numCells(chart.m_SentLen);
+        for (int cellIdx = 0; cellIdx < numCells; cellIdx++) {
+            int c = cellIdx * CKYChart.CELL_STATS;
+            m_BinaryAttempts    += cellStats[c + CKYChart.BINARY_ATTEMPTS];
+            m_BinaryImproved    += cellStats[c + CKYChart.BINARY_IMPROVED];
+            m_UnaryAttempts     += cellStats[c + CKYChart.UNARY_ATTEMPTS];
+            m_UnaryImproved     += cellStats[c + CKYChart.UNARY_IMPROVED];
+            m_BinaryNanos       += cellStats[c + CKYChart.BINARY_NANOS];
+            m_UnaryNanos        += cellStats[c + CKYChart.UNARY_NANOS];
+            int finite = chart.m_LiveCounts[cellIdx];
+            m_FiniteLabels      += finite;
+            m_MaxFiniteLabels   = Math.max(m_MaxFiniteLabels, finite);
+        }
+        m_Cells += numCells;
+    }
+
+    public List<String> getSentence() {
+        return m_Sentence;
+    }
+
+    public int getSentenceLength() {
+        return m_Sentence.size();
+    }
+
+    /** Chart fills, 2 when the beam fallback parsed the sentence again */
+    public int getPasses() {
+        return m_Passes;
+    }
+
+    public long getLexicalNanos() {
+        return m_LexicalNanos;
+    }
+
+    public long getBinaryNanos() {
+        return m_BinaryNanos;
+    }
+
+    public long getUnaryNanos() {
+        return m_UnaryNanos;
+    }
+
+    public long getDecodeNanos() {
+        return m_DecodeNanos;
+    }
+
+    /** Wall time of the whole call, un-annotation included */
+    public long getTotalNanos() {
+        return m_TotalNanos;
+    }
+
+    public long getChartBytes() {
+        return m_ChartBytes;
+    }
+
+    public long getBinaryAttempts() {
+        return m_BinaryAttempts;
+    }
+
+    public long getBinaryImproved() {
+        return m_BinaryImproved;
+    }
+
+    public long getUnaryAttempts() {
+        return m_UnaryAttempts;
+    }
+
+    public long getUnaryImproved() {
+        return m_UnaryImproved;
+    }
+
+    public long getCells() {
+        return m_Cells;
+    }
+
+    /** Labels left with a finite score, summed over the cells (after the beam) */
+    public long getFiniteLabels() {
+        return m_FiniteLabels;
+    }
+
+    public int getMaxFiniteLabels() {
+        return m_MaxFiniteLabels;
+    }
+
+    public boolean isMasked() {
+        return m_Masked;
+    }
+
+    public boolean isFallback() {
+        return m_Fallback;
+    }
+
+    public boolean isJunk() {
+        return m_Junk;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d words: %.2f ms (lexical %.2f, binary %.2f, unary %.2f, decode %.2f), " +
+                        "binary %d/%d, unary %d/%d improving/attempted, %.1f finite labels per cell (max %d), %d chart bytes%s%s%s",
+                getSentenceLength(), m_TotalNanos / 1e6, m_LexicalNanos / 1e6, m_BinaryNanos / 1e6,
+                m_UnaryNanos / 1e6, m_DecodeNanos / 1e6, m_BinaryImproved, m_BinaryAttempts,
+                m_UnaryImproved, m_UnaryAttempts, m_Cells == 0 ? 0.0 : (double) m_FiniteLabels / m_Cells,
+                m_MaxFiniteLabels, m_ChartBytes, m_Masked ? ", masked" : "",
+                m_Fallback ? ", fallback" : "", m_Junk ? ", JUNK" : "");
+    }
+}
@@ -0,0 +1,235 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.berkeley.nlp.assignments.parsing.Parser;
+import edu.berkeley.nlp.ling.Tree;
+
+/**
+ * Parser in front of another one that bounds the chart of every sentence. The
+ * budget in bytes gives the longest sentence whose chart of double scores fits
+ * (CKYChart.sizeInBytes); a longer sentence is cut into segments of at most
+ * that many words, which are parsed independently and stitched back under one
+ * ROOT, the children of the ROOT of each segment in order. The time of a
+ * sentence is then linear in its length instead of cubic.
+ *
+ * Cuts go after punctuation (, ; : -- ...) or before a coordinator (and, or,
+ * but, nor), at the last such boundary that keeps the segment within the
+ * limit, and at the limit itself when the segment has none. A segment is
+ * rarely a sentence on its own: when no ROOT covers it, its tree is the best
+ * label over its words (CKYParser.getBestFragmentParse), and when none does,
+ * its words go under a flat FRAG, so the stitched tree always covers the whole
+ * sentence. parse tells whether a sentence was segmented.
+ */
+public class SegmentingParser implements Parser {
+
+    static final Set<String> PUNCTUATION  = new HashSet<String>(Arrays.asList(
+            ",", ";", ":", "--", "-", "...", ".", "?", "!"));
+    static final Set<String> COORDINATORS = new HashSet<String>(Arrays.asList(
+            "and", "or", "but", "nor"));
+
+    final Parser            m_Parser;
+    final CKYParser         m_Fragments;
+    final long              m_MaxChartBytes;
+    final int               m_MaxLength;
+
+    // Segments of one sentence are parsed in parallel, off unless a pool is set
+    volatile ExecutorService m_Pool;
+
+    final AtomicLong        m_Sentences     = new AtomicLong();
+    final AtomicLong        m_Segmented     = new AtomicLong();
+    final AtomicLong        m_Segments      = new AtomicLong();
+    final AtomicLong        m_Fragmented    = new AtomicLong();     // Segments without a ROOT
+
+    /** A parse and the end positions of its segments, one segment when not segmented */
+    public static class Result {
+        final Tree<String>  m_Tree;
+        final int[]         m_Ends;
+
+        Result(Tree<String> tree, int[] ends) {
+            m_Tree  = tree;
+            m_Ends  = ends;
+        }
+
+        public Tree<String> getTree() {
+            return m_Tree;
+        }
+
+        public int[] getSegmentEnds() {
+            return m_Ends;
+        }
+
+        public boolean isSegmented() {
+            return m_Ends.length > 1;
+        }
+    }
+
+    public SegmentingParser(CKYParser parser, long maxChartBytes) {
+        this(parser, parser, maxChartBytes);
+    }
+
+    /**
+     * For any parser over the grammar of the CKYParser, which sizes the charts
+     * and parses the segments that parser cannot cover with a ROOT as
+     * fragments (CKYParser.getBestFragmentParse).
+     */
+    public SegmentingParser(Parser parser, CKYParser grammar, long maxChartBytes) {
+        m_Parser        = parser;
+        m_Fragments     = grammar;
+        m_MaxChartBytes = maxChartBytes;
+        m_MaxLength     = maxLength(grammar.m_NumTags, maxChartBytes);
+        if (m_MaxLength < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "A chart budget of %d bytes does not fit one word of %d labels", maxChartBytes, grammar.m_NumTags));
+        }
+    }
+
+    /** Longest sentence whose chart fits the budget */
+    public static int maxLength(int numTags, long maxChartBytes) {
+        int length = 0;
+        while (length < CKYChart.MAX_SENTENCE_LENGTH &&
+                CKYChart.sizeInBytes(numTags, length + 1, false) <= maxChartBytes) {
+            length++;
+        }
+        return length;
+    }
+
+    public int getMaxLength() {
+        return m_MaxLength;
+    }
+
+    /**
+     * Parses the segments of a sentence on the pool, which must not be the one
+     * running the calls to this parser. A null pool parses them in turn.
+     */
+    public void setParallelism(ExecutorService pool) {
+        m_Pool = pool;
+    }
+
+    public Tree<String> getBestParse(List<String> sentence) {
+        return parse(sentence).getTree();
+    }
+
+    public Result parse(List<String> sentence) {
+        m_Sentences.incrementAndGet();
+        int[] ends = segment(sentence, m_MaxLength);
+        if (ends.length == 1) {
+            return new Result(m_Parser.getBestParse(sentence), ends);
+        }
+        m_Segmented.incrementAndGet();
+        m_Segments.addAndGet(ends.length);
+
+        List<List<String>> segments = new ArrayList<List<String>>(ends.length);
+        for (int idx = 0, start = 0; idx < ends.length; start = ends[idx++]) {
+            segments.add(sentence.subList(start, ends[idx]));
+        }
+        List<Tree<String>> trees = parseSegments(segments);
+        List<Tree<String>> children = new ArrayList<Tree<String>>();
+        for (int idx = 0; idx < segments.size(); idx++) {
+            Tree<String> tree = trees.get(idx);
+            if (tree != null) {
+                children.addAll(tree.getChildren());
+            } else {
+                children.add(flatTree(segments.get(idx)));
+            }
+        }
+        return new Result(new Tree<String>("ROOT", children), ends);
+    }
+
+    List<Tree<String>> parseSegments(final List<List<String>> segments) {
+        ExecutorService pool = m_Pool;
+        List<Tree<String>> trees = new ArrayList<Tree<String>>(segments.size());
+        if (pool == null) {
+            for (List<String> segment : segments) {
+                trees.add(parseSegment(segment));
+            }
+            return trees;
+        }
+        try {
+            List<Future<Tree<String>>> futures = new ArrayList<Future<Tree<String>>>(segments.size());
+            for (final List<String> segment : segments) {
+                futures.add(pool.submit(new Callable<Tree<String>>() {
+                    public Tree<String> call() {
+                        return parseSegment(segment);
+                    }
+                }));
+            }
+            for (Future<Tree<String>> future : futures) {
+                trees.add(future.get());
+            }
+            return trees;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Parsing failed", e.getCause());
+        }
+    }
+
+    /**
+     * The tree of a segment, its best fragment when no ROOT covers it, null
+     * when no label does. The CKYParser itself parses it once as a fragment;
+     * after another parser, the fragment comes from the chart it left when it
+     * is the CKYParser's, and from a second parse otherwise.
+     */
+    Tree<String> parseSegment(List<String> segment) {
+        if (m_Parser == m_Fragments) {
+            return m_Fragments.getBestFragmentParse(segment, m_Fragmented);
+        }
+        Tree<String> tree = m_Parser.getBestParse(segment);
+        if (tree.getYield().equals(segment)) {
+            return tree;
+        }
+        m_Fragmented.incrementAndGet();
+        tree = m_Fragments.getChartFragment(segment);
+        return tree != null ? tree : m_Fragments.getBestFragmentParse(segment);
+    }
+
+    /** End positions of the segments of at most maxLength words of the sentence */
+    public static int[] segment(List<String> sentence, int maxLength) {
+        int sentLen = sentence.size();
+        int[] ends = new int[sentLen + 1];
+        int numSegments = 0;
+        for (int start = 0; sentLen - start > maxLength; start = ends[numSegments++]) {
+            int end = start + maxLength;
+            while (end > start + 1 && !isBoundary(sentence, end)) {
+                end--;
+            }
+            ends[numSegments] = isBoundary(sentence, end) ? end : start + maxLength;
+        }
+        ends[numSegments++] = sentLen;
+        return Arrays.copyOf(ends, numSegments);
+    }
+
+    // A cut between the words end - 1 and end
+    static boolean isBoundary(List<String> sentence, int end) {
+        return PUNCTUATION.contains(sentence.get(end - 1)) || COORDINATORS.contains(sentence.get(end).toLowerCase());
+    }
+
+    static Tree<String> flatTree(List<String> words) {
+        List<Tree<String>> children = new ArrayList<Tree<String>>(words.size());
+        for (String word : words) {
+            children.add(new Tree<String>("X", new ArrayList<Tree<String>>(
+                    Arrays.asList(new Tree<String>(word)))));
+        }
+        return new Tree<String>("FRAG", children);
+    }
+
+    public Parser getParser() {
+        return m_Parser;
+    }
+
+    public void printStats() {
+        System.out.format("Segmented %d / %d sentences into %d segments, %d without a ROOT (at most %d words, %d KB charts)\n",
+                m_Segmented.get(), m_Sentences.get(), m_Segments.get(), m_Fragmented.get(), m_MaxLength, m_MaxChartBytes / 1024);
+    }
+}
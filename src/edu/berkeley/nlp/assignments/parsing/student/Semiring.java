@@ -0,0 +1,105 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+/**
+ * How ChartKernel combines the derivations of a chart entry. Every semiring
+ * works on logs, so an empty entry is -Infinity whatever the semiring and a
+ * derivation is the sum of its rule weights and child scores; only the weight
+ * of a rule and the way derivations are added differ:
+ *
+ *   VITERBI   max over derivations, with the backpointer of the best
+ *   INSIDE    log of the sum of the derivation probabilities
+ *   COUNTING  log of the number of derivations (every rule weighs 0)
+ *
+ * The subclasses are final and the kernel holds its semiring in a final
+ * field, so each call site only ever sees the semirings a process uses, one
+ * or two, and the JIT inlines them.
+ */
+public abstract class Semiring {
+
+    public static final Semiring VITERBI    = new Viterbi();
+    public static final Semiring INSIDE     = new Inside();
+    public static final Semiring COUNTING   = new Counting();
+
+    /** Weight of a rule or tagging of the given log probability */
+    public abstract double weight(double logScore);
+
+    /**
+     * Adds one derivation of the given score and backpointer to the entry,
+     * true when the entry changed.
+     */
+    public abstract boolean add(double[] scores, int[] backs, int entry, double score, int back);
+
+    /** Whether the backpointers of the chart are those of the best derivations */
+    public abstract boolean hasBackpointers();
+
+    static double logAdd(double a, double b) {
+        if (a == Double.NEGATIVE_INFINITY) return b;
+        if (b == Double.NEGATIVE_INFINITY) return a;
+        return a > b ? a + Math.log1p(Math.exp(b - a)) : b + Math.log1p(Math.exp(a - b));
+    }
+
+    /** Max-plus; ties keep the lowest backpointer, as enumerating the rules in order */
+    static final class Viterbi extends Semiring {
+        public double weight(double logScore) {
+            return logScore;
+        }
+
+        public boolean add(double[] scores, int[] backs, int entry, double score, int back) {
+            if (score > scores[entry] || (score == scores[entry] && back < backs[entry])) {
+                scores[entry] = score;
+                backs[entry] = back;
+                return true;
+            }
+            return false;
+        }
+
+        public boolean hasBackpointers() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "viterbi";
+        }
+    }
+
+    static final class Inside extends Semiring {
+        public double weight(double logScore) {
+            return logScore;
+        }
+
+        public boolean add(double[] scores, int[] backs, int entry, double score, int back) {
+            scores[entry] = logAdd(scores[entry], score);
+            return true;
+        }
+
+        public boolean hasBackpointers() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "inside";
+        }
+    }
+
+    static final class Counting extends Semiring {
+        public double weight(double logScore) {
+            return logScore == Double.NEGATIVE_INFINITY ? logScore : 0.0;
+        }
+
+        public boolean add(double[] scores, int[] backs, int entry, double score, int back) {
+            scores[entry] = logAdd(scores[entry], score);
+            return true;
+        }
+
+        public boolean hasBackpointers() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "counting";
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Least recently used cache bounded by an estimate of the bytes of its
+ * entries: every put gives the size of its entry, and the least recently used
+ * entries are evicted until the total fits the budget again. An entry larger
+ * than the whole budget is not kept. All methods are synchronized, so one
+ * cache can be shared by the parsing threads.
+ */
+public class SizedLruCache<K, V> {
+
+    final LinkedHashMap<K, Sized<V>> m_Entries = new LinkedHashMap<K, Sized<V>>(16, 0.75f, true);
+    final long                      m_MaxBytes;
+    long                            m_Bytes;
+    long                            m_Hits;
+    long                            m_Misses;
+    long                            m_Evictions;
+
+    public SizedLruCache(long maxBytes) {
+        m_MaxBytes = maxBytes;
+    }
+
+    /** The value of the key, null on a miss */
+    public synchronized V get(Object key) {
+        Sized<V> entry = m_Entries.get(key);
+        if (entry == null) {
+            m_Misses++;
+            return null;
+        }
+        m_Hits++;
+        return entry.m_Value;
+    }
+
+    public synchronized void put(K key, V value, long bytes) {
+        if (bytes > m_MaxBytes)
+            return;
+        Sized<V> old = m_Entries.put(key, new Sized<V>(value, bytes));
+        if (old != null) {
+            m_Bytes -= old.m_Bytes;
+        }
+        m_Bytes += bytes;
+        Iterator<Sized<V>> eldest = m_Entries.values().iterator();
+        while (m_Bytes > m_MaxBytes) {
+            m_Bytes -= eldest.next().m_Bytes;
+            eldest.remove();
+            m_Evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        m_Entries.clear();
+        m_Bytes = 0;
+    }
+
+    public synchronized int size() {
+        return m_Entries.size();
+    }
+
+    public synchronized long sizeInBytes() {
+        return m_Bytes;
+    }
+
+    public synchronized double hitRate() {
+        return (double) m_Hits / Math.max(1, m_Hits + m_Misses);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hits / %d lookups (%.2f%%), %d entries, %d KB of %d KB, %d evictions",
+                m_Hits, m_Hits + m_Misses, 100 * hitRate(), m_Entries.size(), m_Bytes / 1024, m_MaxBytes / 1024, m_Evictions);
+    }
+
+    static class Sized<V> {
+        final V     m_Value;
+        final long  m_Bytes;
+
+        Sized(V value, long bytes) {
+            m_Value = value;
+            m_Bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Completed chart cells of CKYParser keyed by the words of their span, for
+ * spans of at least minLength words (see CKYParser.setSpanCache). Without a
+ * mask or a beam the inside scores and backpointers of a cell only depend on
+ * the words it covers, not on the rest of the sentence, so cells filled once
+ * can be copied into any chart with the same words at another position. Ties
+ * still go the same way: binary backpointers are kept with their split
+ * relative to the start of the span, which orders them as the absolute ones.
+ *
+ * An entry holds every cell inside its span, not only the top one: the longer
+ * spans of the sentence and the decoder read the cells below, so a hit copies
+ * the whole triangle and the parser fills none of its cells. Only the labels
+ * with a finite score are kept.
+ *
+ * Looking up and storing every span would cost more than the cells it saves,
+ * so a doorkeeper as in TinyLFU (two one-hash Bloom filters of the spans of
+ * the previous sentences, seen once and seen again, cleared once half full)
+ * only lets through the spans seen at least twice before. They are looked up
+ * longest first, keyed by their rolling hash, and a missed span is stored
+ * after the parse unless it lies inside a longer one restored or stored: the
+ * cache keeps the longest fragments that come back.
+ */
+public class SpanCache {
+
+    // Rough heap bytes of a cached span besides its cells, of a cell besides
+    // its labels, and of a key word
+    static final long   SPAN_BYTES  = 160;
+    static final long   CELL_BYTES  = 4;
+    static final long   WORD_BYTES  = 56;
+    static final int    SEEN_BITS   = 22;
+
+    final int                                   m_NumTags;
+    final int                                   m_MinLength;
+    final SizedLruCache<Key, Span>              m_Spans;
+    final long[]                                m_Seen      = new long[(1 << SEEN_BITS) / 64];
+    final long[]                                m_Repeated  = new long[(1 << SEEN_BITS) / 64];
+    final AtomicLong                            m_SeenAdds  = new AtomicLong();
+
+    public SpanCache(int numTags, long maxBytes, int minLength) {
+        m_NumTags   = numTags;
+        m_MinLength = Math.max(1, minLength);
+        m_Spans     = new SizedLruCache<Key, Span>(maxBytes);
+    }
+
+    /** Words of a span with their hash from spanHashes */
+    static final class Key {
+        final List<String>  m_Words;
+        final long          m_Hash;
+
+        Key(List<String> words, long hash) {
+            m_Words = words;
+            m_Hash  = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (m_Hash ^ (m_Hash >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return m_Hash == other.m_Hash && m_Words.equals(other.m_Words);
+        }
+    }
+
+    /**
+     * The cells inside one span, in the order of their relative cell index
+     * (CKYChart.cellIndex of the span shifted to start at 0), each the labels
+     * with a finite score, in label order.
+     */
+    static class Span {
+        final int[]     m_CellOffsets;      // First label of each cell, and the end
+        final int[]     m_Labels;
+        final double[]  m_BinaryScores;
+        final double[]  m_UnaryScores;
+        final int[]     m_BinaryBack;       // Split relative to the start of the span
+        final int[]     m_UnaryBack;
+
+        Span(int numCells, int numLabels) {
+            m_CellOffsets   = new int[numCells + 1];
+            m_Labels        = new int[numLabels];
+            m_BinaryScores  = new double[numLabels];
+            m_UnaryScores   = new double[numLabels];
+            m_BinaryBack    = new int[numLabels];
+            m_UnaryBack     = new int[numLabels];
+        }
+    }
+
+    /** Cells of one sentence restored from the cache, and the spans to store after the parse */
+    public static class Lookup {
+        final boolean[]     m_Restored;     // By cell index
+        final boolean[]     m_Claimed;      // Inside a restored or missed span, not stored
+        final List<int[]>   m_Misses = new ArrayList<int[]>();
+
+        Lookup(int sentLen) {
+            m_Restored  = new boolean[CKYChart.numCells(sentLen)];
+            m_Claimed   = new boolean[CKYChart.numCells(sentLen)];
+        }
+
+        /** Whether the parser must leave the cell as restored */
+        public boolean isRestored(int cellIdx) {
+            return m_Restored[cellIdx];
+        }
+
+        void claim(int start, int end, boolean restored) {
+            for (int e = start + 1; e <= end; e++) {
+                for (int s = start; s < e; s++) {
+                    int cellIdx = CKYChart.cellIndex(s, e);
+                    m_Claimed[cellIdx] = true;
+                    if (restored) m_Restored[cellIdx] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores into the freshly reset chart, lexical diagonal filled, the
+     * cached spans of the sentence that were seen twice before, longest first,
+     * then marks the spans of the sentence as seen. The spans inside a missed
+     * one are still looked up.
+     */
+    public Lookup restore(CKYChart chart) {
+        List<String> sentence = chart.getSentence();
+        int sentLen = sentence.size();
+        Lookup lookup = new Lookup(sentLen);
+        long[] hashes = spanHashes(sentence);
+        for (int length = sentLen; length >= m_MinLength; length--) {
+            for (int start = 0; start + length <= sentLen; start++) {
+                int end = start + length;
+                int cellIdx = CKYChart.cellIndex(start, end);
+                if (lookup.m_Restored[cellIdx] || !isSet(m_Repeated, hashes[cellIdx]))
+                    continue;
+                Span cached = m_Spans.get(new Key(sentence.subList(start, end), hashes[cellIdx]));
+                if (cached != null) {
+                    copy(cached, chart, start, end);
+                    lookup.claim(start, end, true);
+                } else if (!lookup.m_Claimed[cellIdx]) {
+                    lookup.m_Misses.add(new int[] { start, end });
+                    lookup.claim(start, end, false);
+                }
+            }
+        }
+        markSeen(hashes, sentLen);
+        return lookup;
+    }
+
+    /** Keeps the spans the lookup missed, once the parser filled the chart */
+    public void store(CKYChart chart, Lookup lookup) {
+        for (int[] miss : lookup.m_Misses) {
+            store(chart, miss[0], miss[1]);
+        }
+    }
+
+    void copy(Span cached, CKYChart chart, int start, int end) {
+        int rel = 0;
+        for (int cellEnd = start + 1; cellEnd <= end; cellEnd++) {
+            for (int cellStart = start; cellStart < cellEnd; cellStart++, rel++) {
+                int cellIdx = CKYChart.cellIndex(cellStart, cellEnd);
+                int cell = cellIdx * m_NumTags;
+                int numLive = 0;
+                for (int idx = cached.m_CellOffsets[rel]; idx < cached.m_CellOffsets[rel + 1]; idx++) {
+                    int tagIdx = cached.m_Labels[idx];
+                    int binaryBack = cached.m_BinaryBack[idx];
+                    chart.m_BinaryScores[cell + tagIdx] = cached.m_BinaryScores[idx];
+                    chart.m_UnaryScores[cell + tagIdx]  = cached.m_UnaryScores[idx];
+                    chart.m_BinaryBack[cell + tagIdx]   = binaryBack < 0 ? binaryBack :
+                            CKYChart.packBinary(CKYChart.binaryRule(binaryBack), CKYChart.binarySplit(binaryBack) + start);
+                    chart.m_UnaryBack[cell + tagIdx]    = cached.m_UnaryBack[idx];
+                    chart.m_LiveLabels[cell + numLive++] = tagIdx;
+                }
+                chart.m_LiveCounts[cellIdx] = numLive;
+                int c = cellIdx * CKYChart.CELL_STATS;
+                for (int stat = 0; stat < CKYChart.CELL_STATS; stat++) {
+                    chart.m_CellStats[c + stat] = 0;
+                }
+            }
+        }
+    }
+
+    // Keeps the filled cells inside [start, end) of the chart for its words.
+    // The reflexive unary rules make every finite binary score a finite unary
+    // one, so the live labels are all the finite entries of a cell.
+    void store(CKYChart chart, int start, int end) {
+        int numCells = CKYChart.numCells(end - start);
+        int numLabels = 0;
+        for (int cellEnd = start + 1; cellEnd <= end; cellEnd++) {
+            for (int cellStart = start; cellStart < cellEnd; cellStart++) {
+                numLabels += chart.m_LiveCounts[CKYChart.cellIndex(cellStart, cellEnd)];
+            }
+        }
+        Span cached = new Span(numCells, numLabels);
+        int rel = 0, idx = 0;
+        for (int cellEnd = start + 1; cellEnd <= end; cellEnd++) {
+            for (int cellStart = start; cellStart < cellEnd; cellStart++) {
+                int cellIdx = CKYChart.cellIndex(cellStart, cellEnd);
+                int cell = cellIdx * m_NumTags;
+                cached.m_CellOffsets[rel++] = idx;
+                for (int live = cell, liveEnd = cell + chart.m_LiveCounts[cellIdx]; live < liveEnd; live++) {
+                    int tagIdx = chart.m_LiveLabels[live];
+                    int binaryBack = chart.m_BinaryBack[cell + tagIdx];
+                    cached.m_Labels[idx]        = tagIdx;
+                    cached.m_BinaryScores[idx]  = chart.m_BinaryScores[cell + tagIdx];
+                    cached.m_UnaryScores[idx]   = chart.m_UnaryScores[cell + tagIdx];
+                    cached.m_BinaryBack[idx]    = binaryBack < 0 ? binaryBack :
+                            CKYChart.packBinary(CKYChart.binaryRule(binaryBack), CKYChart.binarySplit(binaryBack) - start);
+                    cached.m_UnaryBack[idx]     = chart.m_UnaryBack[cell + tagIdx];
+                    idx++;
+                }
+            }
+        }
+        cached.m_CellOffsets[numCells] = idx;
+        List<String> words = new ArrayList<String>(chart.getSentence().subList(start, end));
+        Key key = new Key(words, spanHash(words, 0, words.size()));
+        m_Spans.put(key, cached, SPAN_BYTES + WORD_BYTES * words.size() + CELL_BYTES * numCells + 28L * numLabels);
+    }
+
+    // Polynomial hashes of the spans of the sentence, by cell index
+    static long[] spanHashes(List<String> sentence) {
+        int sentLen = sentence.size();
+        long[] hashes = new long[CKYChart.numCells(sentLen)];
+        for (int start = 0; start < sentLen; start++) {
+            long hash = 0;
+            for (int end = start + 1; end <= sentLen; end++) {
+                hash = nextHash(hash, sentence.get(end - 1));
+                hashes[CKYChart.cellIndex(start, end)] = hash;
+            }
+        }
+        return hashes;
+    }
+
+    static long spanHash(List<String> sentence, int start, int end) {
+        long hash = 0;
+        for (int idx = start; idx < end; idx++) {
+            hash = nextHash(hash, sentence.get(idx));
+        }
+        return hash;
+    }
+
+    static long nextHash(long hash, String word) {
+        return 0x9E3779B97F4A7C15L * (hash + word.hashCode());
+    }
+
+    // Races between threads may lose a bit now and then, the filters only steer the lookups
+    static boolean isSet(long[] filter, long hash) {
+        int bit = (int) (hash >>> (64 - SEEN_BITS));
+        return (filter[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    // Adds the spans of at least m_MinLength words, clearing the filters every
+    // 2^(SEEN_BITS-1) spans
+    void markSeen(long[] hashes, int sentLen) {
+        int numSpans = sentLen < m_MinLength ? 0 : CKYChart.numCells(sentLen - m_MinLength + 1);
+        long adds = m_SeenAdds.addAndGet(numSpans);
+        if ((adds >>> (SEEN_BITS - 1)) != ((adds - numSpans) >>> (SEEN_BITS - 1))) {
+            Arrays.fill(m_Seen, 0L);
+            Arrays.fill(m_Repeated, 0L);
+        }
+        for (int length = m_MinLength; length <= sentLen; length++) {
+            for (int start = 0; start + length <= sentLen; start++) {
+                int bit = (int) (hashes[CKYChart.cellIndex(start, start + length)] >>> (64 - SEEN_BITS));
+                long mask = 1L << bit;
+                if ((m_Seen[bit >>> 6] & mask) != 0) {
+                    m_Repeated[bit >>> 6] |= mask;
+                } else {
+                    m_Seen[bit >>> 6] |= mask;
+                }
+            }
+        }
+    }
+
+    public int getMinLength() {
+        return m_MinLength;
+    }
+
+    public void printStats() {
+        System.out.println("Span cache (" + m_MinLength + "+ words): " + m_Spans);
+    }
+}
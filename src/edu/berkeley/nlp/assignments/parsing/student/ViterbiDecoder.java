@@ -0,0 +1,124 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.Indexer;
+
+/**
+ * Builds the best tree out of the backpointers of a filled CKYChart.
+ *
+ * The walk is iterative over an explicit stack of frames, so deep trees (long
+ * sentences, long unary chains) cannot overflow the thread stack. A frame
+ * either expands the unary item of a span, joins the two trees on top of the
+ * tree stack under a binary parent, or wraps the top tree with the labels of a
+ * closed unary path. The stacks are reused between sentences, so a decoder
+ * belongs to one thread, like the chart.
+ */
+public class ViterbiDecoder {
+
+    static final int    EXPAND  = 0;        // (EXPAND, tag, start, end): unary item of the span
+    static final int    BINARY  = 1;        // (BINARY, tag): two top trees become children of tag
+    static final int    WRAP    = 2;        // (WRAP, unary rule): top tree gets the path of the rule
+    static final int    FRAME   = 4;        // ints per frame
+
+    final CompiledGrammar   m_Compiled;
+    final Indexer<String>   m_Indexer;
+    int[]                   m_Frames    = new int[64 * FRAME];
+    Tree<String>[]          m_Trees     = newTrees(64);
+
+    public ViterbiDecoder(CompiledGrammar compiled) {
+        m_Compiled  = compiled;
+        m_Indexer   = compiled.getLabelIndexer();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Tree<String>[] newTrees(int size) {
+        return new Tree[size];
+    }
+
+    /**
+     * The tree of the unary item (tagIdx, start, end), which must have a finite
+     * score. Unary backpointers that are -1 or point at the reflexive rule
+     * leave the label as it is.
+     */
+    public Tree<String> decode(CKYChart chart, int tagIdx, int start, int end) {
+        int[] unaryBack     = chart.m_UnaryBack;
+        int[] binaryBack    = chart.m_BinaryBack;
+        int[] unaryChild    = m_Compiled.m_UnaryChild;
+        int[] binaryLeft    = m_Compiled.m_BinaryLeft;
+        int[] binaryRight   = m_Compiled.m_BinaryRight;
+        int numTags = chart.m_NumTags;
+
+        int top = 0;                // Frames on the stack
+        int trees = 0;              // Trees on the stack
+        top = push(top, EXPAND, tagIdx, start, end);
+        while (top > 0) {
+            top--;
+            int f = top * FRAME;
+            int op = m_Frames[f];
+            int tag = m_Frames[f + 1];
+            if (op == BINARY) {
+                Tree<String> right = m_Trees[--trees];
+                Tree<String> left = m_Trees[trees - 1];
+                m_Trees[trees - 1] = new Tree<String>(m_Indexer.get(tag), Arrays.asList(left, right));
+                m_Trees[trees] = null;
+                continue;
+            }
+            if (op == WRAP) {
+                int[] unaryPath = m_Compiled.m_UnaryPaths[tag];
+                Tree<String> tree = m_Trees[trees - 1];
+                for (int step = unaryPath.length - 2; step >= 0; --step) {
+                    tree = new Tree<String>(m_Indexer.get(unaryPath[step]), Collections.singletonList(tree));
+                }
+                m_Trees[trees - 1] = tree;
+                continue;
+            }
+
+            // EXPAND: the unary layer, then the binary item (or the word) below it
+            int spanStart = m_Frames[f + 2];
+            int spanEnd = m_Frames[f + 3];
+            int cell = CKYChart.cellIndex(spanStart, spanEnd) * numTags;
+            int unaIdx = unaryBack[cell + tag];
+            int childTagIdx = (unaIdx == -1) ? tag : unaryChild[unaIdx];
+            if (childTagIdx != tag) {
+                top = push(top, WRAP, unaIdx, 0, 0);
+            }
+            if (spanEnd - spanStart == 1) {
+                if (trees == m_Trees.length) {
+                    m_Trees = Arrays.copyOf(m_Trees, 2 * trees);
+                }
+                List<Tree<String>> word = Collections.singletonList(new Tree<String>(chart.m_Sentence.get(spanStart)));
+                m_Trees[trees++] = new Tree<String>(m_Indexer.get(childTagIdx), word);
+                continue;
+            }
+            int packed = binaryBack[cell + childTagIdx];
+            assert packed != -1 : "No binary backpointer for " + m_Indexer.get(childTagIdx);
+            int ruleNum = CKYChart.binaryRule(packed);
+            int split = CKYChart.binarySplit(packed);
+            assert m_Compiled.m_BinaryParent[ruleNum] == childTagIdx;
+            // The left child is expanded first, so its tree lands below the right one
+            top = push(top, BINARY, childTagIdx, 0, 0);
+            top = push(top, EXPAND, binaryRight[ruleNum], split, spanEnd);
+            top = push(top, EXPAND, binaryLeft[ruleNum], spanStart, split);
+        }
+        assert trees == 1;
+        Tree<String> tree = m_Trees[0];
+        m_Trees[0] = null;
+        return tree;
+    }
+
+    int push(int top, int op, int a, int b, int c) {
+        int f = top * FRAME;
+        if (f == m_Frames.length) {
+            m_Frames = Arrays.copyOf(m_Frames, 2 * f);
+        }
+        m_Frames[f]     = op;
+        m_Frames[f + 1] = a;
+        m_Frames[f + 2] = b;
+        m_Frames[f + 3] = c;
+        return top + 1;
+    }
+}
@@ -0,0 +1,272 @@
+package edu.berkeley.nlp.assignments.parsing.student;
+
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * FloatKernel whose binary layer is evaluated with the Vector API, across the
+ * split points: for a rule P -> L R over [start, end), the lanes hold
+ * rule + score(L, start, split) + score(R, split, end) for consecutive splits,
+ * and the max-plus over the splits is a lane-wise max and one reduction.
+ *
+ * The cell-major chart has the scores of one label over consecutive splits
+ * far apart, so the unary scores are also copied, as each cell is finished,
+ * into two label-major tables (see SplitScores) where they are contiguous:
+ * by start position for the left child, by end position for the right child.
+ * Only the rules with both children live around at least one split are
+ * evaluated (see SplitScores.anySplit).
+ *
+ * The vectors are always loaded whole. The lanes past the last split read
+ * longer spans starting at start, not filled yet, or the -Infinity padding
+ * after each row of the by-start table, so they add up to -Infinity whatever
+ * the right child lanes read.
+ *
+ * The float additions are done in the same order as the scalar kernel, and
+ * ties keep the lowest (rule, split), so both kernels choose the same trees.
+ * The binary attempts of the cell stats count rules evaluated over all splits.
+ *
+ * Needs --add-modules jdk.incubator.vector to build and run, so it is kept out
+ * of src/, see FloatKernel.create.
+ */
+public class VectorFloatKernel extends FloatKernel {
+
+    static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    /**
+     * Label-major copies of the unary layer of one thread. Only the entries
+     * written for a sentence are cleared for the next one, every other entry
+     * stays -Infinity.
+     */
+    static class SplitScores {
+        final int   m_NumTags;
+        int         m_Capacity;
+        int         m_SentLen;
+        int         m_LabelSize;        // Entries of one label in the tables
+        float[]     m_ByStart;          // label * labelSize + rowOffset(start) + (end - start - 1)
+        float[]     m_ByEnd;            // label * labelSize + cellIndex(start, end)
+        int[]       m_Written;          // Indices set in both tables
+        int         m_NumWritten;
+        int[]       m_RowLabels;        // Labels live in a span starting at start, start * numTags + k
+        int[]       m_RowCounts;
+        int[]       m_ColLabels;        // Labels live in a span ending at end, end * numTags + k
+        int[]       m_ColCounts;
+        int[]       m_MinLiveEnd;       // Shortest span where the label is live, label * capacity + start
+        int[]       m_MaxLiveStart;     // Shortest span where the label is live, label * (capacity + 1) + end
+        int         m_Words;            // Longs per bit set of positions
+        long[]      m_RowBits;          // Ends of the live spans, (label * capacity + start) * words
+        long[]      m_ColBits;          // Starts of the live spans, (label * (capacity + 1) + end) * words
+
+        SplitScores(int numTags) {
+            m_NumTags = numTags;
+        }
+
+        void reset(int sentLen) {
+            int lanes = FLOATS.length();
+            if (sentLen > m_Capacity) {
+                int entries = (CKYChart.numCells(sentLen) + sentLen * (lanes - 1)) * m_NumTags + lanes;
+                m_ByStart       = new float[entries];
+                m_ByEnd         = new float[entries];
+                m_Written       = new int[1024];
+                m_RowLabels     = new int[m_NumTags * sentLen];
+                m_RowCounts     = new int[sentLen];
+                m_ColLabels     = new int[m_NumTags * (sentLen + 1)];
+                m_ColCounts     = new int[sentLen + 1];
+                m_MinLiveEnd    = new int[m_NumTags * sentLen];
+                m_MaxLiveStart  = new int[m_NumTags * (sentLen + 1)];
+                m_Words         = (sentLen + 64) >>> 6;
+                m_RowBits       = new long[m_NumTags * sentLen * m_Words];
+                m_ColBits       = new long[m_NumTags * (sentLen + 1) * m_Words];
+                Arrays.fill(m_ByStart, Float.NEGATIVE_INFINITY);
+                Arrays.fill(m_ByEnd, Float.NEGATIVE_INFINITY);
+                Arrays.fill(m_MinLiveEnd, Integer.MAX_VALUE);
+                Arrays.fill(m_MaxLiveStart, -1);
+                m_Capacity      = sentLen;
+                m_SentLen       = 0;
+                m_NumWritten    = 0;
+            }
+            for (int i = 0; i < m_NumWritten; i++) {
+                m_ByStart[m_Written[i]] = Float.NEGATIVE_INFINITY;
+                m_ByEnd[m_Written[i]] = Float.NEGATIVE_INFINITY;
+            }
+            for (int start = 0; start < m_SentLen; start++) {
+                for (int k = 0; k < m_RowCounts[start]; k++) {
+                    int row = m_RowLabels[start * m_NumTags + k] * m_Capacity + start;
+                    m_MinLiveEnd[row] = Integer.MAX_VALUE;
+                    Arrays.fill(m_RowBits, row * m_Words, (row + 1) * m_Words, 0L);
+                }
+                m_RowCounts[start] = 0;
+            }
+            for (int end = 1; end <= m_SentLen; end++) {
+                for (int k = 0; k < m_ColCounts[end]; k++) {
+                    int col = m_ColLabels[end * m_NumTags + k] * (m_Capacity + 1) + end;
+                    m_MaxLiveStart[col] = -1;
+                    Arrays.fill(m_ColBits, col * m_Words, (col + 1) * m_Words, 0L);
+                }
+                m_ColCounts[end] = 0;
+            }
+            m_NumWritten = 0;
+            m_SentLen = sentLen;
+            m_LabelSize = CKYChart.numCells(sentLen) + sentLen * (lanes - 1);
+        }
+
+        // Spans starting at start, by end, follow the spans of the earlier
+        // starts, each row padded with a vector of -Infinity
+        int rowOffset(int start) {
+            return start * (m_SentLen + FLOATS.length() - 1) - start * (start - 1) / 2;
+        }
+
+        // Cells are filled by increasing length, the first live span is the shortest
+        void add(int tagIdx, int start, int end, float score) {
+            int byStart = tagIdx * m_LabelSize + rowOffset(start) + (end - start - 1);
+            int byEnd = tagIdx * m_LabelSize + CKYChart.cellIndex(start, end);
+            if (m_NumWritten + 2 > m_Written.length) {
+                m_Written = Arrays.copyOf(m_Written, 2 * m_Written.length);
+            }
+            m_ByStart[byStart] = score;
+            m_ByEnd[byEnd] = score;
+            m_Written[m_NumWritten++] = byStart;
+            m_Written[m_NumWritten++] = byEnd;
+            int row = tagIdx * m_Capacity + start;
+            if (m_MinLiveEnd[row] == Integer.MAX_VALUE) {
+                m_MinLiveEnd[row] = end;
+                m_RowLabels[start * m_NumTags + m_RowCounts[start]++] = tagIdx;
+            }
+            m_RowBits[row * m_Words + (end >>> 6)] |= 1L << end;
+            int col = tagIdx * (m_Capacity + 1) + end;
+            if (m_MaxLiveStart[col] == -1) {
+                m_MaxLiveStart[col] = start;
+                m_ColLabels[end * m_NumTags + m_ColCounts[end]++] = tagIdx;
+            }
+            m_ColBits[col * m_Words + (start >>> 6)] |= 1L << start;
+        }
+
+        /**
+         * Whether some split of [start, end) has the left label live before it
+         * and the right label live after it. Only shorter spans are filled, so
+         * the bits of the row and the column are all within the splits.
+         */
+        boolean anySplit(int leftIdx, int rightIdx, int start, int end) {
+            int row = (leftIdx * m_Capacity + start) * m_Words;
+            int col = (rightIdx * (m_Capacity + 1) + end) * m_Words;
+            for (int w = (start + 1) >>> 6, wEnd = (end - 1) >>> 6; w <= wEnd; w++) {
+                if ((m_RowBits[row + w] & m_ColBits[col + w]) != 0)
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    final ThreadLocal<SplitScores> m_SplitScores = new ThreadLocal<SplitScores>() {
+        @Override
+        protected SplitScores initialValue() {
+            return new SplitScores(m_NumTags);
+        }
+    };
+
+    VectorFloatKernel(CompiledGrammar compiled, CompiledLexicon lexical) {
+        super(compiled, lexical);
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    public int getLanes() {
+        return FLOATS.length();
+    }
+
+    @Override
+    public CKYChart fill(List<String> sentence, ChartMask mask) {
+        m_SplitScores.get().reset(sentence.size());
+        return super.fill(sentence, mask);
+    }
+
+    @Override
+    void fillCell(CKYChart chart, int start, int end, ChartMask mask) {
+        super.fillCell(chart, start, end, mask);
+
+        SplitScores split = m_SplitScores.get();
+        float[] unaryScores = chart.m_UnaryFloats;
+        int[] liveLabels    = chart.m_LiveLabels;
+        int cellIdx = CKYChart.cellIndex(start, end);
+        int cell = cellIdx * m_NumTags;
+        for (int live = cell, liveEnd = cell + chart.m_LiveCounts[cellIdx]; live < liveEnd; ++live) {
+            split.add(liveLabels[live], start, end, unaryScores[cell + liveLabels[live]]);
+        }
+    }
+
+    @Override
+    void fillBinary(CKYChart chart, int start, int end, ChartMask mask) {
+        SplitScores split       = m_SplitScores.get();
+        float[] byStart         = split.m_ByStart;
+        float[] byEnd           = split.m_ByEnd;
+        int[] rowLabels         = split.m_RowLabels;
+        int[] minLiveEnd        = split.m_MinLiveEnd;
+        int[] maxLiveStart      = split.m_MaxLiveStart;
+        float[] binaryScores    = chart.m_BinaryFloats;
+        int[] binaryBack        = chart.m_BinaryBack;
+        int[] leftOffsets       = m_Compiled.m_LeftOffsets;
+        int[] leftRight         = m_Compiled.m_LeftRight;
+        int[] leftParent        = m_Compiled.m_LeftParent;
+        int[] leftRule          = m_Compiled.m_LeftRule;
+        float[] leftRuleScore   = m_LeftScore;
+        int capacity = split.m_Capacity, labelSize = split.m_LabelSize;
+        int cellIdx = CKYChart.cellIndex(start, end);
+        int cell = cellIdx * m_NumTags;
+        // Lane i is the split start + 1 + i
+        int numSplits = end - start - 1;
+        int leftRow = split.rowOffset(start);
+        int rightRow = CKYChart.cellIndex(start + 1, end);
+        int lanes = FLOATS.length();
+        FloatVector none = FloatVector.broadcast(FLOATS, Float.NEGATIVE_INFINITY);
+        long attempts = 0, improved = 0;
+
+        for (int k = start * m_NumTags, kEnd = k + split.m_RowCounts[start]; k < kEnd; ++k) {
+            int leftIdx = rowLabels[k];
+            if (minLiveEnd[leftIdx * capacity + start] >= end)
+                continue;
+            int left = leftIdx * labelSize + leftRow;
+            for (int r = leftOffsets[leftIdx], rEnd = leftOffsets[leftIdx+1]; r < rEnd; ++r) {
+                int rightIdx = leftRight[r];
+                if (maxLiveStart[rightIdx * (capacity + 1) + end] <= start ||
+                        !split.anySplit(leftIdx, rightIdx, start, end))
+                    continue;
+                if (mask != null && !mask.allows(cellIdx, leftParent[r]))
+                    continue;
+                int right = rightIdx * labelSize + rightRow;
+                FloatVector ruleScore = FloatVector.broadcast(FLOATS, leftRuleScore[r]);
+                FloatVector best = none;
+                for (int i = 0; i < numSplits; i += lanes) {
+                    FloatVector score = ruleScore
+                            .add(FloatVector.fromArray(FLOATS, byStart, left + i))
+                            .add(FloatVector.fromArray(FLOATS, byEnd, right + i));
+                    best = best.max(score);
+                }
+                attempts++;
+                float max = best.reduceLanes(VectorOperators.MAX);
+                int parent = cell + leftParent[r];
+                if (max == Float.NEGATIVE_INFINITY || max < binaryScores[parent])
+                    continue;
+                // The lowest split reaching the max, as the scalar kernel keeps
+                int i = 0;
+                while (leftRuleScore[r] + byStart[left + i] + byEnd[right + i] != max)
+                    i++;
+                int packed = CKYChart.packBinary(leftRule[r], start + 1 + i);
+                if (max > binaryScores[parent] || packed < binaryBack[parent]) {
+                    binaryScores[parent] = max;
+                    binaryBack[parent] = packed;
+                    improved++;
+                }
+            }
+        }
+        int c = cellIdx * CKYChart.CELL_STATS;
+        chart.m_CellStats[c + CKYChart.BINARY_ATTEMPTS] = attempts;
+        chart.m_CellStats[c + CKYChart.BINARY_IMPROVED] = improved;
+    }
+}